@@ -0,0 +1,95 @@
+package com.my.chatroom;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的消息样本
+ * 覆盖所有 Message 子类，内容长度从几十字节的短文本到数 MB 的图片。
+ * 密文字段用固定种子的随机字节 Base64 编码模拟，保证每次运行完全一致。
+ * 【新增】带二进制尾部的消息 (TEXT_SEALED、IMAGE_CHUNK_64K、SENDER_KEY) 的密文同样用随机字节模拟，长度与真实信封一致。
+ */
+final class BenchmarkPayloads {
+
+    private static final Random RANDOM = new Random(42);
+
+    private BenchmarkPayloads() {}
+
+    static Message create(String kind) {
+        switch (kind) {
+            case "TEXT_SHORT": {
+                TextMessage msg = new TextMessage("alice", randomBase64(32));
+                msg.setTargetUserId("bob");
+                return msg;
+            }
+            case "TEXT_4K": {
+                TextMessage msg = new TextMessage("alice", randomBase64(4 * 1024));
+                msg.setTargetUserId("bob");
+                return msg;
+            }
+            case "TEXT_SEALED": {
+                // GCM 信封 (1 + 12 + 明文 + 16) 作为 JSON + 0x00 + 二进制尾部发送，content 为空
+                TextMessage msg = new TextMessage("alice", null);
+                msg.setTargetUserId("bob");
+                msg.setSealedContent(randomBytes(1 + 12 + 256 + 16));
+                return msg;
+            }
+            case "GROUP_TEXT": {
+                TextMessage msg = new TextMessage("alice", "大家好，今晚一起开黑吗？");
+                msg.setTargetUserId("ALL");
+                return msg;
+            }
+            case "BURN_AFTER_READ": {
+                BurnAfterReadMessage msg = new BurnAfterReadMessage("alice", randomBase64(64));
+                msg.setTargetUserId("bob");
+                return msg;
+            }
+            case "LOGIN_REQUEST":
+                return new LoginRequest("alice", "password123", randomBase64(294));
+            case "LOGIN_RESPONSE":
+                return new LoginResponse("alice", true, "登录成功！");
+            case "KEY_EXCHANGE_REQUEST":
+                return new KeyExchangeRequest("alice", "bob");
+            case "KEY_EXCHANGE_RESPONSE":
+                return new KeyExchangeResponse("alice", true, "成功", "bob", randomBase64(294));
+            case "AES_KEY_EXCHANGE":
+                return new AESKeyExchangeMessage("alice", "bob", randomBase64(256));
+            case "USER_LIST": {
+                List<String> users = new ArrayList<>();
+                for (int i = 0; i < 200; i++) users.add("user_" + i);
+                return new UserListMessage(users);
+            }
+            case "HEARTBEAT":
+                return new Message(Message.MessageType.HEARTBEAT);
+            case "HEARTBEAT_ACK":
+                return new HeartbeatAck(1_700_000_000_000L, 1_700_000_000_012L);
+            case "IMAGE_CHUNK_64K":
+                return new ImageChunkMessage("alice", "bob", "transfer-0001", 3, false, randomBytes(64 * 1024));
+            case "SENDER_KEY":
+                // 链密钥 + 链编号 + 计数器经私聊会话密钥 seal 后的长度
+                return new SenderKeyMessage("alice", "bob", randomBytes(1 + 12 + 44 + 16));
+            case "PUBLIC_KEY_UPDATE":
+                return new PublicKeyUpdate("alice", randomBase64(294), randomBase64(44));
+            case "IMAGE_64K":
+                return new ImageMessage("alice", randomBase64(64 * 1024), "bob");
+            case "IMAGE_1M":
+                return new ImageMessage("alice", randomBase64(1024 * 1024), "bob");
+            case "IMAGE_4M":
+                return new ImageMessage("alice", randomBase64(4 * 1024 * 1024), "bob");
+            default:
+                throw new IllegalArgumentException("未知的样本类型: " + kind);
+        }
+    }
+
+    static String randomBase64(int rawBytes) {
+        return Base64.getEncoder().encodeToString(randomBytes(rawBytes));
+    }
+
+    static byte[] randomBytes(int count) {
+        byte[] bytes = new byte[count];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,21 @@
+package com.my.chatroom;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口
+ * 默认开启 GC profiler，输出中的 gc.alloc.rate.norm 即每次操作的分配字节数。
+ * 用法：java -jar target/benchmarks.jar [JMH 参数，例如 CodecBenchmark -p payload=IMAGE_4M]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
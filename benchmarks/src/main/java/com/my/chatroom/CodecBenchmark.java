@@ -0,0 +1,83 @@
+package com.my.chatroom;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线路编解码基准 (CodecBenchmark)
+ * 覆盖 MessageToJsonEncoder、JsonToMessageDecoder 以及直接调用 MessageTypeAdapter 的 Gson 序列化/反序列化。
+ * 任何编解码相关的改动都应先对比这里的吞吐量和 gc.alloc.rate.norm (每次操作分配的字节数)。
+ * 【修改】decoder 的输入帧由编码器生成，带二进制尾部的样本 (TEXT_SEALED 等) 测的是 JSON + 0x00 + 尾部的完整帧。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"TEXT_SHORT", "TEXT_4K", "TEXT_SEALED", "GROUP_TEXT", "BURN_AFTER_READ",
+            "LOGIN_REQUEST", "LOGIN_RESPONSE", "PUBLIC_KEY_UPDATE",
+            "KEY_EXCHANGE_REQUEST", "KEY_EXCHANGE_RESPONSE", "AES_KEY_EXCHANGE", "SENDER_KEY",
+            "USER_LIST", "HEARTBEAT", "HEARTBEAT_ACK",
+            "IMAGE_64K", "IMAGE_1M", "IMAGE_4M", "IMAGE_CHUNK_64K"})
+    public String payload;
+
+    private final Gson gson = MessageTypeAdapter.createGson();
+    private final MessageToJsonEncoder encoder = new MessageToJsonEncoder();
+    private final JsonToMessageDecoder decoder = new JsonToMessageDecoder();
+    private final List<Object> decoded = new ArrayList<>(1);
+
+    private Message message;
+    private String json;
+    private ByteBuf frame;
+    private ByteBuf encodeTarget;
+
+    @Setup
+    public void setup() throws Exception {
+        message = BenchmarkPayloads.create(payload);
+        json = gson.toJson(message);
+        frame = Unpooled.buffer();
+        encoder.encode(null, message, frame);
+        // 预分配足够大的输出缓冲区，只统计编码器自身的分配
+        encodeTarget = Unpooled.buffer(frame.readableBytes() + 64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+        encodeTarget.release();
+    }
+
+    @Benchmark
+    public ByteBuf encoder() throws Exception {
+        encodeTarget.clear();
+        encoder.encode(null, message, encodeTarget);
+        return encodeTarget;
+    }
+
+    @Benchmark
+    public Object decoder() throws Exception {
+        frame.readerIndex(0);
+        decoded.clear();
+        decoder.decode(null, frame, decoded);
+        return decoded.get(0);
+    }
+
+    @Benchmark
+    public String adapterWrite() {
+        return gson.toJson(message);
+    }
+
+    @Benchmark
+    public Message adapterRead() {
+        return gson.fromJson(json, Message.class);
+    }
+}
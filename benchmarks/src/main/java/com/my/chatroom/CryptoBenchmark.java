@@ -0,0 +1,166 @@
+package com.my.chatroom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加解密基准 (CryptoBenchmark)
+ * 覆盖 EncryptionUtils 中每条消息都会走到的路径：单条 AES 加密 / 解密、打开会话时整页解密历史记录，
+ * 以及密钥交换时的 RSA 加密和公钥解析。
+ * privateText*：一条私聊文本从加密、编码成帧、解码到解密的完整路径，对比 Base64 文本字段与二进制帧尾部两种传法。
+ * *KeyPair / x25519Agree：客户端启动时生成身份密钥，以及 X25519 模式下每次密钥交换的协商开销 (对照 rsaEncryptSessionKey)。
+ * historyOpen*：几千条的长会话整批解密，逐条解密对照 BatchDecryptor 并行解密。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    private static final int HISTORY_PAGE = 200;
+    private static final int LONG_HISTORY = 4000;
+
+    @Param({"64", "4096"})
+    public int size;
+
+    private SecretKey key;
+    private String plainText;
+    private String cipherText;
+    private List<String> history;
+    private List<HistoryRecord> longHistory;
+    private final MessageToJsonEncoder encoder = new MessageToJsonEncoder();
+    private final JsonToMessageDecoder decoder = new JsonToMessageDecoder();
+    private final List<Object> decoded = new ArrayList<>(1);
+    private ByteBuf frame;
+    private KeyPair rsa;
+    private KeyPair alice;
+    private KeyPair bob;
+    private final byte[] salt = new byte[EncryptionUtils.AGREEMENT_SALT_SIZE];
+    private String publicKeyBase64;
+
+    @Setup
+    public void setup() throws Exception {
+        key = EncryptionUtils.generateAesKey();
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) sb.append((char) ('a' + random.nextInt(26)));
+        plainText = sb.toString();
+        cipherText = EncryptionUtils.aesEncrypt(plainText, key);
+        history = new ArrayList<>(HISTORY_PAGE);
+        for (int i = 0; i < HISTORY_PAGE; i++) history.add(EncryptionUtils.aesEncrypt(plainText, key));
+        byte[] plainBytes = plainText.getBytes(StandardCharsets.UTF_8);
+        longHistory = new ArrayList<>(LONG_HISTORY);
+        for (int i = 0; i < LONG_HISTORY; i++) {
+            longHistory.add(new HistoryRecord(i + 1, i % 2 == 0, EncryptionUtils.seal(plainBytes, key), i));
+        }
+        rsa = EncryptionUtils.generateRsaKeyPair();
+        publicKeyBase64 = Base64.getEncoder().encodeToString(rsa.getPublic().getEncoded());
+        alice = EncryptionUtils.generateAgreementKeyPair();
+        bob = EncryptionUtils.generateAgreementKeyPair();
+        frame = Unpooled.buffer(4 * size + 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Benchmark
+    public String privateTextBase64() throws Exception {
+        TextMessage msg = new TextMessage("alice", EncryptionUtils.aesEncrypt(plainText, key));
+        msg.setTargetUserId("bob");
+        TextMessage received = roundTrip(msg);
+        return EncryptionUtils.aesDecrypt(received.getContent(), key);
+    }
+
+    @Benchmark
+    public String privateTextSealed() throws Exception {
+        TextMessage msg = new TextMessage("alice", null);
+        msg.setSealedContent(EncryptionUtils.seal(plainText.getBytes(StandardCharsets.UTF_8), key));
+        msg.setTargetUserId("bob");
+        TextMessage received = roundTrip(msg);
+        return EncryptionUtils.openToString(received.getSealedContent(), key);
+    }
+
+    private TextMessage roundTrip(TextMessage msg) throws Exception {
+        frame.clear();
+        encoder.encode(null, msg, frame);
+        decoded.clear();
+        decoder.decode(null, frame, decoded);
+        return (TextMessage) decoded.get(0);
+    }
+
+    @Benchmark
+    public String aesEncrypt() throws Exception {
+        return EncryptionUtils.aesEncrypt(plainText, key);
+    }
+
+    @Benchmark
+    public String aesDecrypt() throws Exception {
+        return EncryptionUtils.aesDecrypt(cipherText, key);
+    }
+
+    /**
+     * 打开会话时解密一页历史记录
+     */
+    @Benchmark
+    @OperationsPerInvocation(HISTORY_PAGE)
+    public int historyDecrypt() throws Exception {
+        int chars = 0;
+        for (String encrypted : history) chars += EncryptionUtils.aesDecrypt(encrypted, key).length();
+        return chars;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONG_HISTORY)
+    public int historyOpenSerial() throws Exception {
+        int chars = 0;
+        for (HistoryRecord record : longHistory) chars += EncryptionUtils.openToString(record.getEncryptedBytes(), key).length();
+        return chars;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONG_HISTORY)
+    public int historyOpenBatch() {
+        try (BatchDecryptor.Batch<String> batch = BatchDecryptor.submit(longHistory, key, (record, text) -> text)) {
+            return batch.stream().mapToInt(String::length).sum();
+        }
+    }
+
+    @Benchmark
+    public String rsaEncryptSessionKey() throws Exception {
+        return EncryptionUtils.rsaEncrypt(key.getEncoded(), rsa.getPublic());
+    }
+
+    @Benchmark
+    public KeyPair rsaKeyPair() throws Exception {
+        return EncryptionUtils.generateRsaKeyPair();
+    }
+
+    @Benchmark
+    public KeyPair x25519KeyPair() {
+        return EncryptionUtils.generateAgreementKeyPair();
+    }
+
+    @Benchmark
+    public SecretKey x25519Agree() throws Exception {
+        return EncryptionUtils.agreeSessionKey(alice.getPrivate(), bob.getPublic(), salt, "alice", "bob");
+    }
+
+    @Benchmark
+    public Object parsePublicKey() {
+        return EncryptionUtils.getPublicKey(publicKeyBase64);
+    }
+}
@@ -0,0 +1,68 @@
+package com.my.chatroom;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地全文索引 (SearchIndexBenchmark)
+ * 预置 20 万条中英混合的消息 (20 个会话)，测量单条消息建索引的耗时和几类查询的延迟：
+ * 英文词、中文双字、中文单字、多词交集、英文前缀。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+
+    private static final int PRELOAD = 200_000;
+    private static final int CONVERSATIONS = 20;
+    private static final String CHINESE = "今天晚上一起吃饭吧我们明天开会讨论项目进度服务器部署出现问题需要尽快修复周末去看电影好不好谢谢你的帮助";
+    private static final String[] WORDS = {"meeting", "lunch", "project", "deadline", "review", "hello", "thanks",
+            "tomorrow", "weekend", "coffee", "report", "server", "deploy", "bug", "fix", "release"};
+
+    @Param({"deploy", "服务器", "饭", "meeting tomorrow", "re"})
+    public String query;
+
+    private SearchIndex index;
+    private final Random random = new Random(42);
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 不调用 open()：不加载、不写盘，只测内存中的索引
+        index = new SearchIndex(Path.of("search-bench.idx"), null, "alice");
+        for (nextId = 1; nextId <= PRELOAD; nextId++) {
+            index.addNow(nextId, "peer" + (nextId % CONVERSATIONS), randomText(), nextId);
+        }
+    }
+
+    private String randomText() {
+        StringBuilder sb = new StringBuilder();
+        int length = 5 + random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(5) == 0) {
+                sb.append(' ').append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            } else {
+                sb.append(CHINESE.charAt(random.nextInt(CHINESE.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public List<Long> search() {
+        return index.search(query, 50);
+    }
+
+    @Benchmark
+    public void indexMessage() {
+        index.addNow(nextId, "peer" + (nextId % CONVERSATIONS), randomText(), nextId);
+        nextId++;
+    }
+}
@@ -0,0 +1,132 @@
+package com.my.chatroom;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * SQLite 访问方式对比 (SqliteBenchmark)
+ * perCall：旧 DatabaseManager 的做法，每次操作 DriverManager.getConnection + prepareStatement，默认回滚日志
+ * pooled： SqliteConnectionPool (WAL + synchronous=NORMAL + 常驻连接 + 语句缓存)
+ * 分别测量单行插入 chat_history 和按主键查 users 的吞吐量。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqliteBenchmark {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_history (user_id, target_id, is_sender, encrypted_content) VALUES (?, ?, ?, ?)";
+    private static final String LOOKUP_SQL =
+            "SELECT user_id, password_hash, public_key FROM users WHERE user_id = ?";
+    private static final int USERS = 1000;
+
+    private Path dir;
+    private String perCallUrl;
+    private SqliteConnectionPool pool;
+    private String content;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("sqlite-bench");
+        perCallUrl = "jdbc:sqlite:" + dir.resolve("percall.db");
+        String pooledUrl = "jdbc:sqlite:" + dir.resolve("pooled.db");
+        createSchema(perCallUrl);
+        createSchema(pooledUrl);
+        pool = new SqliteConnectionPool(pooledUrl, 4);
+        content = BenchmarkPayloads.randomBase64(256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        pool.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static void createSchema(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE users (user_id TEXT PRIMARY KEY NOT NULL, password_hash TEXT NOT NULL, public_key TEXT)");
+            stmt.execute("CREATE TABLE chat_history (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id TEXT NOT NULL,"
+                    + " target_id TEXT NOT NULL, is_sender INTEGER NOT NULL, encrypted_content TEXT NOT NULL,"
+                    + " timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)");
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO users VALUES (?, ?, ?)")) {
+                for (int i = 0; i < USERS; i++) {
+                    ps.setString(1, "user" + i);
+                    ps.setString(2, DatabaseManager.hashPassword("pw" + i));
+                    ps.setString(3, BenchmarkPayloads.randomBase64(294));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    private String nextUser() {
+        return "user" + (next++ % USERS);
+    }
+
+    @Benchmark
+    public int insertPerCall() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(perCallUrl);
+             PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+            bindInsert(ps);
+            return ps.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int insertPooled() throws SQLException {
+        return pool.write(conn -> {
+            PreparedStatement ps = conn.prepare(INSERT_SQL);
+            bindInsert(ps);
+            return ps.executeUpdate();
+        });
+    }
+
+    @Benchmark
+    public String lookupPerCall() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(perCallUrl);
+             PreparedStatement ps = conn.prepareStatement(LOOKUP_SQL)) {
+            ps.setString(1, nextUser());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(3) : null;
+            }
+        }
+    }
+
+    @Benchmark
+    public String lookupPooled() throws SQLException {
+        return pool.read(conn -> {
+            PreparedStatement ps = conn.prepare(LOOKUP_SQL);
+            ps.setString(1, nextUser());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(3) : null;
+            }
+        });
+    }
+
+    private void bindInsert(PreparedStatement ps) throws SQLException {
+        ps.setString(1, "alice");
+        ps.setString(2, nextUser());
+        ps.setInt(3, 1);
+        ps.setString(4, content);
+    }
+}
@@ -0,0 +1,89 @@
+package com.my.chatroom;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 存储引擎对比 (StoreBenchmark)
+ * 对 MessageStore 的三种实现分别测量：追加一条聊天记录 (等待拿到 id)、读取最新一页、从会话中部往前翻一页，
+ * 以及按 ID 读取用户。用于按部署选择 -Dchat.store.engine。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+    private static final int CONVERSATIONS = 50;
+    private static final int PRELOAD = 100_000;
+    private static final int PAGE = 50;
+
+    @Param({"sqlite", "memory", "log"})
+    public String engine;
+
+    private Path dir;
+    private MessageStore store;
+    private String content;
+    private long middleId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("store-bench");
+        switch (engine) {
+            case "sqlite" -> store = new SqliteStore("jdbc:sqlite:" + dir.resolve("bench.db"), 4);
+            case "memory" -> store = new MemoryStore();
+            case "log" -> store = new LogStructuredStore(dir.resolve("log"), 64 * 1024 * 1024);
+            default -> throw new IllegalArgumentException(engine);
+        }
+        content = BenchmarkPayloads.randomBase64(256);
+        for (int i = 0; i < PRELOAD; i++) {
+            store.saveMessageAsync("alice", "peer" + (i % CONVERSATIONS), i % 2 == 0, content);
+        }
+        middleId = store.saveMessageAsync("alice", "peer0", true, content).join() / 2;
+        for (int i = 0; i < 1000; i++) {
+            ((UserStore) store).insertUser(new User("user" + i, DatabaseManager.hashPassword("pw" + i)));
+        }
+        store.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private String nextPeer() {
+        return "peer" + (next++ % CONVERSATIONS);
+    }
+
+    @Benchmark
+    public long append() {
+        return store.saveMessageAsync("alice", nextPeer(), true, content).join();
+    }
+
+    @Benchmark
+    public List<HistoryRecord> latestPage() {
+        return store.getHistoryPage("alice", nextPeer(), Long.MAX_VALUE, PAGE);
+    }
+
+    @Benchmark
+    public List<HistoryRecord> middlePage() {
+        return store.getHistoryPage("alice", nextPeer(), middleId, PAGE);
+    }
+
+    @Benchmark
+    public User loadUser() {
+        return ((UserStore) store).loadUser("user" + (next++ % 1000));
+    }
+}
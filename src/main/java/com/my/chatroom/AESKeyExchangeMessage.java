@@ -3,11 +3,14 @@ package com.my.chatroom;
 /**
  * AES 密钥交换消息协议
  * 客户端 A 使用 B 的公钥加密 AES 密钥后，发送给客户端 B。
+ * 【修改】X25519 模式下不传密钥本身：A 发出自己的 X25519 公钥和随机 salt，B 用自己的私钥算出同一把密钥 (EncryptionUtils.agreeSessionKey)。
  */
 public class AESKeyExchangeMessage extends Message {
 
     private String targetUserId;         // 接收方 B 的 ID
-    private String encryptedAesKey;      // 用 B 的公钥 RSA 加密后的 AES 密钥 (Base64)
+    private String encryptedAesKey;      // 用 B 的公钥 RSA 加密后的 AES 密钥 (Base64)，X25519 模式下为 null
+    private String agreementKey;         // 【新增】X25519 模式：A 的 X25519 公钥 (Base64)
+    private String salt;                 // 【新增】X25519 模式：本次交换的随机 salt (Base64)
 
     public AESKeyExchangeMessage() {
         super();
@@ -25,4 +28,8 @@ public class AESKeyExchangeMessage extends Message {
     public void setTargetUserId(String targetUserId) { this.targetUserId = targetUserId; }
     public String getEncryptedAesKey() { return encryptedAesKey; }
     public void setEncryptedAesKey(String encryptedAesKey) { this.encryptedAesKey = encryptedAesKey; }
+    public String getAgreementKey() { return agreementKey; }
+    public void setAgreementKey(String agreementKey) { this.agreementKey = agreementKey; }
+    public String getSalt() { return salt; }
+    public void setSalt(String salt) { this.salt = salt; }
 }
\ No newline at end of file
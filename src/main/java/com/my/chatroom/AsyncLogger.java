@@ -0,0 +1,236 @@
+package com.my.chatroom;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志 (AsyncLogger)
+ * 作用：把 Netty I/O 线程上的日志调用变成一次无锁入队，格式化与 System.out 输出全部交给后台线程。
+ * 1. 有界环形缓冲区：写满时直接丢弃并计数，调用方永远不会阻塞。
+ * 2. 延迟格式化：入队时只保存模板和参数，"{}" 占位符在后台线程替换。
+ * 3. 按类别采样 (每 N 条记 1 条) 和限速 (每秒最多 M 条)，可通过系统属性覆盖：
+ *    -Dchat.log.forward.sample=1 -Dchat.log.forward.rate=1000
+ */
+public final class AsyncLogger {
+
+    /**
+     * 日志类别及其默认采样率 / 每秒限速
+     */
+    public enum Category {
+        CONNECTION(1, 200),
+        LOGIN(1, 200),
+        FORWARD(100, 50),     // 私聊转发是最热的路径，默认 1% 采样
+        GROUP(100, 50),
+        KEY_EXCHANGE(1, 100),
+        METRICS(1, 20),
+        ERROR(1, 100);
+
+        private final int sampleEvery;
+        private final int maxPerSecond;
+        private final AtomicLong seen = new AtomicLong();
+        private final AtomicInteger windowCount = new AtomicInteger();
+        private volatile long windowSecond;
+
+        Category(int defaultSample, int defaultRate) {
+            String key = "chat.log." + name().toLowerCase();
+            this.sampleEvery = Math.max(1, Integer.getInteger(key + ".sample", defaultSample));
+            this.maxPerSecond = Math.max(1, Integer.getInteger(key + ".rate", defaultRate));
+        }
+
+        /**
+         * 采样 + 限速判断 (无锁，允许极少量竞争误差)
+         */
+        private boolean admit() {
+            if (sampleEvery > 1 && seen.getAndIncrement() % sampleEvery != 0) {
+                return false;
+            }
+            long second = System.nanoTime() / 1_000_000_000L;
+            if (second != windowSecond) {
+                windowSecond = second;
+                windowCount.set(0);
+            }
+            return windowCount.incrementAndGet() <= maxPerSecond;
+        }
+    }
+
+    // 环形缓冲区容量 (必须是 2 的幂)
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    // 丢弃统计的汇报间隔
+    private static final long DROP_REPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private static final Entry[] RING = new Entry[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static long head = 0; // 仅后台线程访问
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong SUPPRESSED = new AtomicLong();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Entry();
+            SEQUENCES.set(i, i);
+        }
+        Thread consumer = new Thread(AsyncLogger::drainLoop, "async-logger");
+        consumer.setDaemon(true);
+        consumer.start();
+        // 进程退出前把缓冲区里剩下的日志打印出来
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncLogger::drainRemaining, "async-logger-flush"));
+    }
+
+    private AsyncLogger() {}
+
+    // --- 记录入口 (固定参数个数的重载，避免可变参数数组分配) ---
+
+    public static void info(Category category, String pattern) {
+        enqueue(category, false, pattern, null, null, null);
+    }
+
+    public static void info(Category category, String pattern, Object a) {
+        enqueue(category, false, pattern, a, null, null);
+    }
+
+    public static void info(Category category, String pattern, Object a, Object b) {
+        enqueue(category, false, pattern, a, b, null);
+    }
+
+    public static void info(Category category, String pattern, Object a, Object b, Object c) {
+        enqueue(category, false, pattern, a, b, c);
+    }
+
+    /**
+     * 错误日志输出到 System.err；若最后一个参数是 Throwable 则打印其堆栈
+     */
+    public static void error(Category category, String pattern, Object a, Object b) {
+        enqueue(category, true, pattern, a, b, null);
+    }
+
+    /** 因缓冲区已满而丢弃的日志条数 */
+    public static long droppedCount() { return DROPPED.get(); }
+
+    /** 被采样或限速过滤掉的日志条数 */
+    public static long suppressedCount() { return SUPPRESSED.get(); }
+
+    private static void enqueue(Category category, boolean isError, String pattern, Object a, Object b, Object c) {
+        if (!category.admit()) {
+            SUPPRESSED.incrementAndGet();
+            return;
+        }
+
+        // 多生产者单消费者的有界队列：CAS 抢占槽位，满了立刻返回
+        long pos = TAIL.get();
+        int index;
+        while (true) {
+            index = (int) (pos & MASK);
+            long diff = SEQUENCES.get(index) - pos;
+            if (diff == 0) {
+                if (TAIL.compareAndSet(pos, pos + 1)) break;
+                pos = TAIL.get();
+            } else if (diff < 0) {
+                DROPPED.incrementAndGet();
+                return;
+            } else {
+                pos = TAIL.get();
+            }
+        }
+
+        Entry entry = RING[index];
+        entry.isError = isError;
+        entry.pattern = pattern;
+        entry.a = a;
+        entry.b = b;
+        entry.c = c;
+        SEQUENCES.lazySet(index, pos + 1);
+    }
+
+    // --- 后台线程 ---
+
+    private static void drainLoop() {
+        StringBuilder sb = new StringBuilder(256);
+        long lastReportedDrops = 0;
+        long lastReportTime = System.nanoTime();
+
+        while (true) {
+            boolean polled = pollOne(sb);
+            // 丢弃只发生在缓冲区满的时候，这时队列不会空下来：每一轮都检查上报间隔，不能只在空闲时检查
+            long now = System.nanoTime();
+            if (now - lastReportTime > DROP_REPORT_INTERVAL_NANOS) {
+                long drops = DROPPED.get();
+                if (drops != lastReportedDrops) {
+                    System.out.println("[日志] 缓冲区已满，累计丢弃 " + drops + " 条日志");
+                    lastReportedDrops = drops;
+                }
+                lastReportTime = now;
+            }
+            if (!polled) LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    private static synchronized void drainRemaining() {
+        StringBuilder sb = new StringBuilder(256);
+        while (pollOne(sb)) {
+            // 继续输出直到缓冲区清空
+        }
+        System.out.flush();
+    }
+
+    private static synchronized boolean pollOne(StringBuilder sb) {
+        int index = (int) (head & MASK);
+        if (SEQUENCES.get(index) != head + 1) {
+            return false;
+        }
+        Entry entry = RING[index];
+        boolean isError = entry.isError;
+        String pattern = entry.pattern;
+        Object a = entry.a, b = entry.b, c = entry.c;
+        entry.clear();
+        SEQUENCES.lazySet(index, head + CAPACITY);
+        head++;
+
+        sb.setLength(0);
+        Throwable cause = format(sb, pattern, a, b, c);
+        PrintStream stream = isError ? System.err : System.out;
+        stream.println(sb);
+        if (cause != null) cause.printStackTrace(stream);
+        return true;
+    }
+
+    /**
+     * 依次用参数替换模板中的 "{}"
+     * @return 未被占位符消费的 Throwable 参数 (需要打印堆栈)
+     */
+    private static Throwable format(StringBuilder sb, String pattern, Object a, Object b, Object c) {
+        Object[] args = {a, b, c};
+        int argIndex = 0;
+        int start = 0;
+        int idx;
+        while ((idx = pattern.indexOf("{}", start)) >= 0 && argIndex < args.length) {
+            sb.append(pattern, start, idx);
+            Object arg = args[argIndex++];
+            sb.append(arg instanceof Throwable ? arg.toString() : String.valueOf(arg));
+            start = idx + 2;
+        }
+        sb.append(pattern, start, pattern.length());
+
+        for (int i = args.length - 1; i >= 0; i--) {
+            if (args[i] instanceof Throwable) return (Throwable) args[i];
+            if (args[i] != null) break;
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        boolean isError;
+        String pattern;
+        Object a, b, c;
+
+        void clear() {
+            pattern = null;
+            a = b = c = null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.my.chatroom;
+
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.Stream;
+
+/**
+ * 批量解密 (BatchDecryptor)
+ * 作用：历史记录不再在一个线程上逐条解密，而是按固定条数切片，交给专用的 ForkJoinPool 并行解密 (每个线程用自己的 CryptoContext)。
+ *
+ * - 结果按输入顺序以 Stream 返回：前面的切片解密完就可以先消费，不必等整批结束
+ * - cancel (或 close) 后尚未开始的切片不再执行，正在执行的切片在下一条记录前停下，stream 随即结束
+ * - 解密失败 (旧密钥加密的记录等) 或 decoder 返回 null 的记录直接跳过，与原来逐条解密时的处理相同
+ * - 只有改用 GCM 之前保存的记录 (HistoryRecord.isLegacy) 才兼容旧的 CBC 密文
+ */
+public class BatchDecryptor {
+
+    // 每个任务解密的条数：太小时调度开销占比高，太大时第一批结果出来得慢 (-Dchat.decrypt.slice)
+    private static final int SLICE = Math.max(1, Integer.getInteger("chat.decrypt.slice", 32));
+
+    // 单核机器上并行没有收益，切片改为在消费结果的线程上依次执行，省掉线程切换
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("batch-decrypt-" + t.getPoolIndex());
+                return t;
+            },
+            null, false);
+
+    private BatchDecryptor() {
+    }
+
+    /**
+     * 把一条解密后的记录转换成调用方需要的结果 (在解密线程上执行，例如顺带解码图片)；返回 null 表示跳过
+     */
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T decode(HistoryRecord record, String plainText) throws Exception;
+    }
+
+    /**
+     * 提交一批记录，立即返回；records 在解密完成前不能修改
+     */
+    public static <T> Batch<T> submit(List<HistoryRecord> records, SecretKey key, Decoder<T> decoder) {
+        Batch<T> batch = new Batch<>();
+        for (int from = 0; from < records.size(); from += SLICE) {
+            List<HistoryRecord> slice = records.subList(from, Math.min(records.size(), from + SLICE));
+            ForkJoinTask<List<T>> task = ForkJoinTask.adapt(() -> batch.decrypt(slice, key, decoder));
+            batch.slices.add(PARALLEL ? POOL.submit(task) : task);
+        }
+        MetricsRegistry.counter("decrypt.batchRecords").add(records.size());
+        return batch;
+    }
+
+    /**
+     * 一批正在解密的记录
+     */
+    public static final class Batch<T> implements AutoCloseable {
+        private final List<ForkJoinTask<List<T>>> slices = new ArrayList<>();
+        private volatile boolean cancelled = false;
+
+        private List<T> decrypt(List<HistoryRecord> slice, SecretKey key, Decoder<T> decoder) {
+            List<T> results = new ArrayList<>(slice.size());
+            for (HistoryRecord record : slice) {
+                if (cancelled) break;
+                try {
+                    T result = decoder.decode(record, EncryptionUtils.openToString(record.getEncryptedBytes(), key, record.isLegacy()));
+                    if (result != null) results.add(result);
+                } catch (Exception e) {
+                    // 旧密钥加密的记录跳过
+                }
+            }
+            return results;
+        }
+
+        /**
+         * 按输入顺序返回结果，消费到还没解密完的切片时等待；等待时被中断视为取消
+         */
+        public Stream<T> stream() {
+            return slices.stream().flatMap(slice -> await(slice).stream()).takeWhile(result -> !cancelled);
+        }
+
+        private List<T> await(ForkJoinTask<List<T>> slice) {
+            if (cancelled) return Collections.emptyList();
+            if (Thread.currentThread().isInterrupted()) {
+                cancel();
+                return Collections.emptyList();
+            }
+            try {
+                return PARALLEL ? slice.get() : slice.invoke();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            } catch (CancellationException e) {
+                return Collections.emptyList();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("批量解密失败", e.getCause());
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            for (ForkJoinTask<List<T>> slice : slices) slice.cancel(false);
+        }
+
+        public boolean isCancelled() { return cancelled; }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    }
+}
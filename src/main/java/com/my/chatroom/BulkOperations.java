@@ -0,0 +1,167 @@
+package com.my.chatroom;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 批量转发 / 删除流水线 (BulkOperations)
+ * 作用：多选转发、多选删除不再在 FX 线程上逐条加密、发送、写库 (每条一次事务、一次 flush)。
+ *
+ * - 重新加密按 (目标, 32 条) 切块，在 bulk-crypto 线程池上并行执行
+ * - 所有帧交给 Client.sendMessages，一次 write 完再 flush 一次
+ * - 聊天记录通过 DatabaseManager.saveEncryptedMessagesAsync / deleteMessages 在一个事务中写入 / 删除
+ * - 进度回调 (已完成, 总数) 在工作线程上调用，界面更新需自行切回 FX 线程
+ */
+public class BulkOperations {
+
+    private static final int CHUNK = 32;
+
+    private final Client client;
+    private final ExecutorService workers;
+
+    public BulkOperations(Client client) {
+        this.client = client;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "bulk-crypto-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 批量转发的结果
+     */
+    public static final class ForwardResult {
+        private final Map<String, List<Long>> savedIds;
+        private final List<String> missingKeys;
+        private final int sent;
+
+        ForwardResult(Map<String, List<Long>> savedIds, List<String> missingKeys, int sent) {
+            this.savedIds = savedIds;
+            this.missingKeys = missingKeys;
+            this.sent = sent;
+        }
+
+        /** 目标 -> 本地保存的消息 ID (与转发内容顺序一致)；群聊和发给自己的不保存 */
+        public Map<String, List<Long>> getSavedIds() { return savedIds; }
+        /** 尚未建立安全通道、已发起握手但本次没有转发的目标 */
+        public List<String> getMissingKeys() { return missingKeys; }
+        public int getSent() { return sent; }
+    }
+
+    /**
+     * 把 contents 转发给每个目标
+     * @param progress 每加密完一块回调一次 (已完成, 总数)，可以为 null
+     */
+    public CompletableFuture<ForwardResult> forward(String senderId, List<String> targetIds, List<String> contents,
+                                                    BiConsumer<Integer, Integer> progress) {
+        long start = System.nanoTime();
+        List<String> missingKeys = new ArrayList<>();
+        List<String> privateTargets = new ArrayList<>();
+        List<Message> groupFrames = new ArrayList<>();
+        for (String targetId : targetIds) {
+            if ("ALL".equals(targetId)) {
+                // 【修改】群聊：每条只用发送者密钥加密一次，与在线人数无关
+                try {
+                    for (String content : contents) groupFrames.add(client.getGroupSession().encrypt(senderId, content));
+                } catch (GeneralSecurityException e) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("群消息加密失败", e));
+                }
+            } else if (client.getSharedAesKey(targetId) == null) {
+                client.sendMessage(new KeyExchangeRequest(senderId, targetId));
+                missingKeys.add(targetId);
+            } else {
+                privateTargets.add(targetId);
+            }
+        }
+
+        // 1. 并行加密：每块得到一段密文，按 (目标, 块) 的顺序拼回
+        int total = privateTargets.size() * contents.size();
+        AtomicInteger done = new AtomicInteger();
+        List<CompletableFuture<List<String>>> chunks = new ArrayList<>();
+        List<String> chunkTargets = new ArrayList<>();
+        for (String targetId : privateTargets) {
+            SecretKey key = client.getSharedAesKey(targetId);
+            for (int from = 0; from < contents.size(); from += CHUNK) {
+                List<String> slice = contents.subList(from, Math.min(contents.size(), from + CHUNK));
+                chunkTargets.add(targetId);
+                chunks.add(CompletableFuture.supplyAsync(() -> {
+                    List<String> encrypted = new ArrayList<>(slice.size());
+                    for (String content : slice) {
+                        try {
+                            encrypted.add(EncryptionUtils.aesEncrypt(content, key));
+                        } catch (Exception e) {
+                            throw new IllegalStateException("加密失败: " + targetId, e);
+                        }
+                    }
+                    if (progress != null) progress.accept(done.addAndGet(slice.size()), total);
+                    return encrypted;
+                }, workers));
+            }
+        }
+
+        // 2. 全部加密完成后：一次性发送，一个事务写库
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenComposeAsync(v -> {
+            List<Message> frames = new ArrayList<>(groupFrames);
+            List<MessageStore.NewMessage> records = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                String targetId = chunkTargets.get(i);
+                for (String encrypted : chunks.get(i).join()) {
+                    TextMessage msg = new TextMessage(senderId, encrypted);
+                    msg.setTargetUserId(targetId);
+                    frames.add(msg);
+                    // 发给自己的依靠服务器回显保存
+                    if (!targetId.equals(senderId)) records.add(new MessageStore.NewMessage(targetId, encrypted));
+                }
+            }
+            client.sendMessages(frames);
+            return DatabaseManager.saveEncryptedMessagesAsync(senderId, true, records).thenApply(ids -> {
+                Map<String, List<Long>> savedIds = new LinkedHashMap<>();
+                for (int i = 0; i < records.size(); i++) {
+                    savedIds.computeIfAbsent(records.get(i).targetId, k -> new ArrayList<>()).add(ids.get(i));
+                }
+                SearchIndex index = client.getSearchIndex();
+                if (index != null) {
+                    long now = System.currentTimeMillis();
+                    savedIds.forEach((targetId, saved) -> {
+                        for (int i = 0; i < saved.size(); i++) index.add(saved.get(i), targetId, contents.get(i), now);
+                    });
+                }
+                MetricsRegistry.histogram("bulk.forward").recordNanos(System.nanoTime() - start);
+                MetricsRegistry.counter("bulk.forwarded").add(frames.size());
+                return new ForwardResult(savedIds, missingKeys, frames.size());
+            });
+        }, workers);
+    }
+
+    /**
+     * 批量删除：等尚未提交的记录拿到 ID 后，在一个事务中删除
+     * @return 实际删除的条数
+     */
+    public CompletableFuture<Integer> delete(List<CompletableFuture<Long>> messageIds) {
+        // 单条写入失败时不影响其它记录的删除
+        List<CompletableFuture<Long>> settled = new ArrayList<>(messageIds.size());
+        for (CompletableFuture<Long> id : messageIds) settled.add(id.exceptionally(e -> -1L));
+        return CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0])).thenApplyAsync(v -> {
+            List<Long> ids = new ArrayList<>(settled.size());
+            for (CompletableFuture<Long> id : settled) {
+                Long value = id.join();
+                if (value != null && value > 0) ids.add(value);
+            }
+            int deleted = ids.isEmpty() ? 0 : DatabaseManager.deleteMessages(client.getCurrentUserId(), ids);
+            SearchIndex index = client.getSearchIndex();
+            if (index != null) ids.forEach(index::remove);
+            return deleted;
+        }, workers);
+    }
+}
@@ -0,0 +1,84 @@
+package com.my.chatroom;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 抓包处理器 (CaptureHandler)
+ * 作用：把每条入站帧写入 TrafficCapture，然后原样向后传递。
+ * 仅在服务端以 -Dchat.capture.dir=<目录> 启动时才会加入管道。
+ * 【修改】frameTap() 放在 JsonToMessageDecoder 之前，只复制原始帧字节 (JSON 与二进制尾部，与线路上相同)，不在 I/O 线程上重新序列化；
+ * 本处理器放在解码器之后，用解码出的消息类型给这一帧打标记。
+ * 消息内容本身已是端到端密文，只有登录请求会重新生成：密码被替换成按用户名确定的占位符，
+ * 回放到一个空数据库的服务端时仍能自动注册并登录。
+ */
+public class CaptureHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Gson GSON = MessageTypeAdapter.createGson();
+    private static final AtomicInteger NEXT_CONNECTION_ID = new AtomicInteger();
+
+    private final TrafficCapture capture;
+    private final int connectionId = NEXT_CONNECTION_ID.incrementAndGet();
+    // 正在解码的这一帧的原始字节 (同一连接的处理器都在同一个 I/O 线程上执行)
+    private byte[] rawFrame;
+
+    public CaptureHandler(TrafficCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * 放在 JsonToMessageDecoder 之前的处理器：记下当前帧的原始字节
+     */
+    public ChannelInboundHandler frameTap() {
+        return new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                if (msg instanceof ByteBuf) rawFrame = ByteBufUtil.getBytes((ByteBuf) msg);
+                ctx.fireChannelRead(msg);
+            }
+        };
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Message) {
+            Message message = (Message) msg;
+            byte[] frame = rawFrame;
+            rawFrame = null;
+            if (message instanceof LoginRequest) {
+                // 只有登录帧需要改写 (去掉密码)，数量很少
+                LoginRequest original = (LoginRequest) message;
+                LoginRequest redacted = new LoginRequest(original.getSenderId(),
+                        redactedPassword(original.getSenderId()), original.getPublicKey());
+                redacted.setAgreementKey(original.getAgreementKey());
+                redacted.setTimestamp(original.getTimestamp());
+                frame = GSON.toJson(redacted).getBytes(StandardCharsets.UTF_8);
+            }
+            if (frame != null) {
+                int type = message.getType() == null ? TrafficCapture.UNKNOWN_TYPE : message.getType().ordinal();
+                capture.record(connectionId, type, frame);
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        capture.record(connectionId, TrafficCapture.CLOSE_EVENT, new byte[0]);
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * 抓包中使用的密码占位符 (回放工具不需要知道真实密码)
+     */
+    static String redactedPassword(String userId) {
+        return "replay-" + DatabaseManager.hashPassword("capture:" + userId).substring(0, 16);
+    }
+}
@@ -6,6 +6,7 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 
+import java.util.Base64;
 import java.util.function.Consumer;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -16,6 +17,8 @@ import javax.crypto.spec.SecretKeySpec;
 public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
 
     private static final Gson GSON = MessageTypeAdapter.createGson();
+    // 端到端延迟超过该值时在控制台打印分段耗时 (-Dchat.latency.warnMs)
+    private static final long SLOW_MESSAGE_MILLIS = Long.getLong("chat.latency.warnMs", 1000);
     private final Client client;
     private final Consumer<LoginResponse> loginCallback;
     private Consumer<Message> messageCallback;
@@ -32,10 +35,30 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
         this.messageCallback = messageCallback;
     }
 
+    /**
+     * 【新增】连接建立后立刻发一次心跳，尽早拿到时钟偏差估计
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.writeAndFlush(new Message(Message.MessageType.HEARTBEAT));
+        super.channelActive(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
+        long receivedAt = System.currentTimeMillis();
         // 深拷贝/类型转换确保多态正确
         Message genericMsg = GSON.fromJson(GSON.toJson(msg), Message.class);
+        // 二进制尾部不在 JSON 中，重新解析后要带上 (与服务端 dispatch 相同)
+        JsonToMessageDecoder.attachBinaryTrailer(genericMsg, MessageToJsonEncoder.binaryTrailer(msg));
+
+        if (genericMsg.getType() == Message.MessageType.HEARTBEAT_ACK) {
+            client.getClockSync().onHeartbeatAck((HeartbeatAck) genericMsg, receivedAt);
+            return;
+        }
+        if (genericMsg.getServerForwardedAt() != null) {
+            recordLatency(genericMsg, receivedAt);
+        }
 
         if (genericMsg.getType() == Message.MessageType.LOGIN_RESPONSE) {
             if (loginCallback != null) {
@@ -57,11 +80,46 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
             return;
         }
 
+        // 【新增】群聊发送者密钥：收下其他成员的链密钥；成员离开时换自己的链
+        if (genericMsg.getType() == Message.MessageType.SENDER_KEY) {
+            handleSenderKey((SenderKeyMessage) genericMsg);
+            return;
+        }
+        if (genericMsg instanceof UserListMessage) {
+            client.getGroupSession().onMembers(((UserListMessage) genericMsg).getOnlineUsers());
+        }
+
         if (messageCallback != null) {
             messageCallback.accept(genericMsg);
         }
     }
 
+    /**
+     * 【新增】计算转发消息的端到端延迟，并按 上行 / 服务端停留 / 下行 分段
+     * 所有时间统一换算到服务端时钟；时钟偏差未知前 (尚未收到心跳应答) 不统计，避免污染数据。
+     */
+    private void recordLatency(Message msg, long receivedAt) {
+        ClockSync clock = client.getClockSync();
+        if (!clock.isSynchronized() || msg.getServerReceivedAt() == null) return;
+
+        long deliveredAt = clock.toServerTime(receivedAt);
+        long endToEnd = deliveredAt - msg.getTimestamp();
+        long uplink = msg.getServerReceivedAt() - msg.getTimestamp();
+        long server = msg.getServerForwardedAt() - msg.getServerReceivedAt();
+        long downlink = deliveredAt - msg.getServerForwardedAt();
+
+        MetricsRegistry.histogram("client.e2e").record(Math.max(0, endToEnd) * 1000);
+        MetricsRegistry.histogram("client.uplink").record(Math.max(0, uplink) * 1000);
+        MetricsRegistry.histogram("client.server").record(Math.max(0, server) * 1000);
+        MetricsRegistry.histogram("client.downlink").record(Math.max(0, downlink) * 1000);
+
+        if (endToEnd > SLOW_MESSAGE_MILLIS) {
+            System.out.println("⚠️ 消息延迟 " + endToEnd + "ms (来自 " + msg.getSenderId()
+                    + "，上行 " + uplink + "ms / 服务端 " + server + "ms / 下行 " + downlink
+                    + "ms，RTT " + clock.getBestRttMillis() + "ms)");
+        }
+    }
+
     /**
      * 【新增】捕获用户事件，处理心跳
      */
@@ -91,7 +149,8 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
         client.doConnect();
     }
 
-    // --- E2EE 逻辑 (保持不变) ---
+    // --- E2EE 逻辑 ---
+    // 【修改】按对方公布的公钥选择方式：对方有 X25519 公钥时双方各自协商出会话密钥，否则回退到 RSA 加密传送 AES 密钥
     private void handleKeyExchangeResponse(ChannelHandlerContext ctx, KeyExchangeResponse response) throws Exception {
         String targetId = response.getTargetUserId();
         if (!response.isSuccess()) {
@@ -99,12 +158,26 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
             return;
         }
         try {
-            java.security.PublicKey targetPublicKey = EncryptionUtils.getPublicKey(response.getTargetPublicKey());
-            SecretKey aesKey = EncryptionUtils.generateAesKey();
-            String encryptedAesKey = EncryptionUtils.rsaEncrypt(aesKey.getEncoded(), targetPublicKey);
-
-            AESKeyExchangeMessage aesMsg = new AESKeyExchangeMessage(client.getCurrentUserId(), targetId, encryptedAesKey);
+            String selfId = client.getCurrentUserId();
+            AESKeyExchangeMessage aesMsg;
+            SecretKey aesKey;
+            java.security.PublicKey peerAgreementKey = response.getTargetAgreementKey() == null
+                    ? null : EncryptionUtils.getAgreementPublicKey(response.getTargetAgreementKey());
+            if (peerAgreementKey != null) {
+                byte[] salt = new byte[EncryptionUtils.AGREEMENT_SALT_SIZE];
+                CryptoContext.random().nextBytes(salt);
+                aesKey = EncryptionUtils.agreeSessionKey(client.getAgreementKeyPair().getPrivate(), peerAgreementKey, salt, selfId, targetId);
+                aesMsg = new AESKeyExchangeMessage(selfId, targetId, null);
+                aesMsg.setAgreementKey(Base64.getEncoder().encodeToString(client.getAgreementKeyPair().getPublic().getEncoded()));
+                aesMsg.setSalt(Base64.getEncoder().encodeToString(salt));
+            } else {
+                java.security.PublicKey targetPublicKey = EncryptionUtils.getPublicKey(response.getTargetPublicKey());
+                if (targetPublicKey == null) throw new IllegalStateException("对方公钥格式不正确");
+                aesKey = EncryptionUtils.generateAesKey();
+                aesMsg = new AESKeyExchangeMessage(selfId, targetId, EncryptionUtils.rsaEncrypt(aesKey.getEncoded(), targetPublicKey));
+            }
             ctx.channel().writeAndFlush(aesMsg);
+            MetricsRegistry.counter("keys.exchanged").increment();
 
             client.setSharedAesKey(targetId, aesKey);
             notifyUI(new TextMessage("SYSTEM", "✅ 安全连接已建立 (主动模式)"));
@@ -116,8 +189,17 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
     private void handleAesKeyExchange(ChannelHandlerContext ctx, AESKeyExchangeMessage aesMsg) throws Exception {
         String senderId = aesMsg.getSenderId();
         try {
-            byte[] decryptedBytes = EncryptionUtils.rsaDecrypt(aesMsg.getEncryptedAesKey(), client.getPrivateKey());
-            SecretKey aesKey = new SecretKeySpec(decryptedBytes, "AES");
+            SecretKey aesKey;
+            if (aesMsg.getSalt() != null) {
+                java.security.PublicKey peerAgreementKey = EncryptionUtils.getAgreementPublicKey(aesMsg.getAgreementKey());
+                if (peerAgreementKey == null) throw new IllegalStateException("对方 X25519 公钥格式不正确");
+                aesKey = EncryptionUtils.agreeSessionKey(client.getAgreementKeyPair().getPrivate(), peerAgreementKey,
+                        Base64.getDecoder().decode(aesMsg.getSalt()), senderId, client.getCurrentUserId());
+            } else {
+                byte[] decryptedBytes = EncryptionUtils.rsaDecrypt(aesMsg.getEncryptedAesKey(), client.getPrivateKey());
+                aesKey = new SecretKeySpec(decryptedBytes, "AES");
+            }
+            MetricsRegistry.counter("keys.exchanged").increment();
             client.setSharedAesKey(senderId, aesKey);
             notifyUI(new TextMessage("SYSTEM", "✅ 安全连接已建立 (被动模式)"));
         } catch (Exception e) {
@@ -125,6 +207,18 @@ public class ChatClientHandler extends SimpleChannelInboundHandler<Message> {
         }
     }
 
+    /**
+     * 【新增】收到某个成员的群聊链密钥 (用私聊会话密钥加密)
+     */
+    private void handleSenderKey(SenderKeyMessage msg) {
+        try {
+            client.getGroupSession().accept(msg);
+            MetricsRegistry.counter("group.keysReceived").increment();
+        } catch (Exception e) {
+            System.err.println("❌ 无法解密 " + msg.getSenderId() + " 的群密钥: " + e.getMessage());
+        }
+    }
+
     private void notifyUI(Message msg) {
         if (messageCallback != null) {
             messageCallback.accept(msg);
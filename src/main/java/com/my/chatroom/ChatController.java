@@ -6,6 +6,7 @@ import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
@@ -28,10 +29,21 @@ import javafx.util.Duration;
 import javax.crypto.SecretKey;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.text.SimpleDateFormat;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class ChatController {
@@ -51,12 +63,14 @@ public class ChatController {
     @FXML private Label selectionCountLabel;
 
     private Client nettyClient;
+    private BulkOperations bulkOperations; // 【新增】多选转发 / 删除的后台流水线
+    private MediaTransfer mediaTransfer;   // 【新增】图片分块加密收发，打不开媒体目录时为 null (退回整块发送)
     private String currentUserId;
     private String currentChatTarget;
     private final ObservableList<String> onlineUsers = FXCollections.observableArrayList();
 
-    private static final SimpleDateFormat DISPLAY_SDF = new SimpleDateFormat("MM月dd日 HH:mm");
-    private static final SimpleDateFormat DB_SDF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // 【修改】DateTimeFormatter 线程安全，后台加载线程也可以直接使用
+    private static final DateTimeFormatter DISPLAY_FMT = DateTimeFormatter.ofPattern("MM月dd日 HH:mm").withZone(ZoneId.systemDefault());
     private long lastHeaderTime = 0;
 
     private final List<String[]> activeGroupMessages = new ArrayList<>();
@@ -70,11 +84,26 @@ public class ChatController {
     private final Set<HBox> selectedBubbles = new HashSet<>();
 
     private static final String IMG_PREFIX = "::IMG::";
+    // 【新增】分块加密存放在 MediaStore 中的图片，聊天记录里只存 MEDIA_PREFIX + 媒体 id (仍以 IMG_PREFIX 开头，搜索索引照旧跳过)
+    private static final String MEDIA_PREFIX = IMG_PREFIX + "@";
     private static final String BURN_ICON = "⌛";
+    private static final long PENDING_ID = -2; // 气泡已显示但记录尚未提交
+
+    // 【新增】历史记录分页加载：查询和解密在后台线程，渲染按页一次性完成
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private final ExecutorService historyLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong historyGeneration = new AtomicLong(); // 每次切换会话 +1，旧任务的结果直接丢弃
+    private Future<?> historyTask;
+    private long oldestLoadedId = Long.MAX_VALUE;
+    private boolean hasMoreHistory = false;
+    private boolean loadingHistory = false;
 
     @FXML
     public void initialize() {
-        DB_SDF.setTimeZone(TimeZone.getTimeZone("UTC"));
         userListView.setItems(onlineUsers);
         chatTargetLabel.setText("未选择会话");
 
@@ -125,6 +154,18 @@ public class ChatController {
             }
         });
 
+        // 【新增】滚动到顶部时加载更早一页 (滚动条在皮肤创建后才存在)
+        chatListView.skinProperty().addListener((obs, oldSkin, newSkin) -> Platform.runLater(() -> {
+            for (Node node : chatListView.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+                    ScrollBar bar = (ScrollBar) node;
+                    bar.valueProperty().addListener((o, oldV, newV) -> {
+                        if (newV.doubleValue() <= bar.getMin()) loadOlderHistory();
+                    });
+                }
+            }
+        }));
+
         userListView.getSelectionModel().selectedItemProperty().addListener((obs, oldV, newV) -> {
             if (newV != null) {
                 // 切换用户时退出多选模式
@@ -157,15 +198,19 @@ public class ChatController {
     // 【修改 2】添加时间戳时，设置 UserData 标记，方便后续查找删除
     private void checkAndAddTimestamp(long msgTime) {
         if (msgTime - lastHeaderTime > 30 * 60 * 1000) {
-            String timeStr = DISPLAY_SDF.format(new Date(msgTime));
-            HBox timeBubble = createSystemBubble(timeStr);
-            // 标记这个 HBox 是一个时间戳
-            timeBubble.setUserData("TIMESTAMP");
+            HBox timeBubble = createTimestampBubble(msgTime);
             Platform.runLater(() -> chatListView.getItems().add(timeBubble));
             lastHeaderTime = msgTime;
         }
     }
 
+    private HBox createTimestampBubble(long msgTime) {
+        HBox timeBubble = createSystemBubble(DISPLAY_FMT.format(Instant.ofEpochMilli(msgTime)));
+        // 标记这个 HBox 是一个时间戳
+        timeBubble.setUserData("TIMESTAMP");
+        return timeBubble;
+    }
+
     // ... (handleJoinPublicChat, handleSelectFileAction 等方法保持不变，省略) ...
     @FXML public void handleJoinPublicChat() {
         userListView.getSelectionModel().clearSelection();
@@ -245,13 +290,15 @@ public class ChatController {
             // 1. 处理图片发送
             if (hasFiles) {
                 for (File file : pendingFiles) {
-                    byte[] fileContent = Files.readAllBytes(file.toPath());
-                    String base64 = Base64.getEncoder().encodeToString(fileContent);
-                    Image image = new Image(new ByteArrayInputStream(fileContent));
-
                     if ("ALL".equals(currentChatTarget)) {
                         appendLogMessage("群聊暂不支持发图");
+                    } else if (!isBurn && mediaTransfer != null) {
+                        // 【修改】边读边分块加密，同一份密文发给对方并存入本地 MediaStore，不再整张读入内存
+                        sendImageChunked(file, currentChatTarget, sharedKey);
                     } else {
+                        byte[] fileContent = Files.readAllBytes(file.toPath());
+                        String base64 = Base64.getEncoder().encodeToString(fileContent);
+                        Image image = new Image(new ByteArrayInputStream(fileContent));
                         String imgPayload = IMG_PREFIX + base64;
                         if (isBurn) {
                             String encryptedPayload = EncryptionUtils.aesEncrypt(imgPayload, sharedKey);
@@ -270,7 +317,7 @@ public class ChatController {
                             }
 
                             String encryptedPayload = EncryptionUtils.aesEncrypt(imgPayload, sharedKey);
-                            long msgId = DatabaseManager.saveEncryptedMessage(currentUserId, currentChatTarget, true, encryptedPayload);
+                            CompletableFuture<Long> msgId = DatabaseManager.saveEncryptedMessageAsync(currentUserId, currentChatTarget, true, encryptedPayload);
                             appendImageMessage(currentUserId, image, false, msgId);
                         }
                     }
@@ -283,18 +330,20 @@ public class ChatController {
             // 2. 处理文本发送
             if (hasText) {
                 if ("ALL".equals(currentChatTarget)) {
-                    TextMessage groupMsg = new TextMessage(currentUserId, messageContent);
-                    groupMsg.setTargetUserId("ALL");
-                    nettyClient.sendMessage(groupMsg);
+                    // 【修改】群消息用发送者密钥加密一次 (GroupSession)，不再明文广播
+                    nettyClient.sendGroupText(messageContent);
                 } else {
-                    String encryptedContent = EncryptionUtils.aesEncrypt(messageContent, sharedKey);
                     if (isBurn) {
+                        String encryptedContent = EncryptionUtils.aesEncrypt(messageContent, sharedKey);
                         BurnAfterReadMessage barMsg = new BurnAfterReadMessage(currentUserId, encryptedContent);
                         barMsg.setTargetUserId(currentChatTarget);
                         nettyClient.sendMessage(barMsg);
                         appendChatMessage(currentUserId, BURN_ICON + " " + messageContent, -1);
                     } else {
-                        TextMessage textMsg = new TextMessage(currentUserId, encryptedContent);
+                        // 【修改】密文以二进制 (GCM 信封) 随帧发送和入库，不再经过 Base64
+                        byte[] sealed = EncryptionUtils.seal(messageContent.getBytes(StandardCharsets.UTF_8), sharedKey);
+                        TextMessage textMsg = new TextMessage(currentUserId, null);
+                        textMsg.setSealedContent(sealed);
                         textMsg.setTargetUserId(currentChatTarget);
                         nettyClient.sendMessage(textMsg);
 
@@ -304,7 +353,9 @@ public class ChatController {
                             return;
                         }
 
-                        long msgId = DatabaseManager.saveEncryptedMessage(currentUserId, currentChatTarget, true, encryptedContent);
+                        CompletableFuture<Long> msgId = DatabaseManager.saveSealedMessageAsync(currentUserId, currentChatTarget, true, sealed);
+                        SearchIndex index = nettyClient.getSearchIndex();
+                        if (index != null) index.add(msgId, currentChatTarget, messageContent);
                         appendChatMessage(currentUserId, messageContent, msgId);
                     }
                 }
@@ -313,9 +364,53 @@ public class ChatController {
         } catch (Exception e) { e.printStackTrace(); }
     }
 
+    /**
+     * 【新增】分块发送一张图片：全部片段写出、本地副本落盘后才写聊天记录 (记录中只有媒体 id)
+     */
+    private void sendImageChunked(File file, String targetId, SecretKey key) {
+        CompletableFuture<String> sent = mediaTransfer.send(file, currentUserId, targetId, key);
+        // 【FIX】如果是发给自己，依靠服务器回显处理，本地不保存不显示
+        if (targetId.equals(currentUserId)) return;
+
+        CompletableFuture<Long> msgId = sent.thenCompose(mediaId -> saveMediaRecord(targetId, true, mediaId, key));
+        msgId.exceptionally(e -> { appendLogMessage("图片发送失败: " + file.getName()); return null; });
+        appendImageMessage(currentUserId, new Image(file.toURI().toString()), false, msgId);
+    }
+
+    private CompletableFuture<Long> saveMediaRecord(String peerId, boolean isSender, String mediaId, SecretKey key) {
+        try {
+            byte[] sealed = EncryptionUtils.seal((MEDIA_PREFIX + mediaId).getBytes(StandardCharsets.UTF_8), key);
+            return DatabaseManager.saveSealedMessageAsync(currentUserId, peerId, isSender, sealed);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 【新增】聊天记录中的图片：MEDIA_PREFIX 从 MediaStore 边读边解密，旧的 IMG_PREFIX + Base64 直接解码
+     */
+    private Image decodeImage(String payload, SecretKey key) throws Exception {
+        if (payload.startsWith(MEDIA_PREFIX)) {
+            if (mediaTransfer == null) throw new IOException("媒体目录不可用");
+            try (InputStream in = mediaTransfer.open(payload.substring(MEDIA_PREFIX.length()), key)) {
+                Image image = new Image(in);
+                if (image.isError()) throw new IOException("图片解码失败", image.getException());
+                return image;
+            }
+        }
+        byte[] imgBytes = Base64.getDecoder().decode(payload.substring(IMG_PREFIX.length()));
+        return new Image(new ByteArrayInputStream(imgBytes));
+    }
+
     public void setClient(Client client, String userId) {
         this.nettyClient = client;
         this.currentUserId = userId;
+        this.bulkOperations = new BulkOperations(client);
+        try {
+            this.mediaTransfer = new MediaTransfer(client, MediaStore.forUser(userId));
+        } catch (IOException e) {
+            System.err.println("无法打开媒体目录，图片将整块发送: " + e.getMessage());
+        }
         client.setMessageCallback(this::handleIncomingMessage);
     }
 
@@ -332,6 +427,17 @@ public class ChatController {
                         .sorted()
                         .forEach(onlineUsers::add);
             });
+            // 【新增】在线的联系人最可能被点开，提前在后台解密他们的会话密钥
+            nettyClient.warmKeys(userList.getOnlineUsers());
+            return;
+        }
+
+        // --- 分块图片 (最后一个片段落盘后才显示) ---
+        if (message instanceof ImageChunkMessage) {
+            ImageChunkMessage chunk = (ImageChunkMessage) message;
+            if (mediaTransfer == null) return;
+            CompletableFuture<String> done = mediaTransfer.receive(chunk);
+            if (done != null) done.whenComplete((mediaId, e) -> onImageReceived(chunk.getSenderId(), mediaId, e));
             return;
         }
 
@@ -340,15 +446,15 @@ public class ChatController {
             ImageMessage imgMsg = (ImageMessage) message;
             String senderId = imgMsg.getSenderId();
 
-            long msgId = -1;
+            CompletableFuture<Long> msgId = null;
             try {
                 if (!"ALL".equals(imgMsg.getTargetUserId())) {
                     SecretKey key = nettyClient.getSharedAesKey(senderId);
                     if (key != null) {
                         String imgPayload = IMG_PREFIX + imgMsg.getBase64Content();
                         String encrypted = EncryptionUtils.aesEncrypt(imgPayload, key);
-                        // 保存并获取 ID
-                        msgId = DatabaseManager.saveEncryptedMessage(currentUserId, senderId, false, encrypted);
+                        // 保存 (异步，ID 稍后绑定到气泡)
+                        msgId = DatabaseManager.saveEncryptedMessageAsync(currentUserId, senderId, false, encrypted);
                     }
                 }
             } catch (Exception e) { }
@@ -362,7 +468,8 @@ public class ChatController {
                 checkAndAddTimestamp(System.currentTimeMillis());
                 byte[] imgBytes = Base64.getDecoder().decode(imgMsg.getBase64Content());
                 Image image = new Image(new ByteArrayInputStream(imgBytes));
-                appendImageMessage(senderId, image, false, msgId);
+                if (msgId != null) appendImageMessage(senderId, image, false, msgId);
+                else appendImageMessage(senderId, image, false, -1);
             } catch (Exception e) { }
             return;
         }
@@ -380,8 +487,18 @@ public class ChatController {
                 return;
             }
 
-            // 保存并获取 ID
-            long msgId = DatabaseManager.saveEncryptedMessage(currentUserId, senderId, false, textMsg.getContent());
+            // 保存 (异步，ID 稍后绑定到气泡)
+            // 【修改】新客户端发来的是二进制信封 (sealedContent)，旧客户端仍是 Base64 文本
+            byte[] sealed = textMsg.getSealedContent();
+            CompletableFuture<Long> msgId = sealed != null
+                    ? DatabaseManager.saveSealedMessageAsync(currentUserId, senderId, false, sealed)
+                    : DatabaseManager.saveEncryptedMessageAsync(currentUserId, senderId, false, textMsg.getContent());
+            // 【新增】解密和切词在索引线程上完成，不阻塞接收
+            SearchIndex index = nettyClient.getSearchIndex();
+            if (index != null) {
+                if (sealed != null) index.addSealed(msgId, senderId, sealed, nettyClient.getSharedAesKey(senderId));
+                else index.addEncrypted(msgId, senderId, textMsg.getContent(), nettyClient.getSharedAesKey(senderId));
+            }
 
             if (!senderId.equals(currentChatTarget)) {
                 // 【修改 3】增加未读计数
@@ -390,12 +507,10 @@ public class ChatController {
             }
 
             checkAndAddTimestamp(System.currentTimeMillis());
-            String decrypted = decryptMessage(senderId, textMsg.getContent());
+            String decrypted = sealed != null ? openMessage(senderId, sealed) : decryptMessage(senderId, textMsg.getContent());
             if (decrypted.startsWith(IMG_PREFIX)) {
                 try {
-                    String base64 = decrypted.substring(IMG_PREFIX.length());
-                    byte[] imgBytes = Base64.getDecoder().decode(base64);
-                    Image image = new Image(new ByteArrayInputStream(imgBytes));
+                    Image image = decodeImage(decrypted, nettyClient.getSharedAesKey(senderId));
                     appendImageMessage(senderId, image, false, msgId);
                 } catch (Exception e) { appendChatMessage(senderId, "[图片加载失败]", msgId); }
             } else {
@@ -418,6 +533,23 @@ public class ChatController {
         }
     }
 
+    private void onImageReceived(String senderId, String mediaId, Throwable error) {
+        SecretKey key = nettyClient.getSharedAesKey(senderId);
+        if (error != null || key == null) {
+            System.err.println("接收来自 " + senderId + " 的图片失败: " + (error != null ? error.getMessage() : "没有会话密钥"));
+            return;
+        }
+        CompletableFuture<Long> msgId = saveMediaRecord(senderId, false, mediaId, key);
+        if (!senderId.equals(currentChatTarget)) {
+            incrementUnread(senderId);
+            return;
+        }
+        try {
+            checkAndAddTimestamp(System.currentTimeMillis());
+            appendImageMessage(senderId, decodeImage(MEDIA_PREFIX + mediaId, key), false, msgId);
+        } catch (Exception e) { appendChatMessage(senderId, "[图片加载失败]", msgId); }
+    }
+
     // 【修改 3】未读计数辅助方法
     private void incrementUnread(String senderId) {
         Platform.runLater(() -> {
@@ -427,9 +559,20 @@ public class ChatController {
     }
 
     private void handleGroupMessage(TextMessage textMsg) {
+        // 【修改】群消息是发送者密钥密文；在 I/O 线程上按到达顺序解密 (链密钥只能向前推进)，旧客户端发来的仍是明文
+        String content = textMsg.getContent();
+        byte[] sealed = textMsg.getSealedContent();
+        if (sealed != null) {
+            try {
+                content = nettyClient.getGroupSession().decrypt(textMsg.getSenderId(), sealed);
+            } catch (GeneralSecurityException e) {
+                content = "[群消息无法解密: " + e.getMessage() + "]";
+            }
+        }
+        String text = content;
         Platform.runLater(() -> {
-            String time = DISPLAY_SDF.format(new Date());
-            String[] msgData = new String[]{textMsg.getSenderId(), textMsg.getContent(), time};
+            String time = DISPLAY_FMT.format(Instant.now());
+            String[] msgData = new String[]{textMsg.getSenderId(), text, time};
             activeGroupMessages.add(msgData);
             if ("ALL".equals(currentChatTarget)) refreshGroupChatView();
             PauseTransition pause = new PauseTransition(Duration.seconds(10));
@@ -446,6 +589,7 @@ public class ChatController {
     private void switchChatTarget(String targetId) {
         this.currentChatTarget = targetId;
         this.lastHeaderTime = 0;
+        cancelHistoryLoad();
 
         // 【修改 3】清除该用户的未读计数
         if (unreadCounts.containsKey(targetId)) {
@@ -467,36 +611,8 @@ public class ChatController {
             appendLogMessage("正在安全握手...");
             nettyClient.sendMessage(new KeyExchangeRequest(currentUserId, targetId));
         } else {
-            // 【修改 1】读取历史记录 (包含 ID)
-            List<String[]> history = DatabaseManager.getEncryptedHistory(currentUserId, targetId);
-            for (String[] record : history) {
-                try {
-                    // record: [0]=isSender, [1]=content, [2]=timestamp, [3]=id
-                    String dbTimeStr = record[2];
-                    long msgId = Long.parseLong(record[3]); // 解析 ID
-
-                    if (dbTimeStr != null) {
-                        try {
-                            Date date = DB_SDF.parse(dbTimeStr);
-                            checkAndAddTimestamp(date.getTime());
-                        } catch (Exception e) {}
-                    }
-
-                    String decrypted = EncryptionUtils.aesDecrypt(record[1], sharedKey);
-                    String sender = record[0].equals("1") ? currentUserId : targetId;
-
-                    if (decrypted.startsWith(IMG_PREFIX)) {
-                        try {
-                            String base64 = decrypted.substring(IMG_PREFIX.length());
-                            byte[] imgBytes = Base64.getDecoder().decode(base64);
-                            Image image = new Image(new ByteArrayInputStream(imgBytes));
-                            appendImageMessage(sender, image, false, msgId);
-                        } catch (Exception e) { }
-                    } else {
-                        appendChatMessage(sender, decrypted, msgId);
-                    }
-                } catch (Exception e) {}
-            }
+            // 【修改】历史记录改为后台分页加载，先取最新一页
+            loadHistoryPage(targetId, sharedKey, Long.MAX_VALUE);
         }
 
         if (pendingBurnMessages.containsKey(targetId)) {
@@ -505,6 +621,107 @@ public class ChatController {
         }
     }
 
+    // ================= 历史记录分页加载 =================
+
+    /**
+     * 解密后的一条历史记录 (图片已在后台线程解码)
+     */
+    private static final class LoadedRecord {
+        final HistoryRecord record;
+        final String text;
+        final Image image;
+
+        LoadedRecord(HistoryRecord record, String text, Image image) {
+            this.record = record;
+            this.text = text;
+            this.image = image;
+        }
+    }
+
+    private void cancelHistoryLoad() {
+        historyGeneration.incrementAndGet();
+        if (historyTask != null) historyTask.cancel(true);
+        historyTask = null;
+        loadingHistory = false;
+        hasMoreHistory = false;
+        oldestLoadedId = Long.MAX_VALUE;
+    }
+
+    private void loadOlderHistory() {
+        if (loadingHistory || !hasMoreHistory || currentChatTarget == null || "ALL".equals(currentChatTarget)) return;
+        SecretKey key = nettyClient.getSharedAesKey(currentChatTarget);
+        if (key != null) loadHistoryPage(currentChatTarget, key, oldestLoadedId);
+    }
+
+    /**
+     * 在后台线程查询并解密一页，完成后回到 FX 线程一次性渲染 (必须在 FX 线程调用)
+     */
+    private void loadHistoryPage(String targetId, SecretKey key, long beforeId) {
+        long generation = historyGeneration.get();
+        loadingHistory = true;
+        historyTask = historyLoader.submit(() -> {
+            List<HistoryRecord> page = DatabaseManager.getHistoryPage(currentUserId, targetId, beforeId, HISTORY_PAGE_SIZE);
+            List<LoadedRecord> loaded = new ArrayList<>(page.size());
+            // 【修改】整页交给 BatchDecryptor 并行解密 (图片也在解密线程上解码)，这里按原顺序取结果
+            try (BatchDecryptor.Batch<LoadedRecord> batch = BatchDecryptor.submit(page, key, (record, decrypted) ->
+                    decrypted.startsWith(IMG_PREFIX)
+                            ? new LoadedRecord(record, null, decodeImage(decrypted, key))
+                            : new LoadedRecord(record, decrypted, null))) {
+                SearchIndex index = nettyClient.getSearchIndex();
+                for (LoadedRecord r : (Iterable<LoadedRecord>) batch.stream()::iterator) {
+                    if (Thread.currentThread().isInterrupted() || generation != historyGeneration.get()) return;
+                    loaded.add(r);
+                    if (r.text != null && index != null) index.add(r.record.getId(), targetId, r.text, r.record.getTimestamp());
+                }
+            }
+            if (Thread.currentThread().isInterrupted() || generation != historyGeneration.get()) return;
+            Platform.runLater(() -> renderHistoryPage(targetId, generation, page.size(), loaded, beforeId == Long.MAX_VALUE));
+        });
+    }
+
+    private void renderHistoryPage(String targetId, long generation, int fetched, List<LoadedRecord> loaded, boolean newest) {
+        if (generation != historyGeneration.get()) return;
+        loadingHistory = false;
+        hasMoreHistory = fetched == HISTORY_PAGE_SIZE;
+        if (loaded.isEmpty()) return;
+        oldestLoadedId = loaded.get(0).record.getId();
+
+        // 加载期间实时收到的消息已经显示过了，跳过同一条记录
+        Set<Long> shown = new HashSet<>();
+        for (HBox item : chatListView.getItems()) {
+            Object userData = item.getUserData();
+            if (userData instanceof Long) shown.add((Long) userData);
+            else if (userData instanceof CompletableFuture) {
+                Object id = ((CompletableFuture<?>) userData).getNow(null);
+                if (id instanceof Long) shown.add((Long) id);
+            }
+        }
+
+        List<HBox> items = new ArrayList<>(loaded.size() + 8);
+        long headerTime = 0;
+        for (LoadedRecord r : loaded) {
+            long msgId = r.record.getId();
+            if (shown.contains(msgId)) continue;
+            if (r.record.getTimestamp() - headerTime > 30 * 60 * 1000) {
+                headerTime = r.record.getTimestamp();
+                items.add(createTimestampBubble(headerTime));
+            }
+            String sender = r.record.isSender() ? currentUserId : targetId;
+            items.add(r.image != null
+                    ? createImageBubble(sender, r.image, false, msgId, false)
+                    : createChatBubble(sender, r.text, msgId, false));
+        }
+
+        chatListView.getItems().addAll(0, items);
+        if (newest) {
+            lastHeaderTime = Math.max(lastHeaderTime, headerTime);
+            chatListView.scrollTo(chatListView.getItems().size() - 1);
+        } else {
+            // 保持原来最上面那条仍在视野内
+            chatListView.scrollTo(items.size());
+        }
+    }
+
     private void refreshGroupChatView() {
         if (!"ALL".equals(currentChatTarget)) return;
         List<HBox> newItems = new ArrayList<>();
@@ -524,6 +741,10 @@ public class ChatController {
     // --- 气泡(支持 ID 和右键菜单) ---
 
     private HBox createChatBubble(String sender, String message, long msgId) {
+        return createChatBubble(sender, message, msgId, true);
+    }
+
+    private HBox createChatBubble(String sender, String message, long msgId, boolean animate) {
         boolean isMe = sender.equals(currentUserId);
         Label nameLabel = null;
         if (!isMe && "ALL".equals(currentChatTarget)) {
@@ -549,11 +770,15 @@ public class ChatController {
         // 【核心修复 2】将交互逻辑绑定在 container (HBox) 上，确保点击范围够大且不仅限于 Label
         configureBubbleInteraction(container, msgLabel, message, msgId, false);
 
-        animateBubble(container);
+        if (animate) animateBubble(container);
         return container;
     }
 
     private HBox createImageBubble(String sender, Image image, boolean isBurn, long msgId) {
+        return createImageBubble(sender, image, isBurn, msgId, true);
+    }
+
+    private HBox createImageBubble(String sender, Image image, boolean isBurn, long msgId, boolean animate) {
         boolean isMe = sender.equals(currentUserId);
         ImageView imageView = new ImageView(image);
         imageView.setPreserveRatio(true);
@@ -580,7 +805,7 @@ public class ChatController {
             imageView.setOnMouseClicked(e -> showLargeImage(image));
         }
 
-        animateBubble(container);
+        if (animate) animateBubble(container);
         return container;
     }
 
@@ -627,7 +852,7 @@ public class ChatController {
         // 选项：删除 (已修改名称)
         MenuItem deleteItem = new MenuItem("删除");
         deleteItem.setStyle("-fx-text-fill: red;");
-        deleteItem.setOnAction(e -> handleDeleteAction(msgId, container));
+        deleteItem.setOnAction(e -> handleDeleteAction(container));
 
         contextMenu.getItems().addAll(selectItem, new SeparatorMenuItem(), copyItem, forwardItem, new SeparatorMenuItem(), deleteItem);
 
@@ -689,6 +914,51 @@ public class ChatController {
         selectionCountLabel.setText("已选择 " + selectedBubbles.size() + " 条");
     }
 
+    // --- 【新增】聊天记录搜索 ---
+
+    /**
+     * 在本地索引中搜索所有会话，选中结果后切换到对应会话
+     */
+    @FXML
+    private void handleSearchAction() {
+        SearchIndex index = nettyClient == null ? null : nettyClient.getSearchIndex();
+        if (index == null) {
+            new Alert(Alert.AlertType.INFORMATION, "搜索索引尚未就绪").show();
+            return;
+        }
+        TextInputDialog input = new TextInputDialog();
+        input.setTitle("搜索聊天记录");
+        input.setHeaderText("在所有会话中搜索 (已索引 " + index.size() + " 条)");
+        input.setContentText("关键词:");
+        input.initOwner(sendButton.getScene().getWindow());
+        Optional<String> query = input.showAndWait();
+        if (query.isEmpty() || query.get().isBlank()) return;
+
+        List<String> choices = new ArrayList<>();
+        Map<String, String> targets = new HashMap<>();
+        for (long id : index.search(query.get(), 100)) {
+            String target = index.conversationOf(id);
+            if (target == null) continue;
+            String label = target + "  " + DISPLAY_FMT.format(Instant.ofEpochMilli(index.timestampOf(id))) + "  #" + id;
+            choices.add(label);
+            targets.put(label, target);
+        }
+        if (choices.isEmpty()) {
+            new Alert(Alert.AlertType.INFORMATION, "没有找到 \"" + query.get() + "\"").show();
+            return;
+        }
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(choices.get(0), choices);
+        dialog.setTitle("搜索聊天记录");
+        dialog.setHeaderText("找到 " + choices.size() + " 条 (按时间从新到旧)");
+        dialog.setContentText("跳转到:");
+        dialog.initOwner(sendButton.getScene().getWindow());
+        dialog.showAndWait().map(targets::get).ifPresent(target -> {
+            exitSelectionMode();
+            userListView.getSelectionModel().clearSelection();
+            switchChatTarget(target);
+        });
+    }
+
     // --- 批量操作 ---
 
     @FXML
@@ -707,6 +977,7 @@ public class ChatController {
     }
 
     @FXML
+    @SuppressWarnings("unchecked")
     private void handleBatchDelete() {
         if (selectedBubbles.isEmpty()) return;
 
@@ -715,14 +986,22 @@ public class ChatController {
         Optional<ButtonType> result = alert.showAndWait();
 
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            List<HBox> toDelete = new ArrayList<>(selectedBubbles);
-            for (HBox bubble : toDelete) {
+            // 【修改】界面先一次性移除，数据库在后台一个事务中删除
+            List<CompletableFuture<Long>> ids = new ArrayList<>();
+            for (HBox bubble : selectedBubbles) {
                 Object userData = bubble.getUserData();
                 if (userData instanceof Long) {
-                    handleDeleteAction((Long) userData, bubble);
+                    ids.add(CompletableFuture.completedFuture((Long) userData));
+                } else if (userData instanceof CompletableFuture) {
+                    ids.add((CompletableFuture<Long>) userData);
                 }
             }
+            chatListView.getItems().removeAll(selectedBubbles);
+            cleanupTimestamps();
             exitSelectionMode();
+            bulkOperations.delete(ids).whenComplete((deleted, e) -> {
+                if (e != null) Platform.runLater(() -> new Alert(Alert.AlertType.ERROR, "删除失败: " + e.getMessage()).show());
+            });
         }
     }
 
@@ -783,42 +1062,83 @@ public class ChatController {
             choices.add(0, "ALL (群聊)");
         }
 
-        ChoiceDialog<String> dialog = new ChoiceDialog<>(choices.get(0), choices);
+        // 【修改】可以同时选择多个目标 (Ctrl / Shift 多选)
+        ListView<String> targetList = new ListView<>(FXCollections.observableArrayList(choices));
+        targetList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        targetList.setPrefHeight(240);
+        Dialog<List<String>> dialog = new Dialog<>();
         dialog.setTitle("转发消息");
-        dialog.setHeaderText("选择转发目标 (" + contents.size() + " 条)");
-        dialog.setContentText("发送给:");
+        dialog.setHeaderText("选择转发目标 (" + contents.size() + " 条，可多选)");
+        dialog.getDialogPane().setContent(targetList);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> button == ButtonType.OK ? new ArrayList<>(targetList.getSelectionModel().getSelectedItems()) : null);
         dialog.initOwner(sendButton.getScene().getWindow());
 
-        Optional<String> result = dialog.showAndWait();
-        result.ifPresent(targetStr -> {
-            String targetId = targetStr.replace(" (我)", "").replace("ALL (群聊)", "ALL");
+        Optional<List<String>> result = dialog.showAndWait();
+        if (result.isEmpty() || result.get().isEmpty()) return;
+        List<String> targetIds = result.get().stream()
+                .map(targetStr -> targetStr.replace(" (我)", "").replace("ALL (群聊)", "ALL"))
+                .distinct()
+                .collect(Collectors.toList());
 
-            // 执行转发
-            for (String content : contents) {
-                doForwardMessage(targetId, content);
-            }
+        // 如果转发完退出多选模式
+        if (isSelectionMode) exitSelectionMode();
 
-            // 如果转发完退出多选模式
-            if (isSelectionMode) exitSelectionMode();
+        // 单条转发给单个目标仍走原来的路径
+        if (contents.size() == 1 && targetIds.size() == 1) {
+            doForwardMessage(targetIds.get(0), contents.get(0));
+            return;
+        }
+        forwardInBulk(targetIds, contents);
+    }
 
-            // 如果正好转发给当前窗口，刷新一下 UI (简单追加)
-            if (targetId.equals(currentChatTarget)) {
-                // 注意：这里由于是异步发送，其实 UI 刷新由 handleIncomingMessage 或 sendMsg 中的本地追加逻辑处理更好
-                // 但为了确保看到自己发的，可以简单提示或不做额外操作，因为 doForwardMessage 里会存库
-            } else {
-                // 提示转发成功
-                // appendLogMessage("已转发给 " + targetId);
+    /**
+     * 【新增】批量转发：加密、发送、写库都在后台完成，用一个非模态对话框显示进度和结果
+     */
+    private void forwardInBulk(List<String> targetIds, List<String> contents) {
+        ProgressBar bar = new ProgressBar(0);
+        bar.setPrefWidth(300);
+        Alert progressAlert = new Alert(Alert.AlertType.INFORMATION);
+        progressAlert.setTitle("转发消息");
+        progressAlert.setHeaderText("正在转发 " + contents.size() + " 条消息给 " + targetIds.size() + " 个会话...");
+        progressAlert.getDialogPane().setContent(bar);
+        progressAlert.initOwner(sendButton.getScene().getWindow());
+        progressAlert.initModality(Modality.NONE);
+        progressAlert.show();
+
+        bulkOperations.forward(currentUserId, targetIds, contents,
+                (done, total) -> Platform.runLater(() -> bar.setProgress((double) done / total))
+        ).whenComplete((result, e) -> Platform.runLater(() -> {
+            bar.setProgress(1);
+            if (e != null) {
+                progressAlert.setAlertType(Alert.AlertType.ERROR);
+                progressAlert.setHeaderText("转发失败: " + e.getMessage());
+                return;
             }
-        });
+            String header = "已转发 " + result.getSent() + " 条";
+            if (!result.getMissingKeys().isEmpty()) {
+                header += "\n与 " + String.join(", ", result.getMissingKeys()) + " 的安全通道未建立，已发起握手，请稍后重试";
+            }
+            progressAlert.setHeaderText(header);
+
+            // 正好转发给当前窗口：一次性追加气泡
+            List<Long> ids = result.getSavedIds().get(currentChatTarget);
+            if (ids != null) {
+                List<HBox> bubbles = new ArrayList<>(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    bubbles.add(createChatBubble(currentUserId, contents.get(i), ids.get(i)));
+                }
+                chatListView.getItems().addAll(bubbles);
+                chatListView.scrollTo(chatListView.getItems().size() - 1);
+            }
+        }));
     }
 
     private void doForwardMessage(String targetId, String content) {
         try {
             // 1. 群聊转发
             if ("ALL".equals(targetId)) {
-                TextMessage groupMsg = new TextMessage(currentUserId, content);
-                groupMsg.setTargetUserId("ALL");
-                nettyClient.sendMessage(groupMsg);
+                nettyClient.sendGroupText(content);
                 return;
             }
 
@@ -841,7 +1161,9 @@ public class ChatController {
             }
 
             // 3. 存入本地数据库 (作为发送者)
-            long newId = DatabaseManager.saveEncryptedMessage(currentUserId, targetId, true, encrypted);
+            CompletableFuture<Long> newId = DatabaseManager.saveEncryptedMessageAsync(currentUserId, targetId, true, encrypted);
+            SearchIndex index = nettyClient.getSearchIndex();
+            if (index != null) index.add(newId, targetId, content);
 
             // 4. UI 回显 (仅当目标是当前聊天对象时)
             if (targetId.equals(currentChatTarget)) {
@@ -883,7 +1205,7 @@ public class ChatController {
         // 3. 删除
         MenuItem deleteItem = new MenuItem("彻底删除");
         deleteItem.setStyle("-fx-text-fill: red;");
-        deleteItem.setOnAction(e -> handleDeleteAction(msgId, bubbleContainer));
+        deleteItem.setOnAction(e -> handleDeleteAction(bubbleContainer));
 
         contextMenu.getItems().addAll(copyItem, forwardItem, new SeparatorMenuItem(), deleteItem);
 
@@ -921,12 +1243,16 @@ public class ChatController {
             SecretKey key = nettyClient.getSharedAesKey(realTarget);
 
             if ("ALL".equals(realTarget)) {
-                nettyClient.sendMessage(new TextMessage(currentUserId, content)); // 群聊转发
+                try {
+                    nettyClient.sendGroupText(content); // 群聊转发
+                } catch (Exception ex) { ex.printStackTrace(); }
             } else if (key != null) {
                 try {
                     String enc = EncryptionUtils.aesEncrypt(content, key);
                     nettyClient.sendMessage(new TextMessage(currentUserId, enc));
-                    DatabaseManager.saveEncryptedMessage(currentUserId, realTarget, true, enc);
+                    CompletableFuture<Long> newId = DatabaseManager.saveEncryptedMessageAsync(currentUserId, realTarget, true, enc);
+                    SearchIndex index = nettyClient.getSearchIndex();
+                    if (index != null) index.add(newId, realTarget, content);
                     if (realTarget.equals(currentChatTarget)) {
                         appendChatMessage(currentUserId, content, -1); // 刷新当前界面
                     }
@@ -942,9 +1268,21 @@ public class ChatController {
      * 处理删除逻辑
      * 优化了删除逻辑，确保即使数据库中已不存在（如重复消息），UI上也能被删除
      */
-    private void handleDeleteAction(long msgId, HBox bubble) {
+    @SuppressWarnings("unchecked")
+    private void handleDeleteAction(HBox bubble) {
         // 1. 尝试数据库物理删除 (不关心返回值，旨在确保数据被清理)
-        DatabaseManager.deleteMessage(msgId);
+        //    【修改】气泡上可能还是尚未提交的 Future，等拿到 ID 再删
+        Object userData = bubble.getUserData();
+        SearchIndex searchIndex = nettyClient.getSearchIndex();
+        if (userData instanceof Long) {
+            DatabaseManager.deleteMessage(currentUserId, (Long) userData);
+            if (searchIndex != null) searchIndex.remove((Long) userData);
+        } else if (userData instanceof CompletableFuture) {
+            ((CompletableFuture<Long>) userData).thenAccept(id -> {
+                DatabaseManager.deleteMessage(currentUserId, id);
+                if (searchIndex != null) searchIndex.remove(id);
+            });
+        }
 
         // 2. 强制 UI 移除 (解决之前重复消息无法彻底删除的问题)
         int index = chatListView.getItems().indexOf(bubble);
@@ -1020,6 +1358,21 @@ public class ChatController {
         Platform.runLater(() -> { chatListView.getItems().add(bubble); chatListView.scrollTo(chatListView.getItems().size() - 1); });
         return bubble;
     }
+
+    // 【新增】消息仍在写入队列中：先显示气泡，提交后再把 ID 绑定上去
+    private HBox appendChatMessage(String sender, String message, CompletableFuture<Long> msgId) {
+        return bindPendingId(appendChatMessage(sender, message, PENDING_ID), msgId);
+    }
+    private HBox appendImageMessage(String sender, Image image, boolean isBurn, CompletableFuture<Long> msgId) {
+        return bindPendingId(appendImageMessage(sender, image, isBurn, PENDING_ID), msgId);
+    }
+    private HBox bindPendingId(HBox bubble, CompletableFuture<Long> msgId) {
+        bubble.setUserData(msgId);
+        msgId.thenAccept(id -> Platform.runLater(() -> {
+            if (bubble.getUserData() == msgId) bubble.setUserData(id);
+        }));
+        return bubble;
+    }
     private void appendLogMessage(String message) {
         if (message.length() > 200) message = "...";
         HBox bubble = createSystemBubble(message);
@@ -1047,4 +1400,10 @@ public class ChatController {
         if (key != null) { try { return EncryptionUtils.aesDecrypt(content, key); } catch(Exception e){} }
         return "🔒";
     }
+
+    private String openMessage(String senderId, byte[] sealed) {
+        SecretKey key = nettyClient.getSharedAesKey(senderId);
+        if (key != null) { try { return EncryptionUtils.openToString(sealed, key); } catch(Exception e){} }
+        return "🔒";
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.my.chatroom;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
@@ -23,14 +24,27 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         CHANNELS.add(ctx.channel());
-        System.out.println("[连接] " + ctx.channel().remoteAddress() + " 已连接。");
+        AsyncLogger.info(AsyncLogger.Category.CONNECTION, "[连接] {} 已连接。", ctx.channel().remoteAddress());
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
+        long dispatchStart = System.nanoTime();
+        try {
+            dispatch(ctx, msg);
+        } finally {
+            MetricsRegistry.histogram("stage.dispatch").recordNanos(System.nanoTime() - dispatchStart);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, Message msg) {
+        long receivedAt = System.currentTimeMillis();
         // 确保消息类型正确 (防守式编程，重新解析一次以确保多态正确)
         String json = GSON.toJson(msg);
         Message actualMsg = GSON.fromJson(json, Message.class);
+        // 【新增】二进制尾部不在 JSON 中，重新解析后要带上
+        JsonToMessageDecoder.attachBinaryTrailer(actualMsg, MessageToJsonEncoder.binaryTrailer(msg));
+        actualMsg.setServerReceivedAt(receivedAt);
 
         // 1. 登录请求
         if (actualMsg.getType() == Message.MessageType.LOGIN_REQUEST) {
@@ -44,9 +58,13 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         else if (actualMsg.getType() == Message.MessageType.AES_KEY_EXCHANGE) {
             handleAESKeyExchange(ctx, actualMsg);
         }
+        // 【新增】登录后补发的公钥 (第一次登录时 RSA 还没生成好)
+        else if (actualMsg.getType() == Message.MessageType.PUBLIC_KEY_UPDATE) {
+            handlePublicKeyUpdate(ctx, actualMsg);
+        }
         else if (actualMsg.getType() == Message.MessageType.HEARTBEAT) {
-            // 收到心跳，Netty 会自动维持连接活跃
-            // System.out.println("收到心跳: " + ctx.channel().remoteAddress());
+            // 【修改】收到心跳立即应答，客户端据此估算 RTT 和时钟偏差
+            ctx.writeAndFlush(new HeartbeatAck(actualMsg.getTimestamp(), System.currentTimeMillis()));
             return;
         }
         // 4. 普通消息 / 阅后即焚 / 图片 (可能是私聊，也可能是群聊)
@@ -76,6 +94,14 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         } else if (msg instanceof ImageMessage) {
             // 【新增】支持图片消息转发
             targetId = ((ImageMessage) msg).getTargetUserId();
+        } else if (msg instanceof ImageChunkMessage) {
+            // 【新增】分块图片：按片段逐个转发，服务端不缓存整张图片
+            targetId = ((ImageChunkMessage) msg).getTargetUserId();
+            if ("ALL".equals(targetId)) return; // 群聊不支持发图
+        } else if (msg instanceof SenderKeyMessage) {
+            // 【新增】群密钥只能点对点分发
+            targetId = ((SenderKeyMessage) msg).getTargetUserId();
+            if ("ALL".equals(targetId)) return;
         }
 
         if (targetId != null) {
@@ -88,30 +114,61 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
             // 私聊逻辑
             Channel targetChannel = LOGGED_IN_USERS.get(targetId);
             if (targetChannel != null) {
-                targetChannel.writeAndFlush(msg);
-                System.out.println("[转发] " + senderId + " -> " + targetId + " (类型: " + msg.getType() + ")");
+                writeTraced(targetChannel, msg);
+                AsyncLogger.info(AsyncLogger.Category.FORWARD, "[转发] {} -> {} (类型: {})", senderId, targetId, msg.getType());
             } else {
                 // 可选：通知发送者目标不在线，但对于图片消息通常静默处理或存离线消息（当前暂不处理）
-                System.out.println("[转发失败] 目标 " + targetId + " 不在线");
+                AsyncLogger.info(AsyncLogger.Category.FORWARD, "[转发失败] 目标 {} 不在线", targetId);
             }
         }
     }
 
     private void broadcastGroupMessage(Message msg, String senderId) {
-        System.out.println("[群聊] 来自 " + senderId + " 的广播消息");
+        AsyncLogger.info(AsyncLogger.Category.GROUP, "[群聊] 来自 {} 的广播消息", senderId);
+        // 同一个消息对象被写往所有连接，只记录排队与编码，冲刷耗时由私聊路径统计
+        markForwarded(msg);
         for (Channel ch : LOGGED_IN_USERS.values()) {
             // 发给所有人
             ch.writeAndFlush(msg);
         }
     }
 
+    /**
+     * 【新增】打上转发时间戳，供编码器计算排队耗时、接收方计算服务端停留时间
+     */
+    private static void markForwarded(Message msg) {
+        msg.setServerForwardedAt(System.currentTimeMillis());
+        msg.setTraceEnqueuedNanos(System.nanoTime());
+    }
+
+    /**
+     * 【新增】转发并统计写出耗时 (冲刷：编码完成到数据经 SSL 写入 socket；转发总耗时：入队到写入 socket)
+     */
+    private static void writeTraced(Channel target, Message msg) {
+        markForwarded(msg);
+        long enqueued = msg.getTraceEnqueuedNanos();
+        target.writeAndFlush(msg).addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess()) {
+                MetricsRegistry.counter("forward.failed").increment();
+                return;
+            }
+            long now = System.nanoTime();
+            if (msg.getTraceEncodedNanos() != 0) {
+                MetricsRegistry.histogram("stage.flush").recordNanos(now - msg.getTraceEncodedNanos());
+            }
+            MetricsRegistry.histogram("forward.total").recordNanos(now - enqueued);
+            MetricsRegistry.counter("forward.delivered").increment();
+        });
+    }
+
     private void handleLoginRequest(ChannelHandlerContext ctx, Message msg) {
         if (!(msg instanceof LoginRequest)) return;
         LoginRequest request = (LoginRequest) msg;
 
         String userId = request.getSenderId();
         String password = request.getPassword();
-        String publicKey = request.getPublicKey();
+        // 【修改】X25519 与 RSA 公钥合在一起存 (见 PublishedKeys)
+        String publicKey = PublishedKeys.join(request.getPublicKey(), request.getAgreementKey());
         Channel incoming = ctx.channel();
         LoginResponse response;
 
@@ -125,9 +182,14 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
                 // 登录成功
                 LOGGED_IN_USERS.put(userId, incoming);
                 response = new LoginResponse(userId, true, "登录成功！");
-                DatabaseManager.updatePublicKey(userId, publicKey);
+                // 【修改】客户端的身份密钥会持久化，公钥没变时不再改写用户表
+                if (publicKey != null && !publicKey.equals(user.getPublicKey())) {
+                    DatabaseManager.updatePublicKey(userId, publicKey);
+                } else {
+                    MetricsRegistry.counter("login.publicKeyUnchanged").increment();
+                }
 
-                System.out.println("[认证成功] " + userId);
+                AsyncLogger.info(AsyncLogger.Category.LOGIN, "[认证成功] {}", userId);
                 ctx.executor().schedule(this::broadcastUserList, 300, TimeUnit.MILLISECONDS);
 
             } else if (user == null) {
@@ -137,7 +199,7 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
                     response = new LoginResponse(userId, true, "注册并登录成功！");
                     DatabaseManager.updatePublicKey(userId, publicKey);
 
-                    System.out.println("[注册成功] " + userId);
+                    AsyncLogger.info(AsyncLogger.Category.LOGIN, "[注册成功] {}", userId);
                     ctx.executor().schedule(this::broadcastUserList, 300, TimeUnit.MILLISECONDS);
                 } else {
                     response = new LoginResponse(userId, false, "注册失败。");
@@ -149,18 +211,36 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         incoming.writeAndFlush(response);
     }
 
+    private void handlePublicKeyUpdate(ChannelHandlerContext ctx, Message msg) {
+        if (!(msg instanceof PublicKeyUpdate)) return;
+        PublicKeyUpdate update = (PublicKeyUpdate) msg;
+        String userId = getUserIdByChannel(ctx.channel());
+        if (userId == null) {
+            ctx.writeAndFlush(new LoginResponse("SERVER", false, "请先登录！"));
+            return;
+        }
+        String publicKey = PublishedKeys.join(update.getPublicKey(), update.getAgreementKey());
+        User user = DatabaseManager.getUser(userId);
+        if (publicKey != null && (user == null || !publicKey.equals(user.getPublicKey()))) {
+            DatabaseManager.updatePublicKey(userId, publicKey);
+            AsyncLogger.info(AsyncLogger.Category.LOGIN, "[公钥更新] {}", userId);
+        }
+    }
+
     private void handleKeyExchangeRequest(ChannelHandlerContext ctx, Message msg) {
         KeyExchangeRequest request = (KeyExchangeRequest) msg;
         String senderId = request.getSenderId();
         String targetId = request.getTargetUserId();
 
-        System.out.println("[密钥请求] " + senderId + " -> " + targetId);
+        AsyncLogger.info(AsyncLogger.Category.KEY_EXCHANGE, "[密钥请求] {} -> {}", senderId, targetId);
 
         KeyExchangeResponse response;
         User targetUser = DatabaseManager.getUser(targetId);
 
         if (targetUser != null && targetUser.getPublicKey() != null) {
-            response = new KeyExchangeResponse(senderId, true, "成功", targetId, targetUser.getPublicKey());
+            String published = targetUser.getPublicKey();
+            response = new KeyExchangeResponse(senderId, true, "成功", targetId, PublishedKeys.rsa(published));
+            response.setTargetAgreementKey(PublishedKeys.agreement(published));
         } else {
             response = new KeyExchangeResponse(senderId, false, "用户不存在或无公钥", targetId, null);
         }
@@ -173,8 +253,8 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         Channel targetChannel = LOGGED_IN_USERS.get(targetId);
 
         if (targetChannel != null) {
-            targetChannel.writeAndFlush(exchangeMsg);
-            System.out.println("[密钥传递] -> " + targetId);
+            writeTraced(targetChannel, exchangeMsg);
+            AsyncLogger.info(AsyncLogger.Category.KEY_EXCHANGE, "[密钥传递] -> {}", targetId);
         }
     }
 
@@ -186,6 +266,10 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         }
     }
 
+    static long onlineCount() {
+        return LOGGED_IN_USERS.size();
+    }
+
     private String getUserIdByChannel(Channel channel) {
         return LOGGED_IN_USERS.entrySet().stream()
                 .filter(entry -> entry.getValue() == channel)
@@ -194,7 +278,7 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
+        AsyncLogger.error(AsyncLogger.Category.ERROR, "[异常] {} {}", ctx.channel().remoteAddress(), cause);
         ctx.close();
     }
 
@@ -204,7 +288,7 @@ public class ChatServerHandler extends SimpleChannelInboundHandler<Message> {
         if (userId != null) {
             LOGGED_IN_USERS.remove(userId);
             broadcastUserList();
-            System.out.println("[下线] " + userId);
+            AsyncLogger.info(AsyncLogger.Category.CONNECTION, "[下线] {}", userId);
         }
         CHANNELS.remove(ctx.channel());
     }
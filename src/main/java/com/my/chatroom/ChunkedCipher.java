@@ -0,0 +1,223 @@
+package com.my.chatroom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * 分块流式加密 (ChunkedCipher)
+ * 作用：图片等大文件不再整块读入内存后一次 doFinal，而是按固定大小切块，每块单独做 AES-GCM 认证，
+ * 加密、发送、写盘、解密时内存占用只与块大小有关，与文件大小无关。
+ *
+ * 格式：头部 [版本 0x03][7 字节随机前缀][块大小 int]，之后每块 [密文长度 int][密文 + 16 字节标签]。
+ * 每块的 nonce = 前缀 (7) + 块序号 (4) + 是否最后一块 (1)：调换、删除块或截掉末尾都会在解密时失败。
+ */
+public final class ChunkedCipher {
+
+    static final byte VERSION = 0x03;
+    static final int HEADER_SIZE = 1 + 7 + 4;
+    private static final int TAG_BITS = 128;
+    // 单块上限，防止损坏的长度字段导致一次分配过大
+    private static final int MAX_CHUNK = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("chat.media.chunkKB", 64) * 1024;
+
+    private ChunkedCipher() {}
+
+    /**
+     * 加密端：先取 header()，再按顺序对每块调用 encryptChunk，最后一块 last = true
+     */
+    public static final class Encryptor {
+        private final SecretKey key;
+        private final byte[] prefix = new byte[7];
+        private final int chunkSize;
+        private int index = 0;
+        private boolean finished = false;
+
+        public Encryptor(SecretKey key, int chunkSize) {
+            this.key = key;
+            this.chunkSize = chunkSize;
+            CryptoContext.random().nextBytes(prefix);
+        }
+
+        public int getChunkSize() { return chunkSize; }
+
+        public byte[] header() {
+            return ByteBuffer.allocate(HEADER_SIZE).put(VERSION).put(prefix).putInt(chunkSize).array();
+        }
+
+        /**
+         * @return [密文长度][密文 + 标签]，可直接追加到流 / 文件末尾
+         */
+        public byte[] encryptChunk(byte[] plain, int length, boolean last) throws GeneralSecurityException {
+            if (finished) throw new IllegalStateException("最后一块已经加密");
+            if (length > chunkSize) throw new IllegalArgumentException("块超过 " + chunkSize + " 字节");
+            Cipher cipher = CryptoContext.get().gcm();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce(prefix, index++, last)));
+            int size = cipher.getOutputSize(length);
+            byte[] record = new byte[4 + size];
+            ByteBuffer.wrap(record).putInt(size);
+            cipher.doFinal(plain, 0, length, record, 4);
+            finished = last;
+            return record;
+        }
+    }
+
+    private static byte[] nonce(byte[] prefix, int index, boolean last) {
+        return ByteBuffer.allocate(12).put(prefix).putInt(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * 从 in 读到结束，逐块加密写入 out (in / out 都不关闭)
+     * @return 写出的字节数
+     */
+    public static long encrypt(InputStream in, OutputStream out, SecretKey key) throws IOException, GeneralSecurityException {
+        return encrypt(in, key, DEFAULT_CHUNK_SIZE, record -> out.write(record));
+    }
+
+    /**
+     * 同上，但每段密文 (头部、每一块) 交给 sink，调用方可以边加密边发送 / 写盘
+     */
+    public static long encrypt(InputStream in, SecretKey key, int chunkSize, ChunkSink sink) throws IOException, GeneralSecurityException {
+        Encryptor encryptor = new Encryptor(key, chunkSize);
+        byte[] header = encryptor.header();
+        sink.accept(header);
+        long written = header.length;
+        // 预读下一块才能知道当前块是不是最后一块：两个缓冲区交替使用
+        byte[] current = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        int currentLength = readFully(in, current);
+        while (true) {
+            int nextLength = currentLength < chunkSize ? 0 : readFully(in, next);
+            boolean last = nextLength == 0;
+            byte[] record = encryptor.encryptChunk(current, currentLength, last);
+            sink.accept(record);
+            written += record.length;
+            if (last) return written;
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+        }
+    }
+
+    /**
+     * 密文片段的接收方
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(byte[] record) throws IOException;
+    }
+
+    /**
+     * 解密流：每次只缓存一块明文；认证失败、块顺序不对或缺少最后一块时 read 抛出 IOException
+     */
+    public static InputStream decryptingStream(InputStream in, SecretKey key) {
+        return new DecryptingInputStream(in, key);
+    }
+
+    private static final class DecryptingInputStream extends InputStream {
+        private final DataInputStream in;
+        private final SecretKey key;
+        private byte[] prefix;
+        private int chunkSize;
+        private int index = 0;
+        private boolean finished = false;
+        private byte[] record = new byte[0];
+        private byte[] plain = new byte[0];
+        private int position = 0;
+        private int limit = 0;
+
+        DecryptingInputStream(InputStream in, SecretKey key) {
+            this.in = new DataInputStream(in);
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return plain[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, limit - position);
+            System.arraycopy(plain, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == limit) {
+                if (finished) return false;
+                if (prefix == null) readHeader();
+                readChunk();
+            }
+            return true;
+        }
+
+        private void readHeader() throws IOException {
+            if (in.readUnsignedByte() != VERSION) throw new IOException("不是分块加密的数据");
+            prefix = new byte[7];
+            in.readFully(prefix);
+            chunkSize = in.readInt();
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK) throw new IOException("块大小不正确: " + chunkSize);
+        }
+
+        private void readChunk() throws IOException {
+            int size;
+            try {
+                size = in.readInt();
+            } catch (EOFException e) {
+                throw new IOException("数据被截断：缺少最后一块", e);
+            }
+            if (size < TAG_BITS / 8 || size > chunkSize + TAG_BITS / 8) throw new IOException("块长度不正确: " + size);
+            if (record.length < size) record = new byte[size];
+            in.readFully(record, 0, size);
+            if (plain.length < size) plain = new byte[size];
+            // 先按"不是最后一块"校验，失败再按最后一块校验：两种 nonce 只有一种能通过认证
+            try {
+                limit = open(record, size, false);
+            } catch (GeneralSecurityException notMiddle) {
+                try {
+                    limit = open(record, size, true);
+                    finished = true;
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("第 " + index + " 块认证失败", e);
+                }
+            }
+            index++;
+            position = 0;
+        }
+
+        private int open(byte[] record, int size, boolean last) throws GeneralSecurityException {
+            Cipher cipher = CryptoContext.get().gcm();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce(prefix, index, last)));
+            return cipher.doFinal(record, 0, size, plain, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+}
@@ -16,11 +16,18 @@ import io.netty.handler.timeout.IdleStateHandler;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.net.ssl.SSLException;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -30,11 +37,27 @@ import java.util.function.Consumer;
 public class Client {
 
     private String currentUserId;
-    private final KeyPair currentKeyPair;
+    // 【修改】身份密钥改为 X25519；RSA 只为不支持 X25519 的旧客户端保留，在后台生成，用到时才等待
+    private static final boolean RSA_FALLBACK = Boolean.parseBoolean(System.getProperty("chat.crypto.rsaFallback", "true"));
+    // 【修改】身份密钥在登录时从本地密钥库读出 (loadIdentity)，第一次登录才生成；登录成功后写回密钥库
+    private volatile KeyPair agreementKeyPair;
+    private volatile CompletableFuture<KeyPair> rsaKeyPair;
+    private IdentityKeyStore identityStore;
+    private boolean identityDirty = false; // 密钥库中还没有当前的身份密钥
+    private volatile boolean rsaPublishPending = false; // 【新增】登录请求没带 RSA 公钥，登录成功后等生成完再补发
     private final Map<String, SecretKey> sharedAesKeys = new ConcurrentHashMap<>();
+    // 【新增】尚未解密的会话密钥 (主密钥加密后的 Base64)，第一次用到时才解密，登录时间不再随联系人数量增长
+    private final Map<String, String> lockedKeys = new ConcurrentHashMap<>();
+    private final ExecutorService keyWarmer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "key-warmer");
+        t.setDaemon(true);
+        return t;
+    });
 
     // 【新增】本地主密钥：由用户登录密码派生，用于加密/解密本地数据库中的会话密钥
     private SecretKey localMasterKey;
+    // 【新增】本地聊天记录全文索引 (用主密钥加密存盘)
+    private volatile SearchIndex searchIndex;
 
     private Channel channel;
     private EventLoopGroup group;
@@ -44,28 +67,122 @@ public class Client {
     private String host;
     private int port;
     private boolean isIntentionalDisconnect = false;
+    private final ClockSync clockSync = new ClockSync(); // 【新增】与服务端的时钟偏差估计
+    private final GroupSession groupSession = new GroupSession(this); // 【新增】群聊发送者密钥
 
     public Client() {
+    }
+
+    /**
+     * 【新增】登录前调用：从本地密钥库读出该用户的身份密钥，没有时生成新的 (登录成功后才写入，见 persistIdentity)
+     * @throws IllegalStateException 密钥库无法用该密码解密
+     */
+    public void loadIdentity(String userId, String password) {
+        long start = System.nanoTime();
+        IdentityKeyStore.Identity identity;
         try {
-            this.currentKeyPair = EncryptionUtils.generateRsaKeyPair();
+            identityStore = new IdentityKeyStore(DatabaseManager.localIdentityPath(userId), EncryptionUtils.deriveKeyFromPassword(password));
+            identity = identityStore.load();
         } catch (Exception e) {
-            throw new RuntimeException("无法初始化 RSA", e);
+            throw new IllegalStateException("本地身份密钥无法解密，请确认密码", e);
+        }
+        synchronized (this) {
+            identityDirty = identity == null;
+            agreementKeyPair = identity != null ? identity.getAgreement() : EncryptionUtils.generateAgreementKeyPair();
+            KeyPair storedRsa = identity != null ? identity.getRsa() : null;
+            if (!RSA_FALLBACK) {
+                rsaKeyPair = null;
+            } else if (storedRsa != null) {
+                rsaKeyPair = CompletableFuture.completedFuture(storedRsa);
+            } else {
+                rsaKeyPair = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return EncryptionUtils.generateRsaKeyPair();
+                    } catch (Exception e) {
+                        throw new RuntimeException("无法初始化 RSA", e);
+                    }
+                });
+                rsaKeyPair.thenRun(() -> {
+                    synchronized (this) { identityDirty = true; }
+                    persistIdentity();
+                });
+            }
+        }
+        System.out.printf("🔑 身份密钥%s, 用时 %.1fms%n", identity != null ? "已从本地密钥库读出" : "已生成", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * 【新增】把新生成的身份密钥写入本地密钥库：只在登录成功 (initSecureStorage) 之后写，避免用错误的密码加密
+     */
+    private synchronized void persistIdentity() {
+        if (!identityDirty || localMasterKey == null || identityStore == null) return;
+        CompletableFuture<KeyPair> rsa = rsaKeyPair;
+        if (rsa != null && !rsa.isDone()) return; // RSA 生成完后会再调用一次
+        try {
+            identityStore.save(new IdentityKeyStore.Identity(agreementKeyPair, rsa == null ? null : rsa.join()));
+            identityDirty = false;
+        } catch (Exception e) {
+            System.err.println("❌ 身份密钥保存失败: " + e.getMessage());
         }
     }
 
     // --- Getter / Setter ---
     public String getCurrentUserId() { return currentUserId; }
     public void setCurrentUserId(String currentUserId) { this.currentUserId = currentUserId; }
-    public PrivateKey getPrivateKey() { return currentKeyPair.getPrivate(); }
-    public java.security.PublicKey getPublicKey() { return currentKeyPair.getPublic(); }
-    public SecretKey getSharedAesKey(String targetId) { return sharedAesKeys.get(targetId); }
+    public KeyPair getAgreementKeyPair() {
+        if (agreementKeyPair == null) throw new IllegalStateException("尚未加载身份密钥 (loadIdentity)");
+        return agreementKeyPair;
+    }
+    // 【新增】是否保留 RSA 回退 (-Dchat.crypto.rsaFallback=false 时只公布 X25519 公钥，旧客户端无法与本端建立会话)
+    public boolean hasRsaFallback() { return rsaKeyPair != null; }
+    public PrivateKey getPrivateKey() { return rsaKeyPair().getPrivate(); }
+    public java.security.PublicKey getPublicKey() { return rsaKeyPair().getPublic(); }
+
+    /**
+     * 【新增】登录请求中的 RSA 公钥：RSA 已就绪 (从密钥库读出或已生成完) 时返回 Base64，否则返回 null 且不等待，
+     * 登录成功后由 initSecureStorage 通过 PublicKeyUpdate 补发
+     */
+    public String loginRsaPublicKey() {
+        CompletableFuture<KeyPair> rsa = rsaKeyPair;
+        rsaPublishPending = rsa != null && !rsa.isDone();
+        if (rsa == null || rsaPublishPending || rsa.isCompletedExceptionally()) return null;
+        return Base64.getEncoder().encodeToString(rsa.join().getPublic().getEncoded());
+    }
+
+    private void publishRsaKeyWhenReady() {
+        if (!rsaPublishPending) return;
+        rsaPublishPending = false;
+        String userId = currentUserId;
+        rsaKeyPair.thenAccept(rsa -> sendMessage(new PublicKeyUpdate(userId,
+                Base64.getEncoder().encodeToString(rsa.getPublic().getEncoded()),
+                Base64.getEncoder().encodeToString(agreementKeyPair.getPublic().getEncoded()))));
+    }
+
+    private KeyPair rsaKeyPair() {
+        CompletableFuture<KeyPair> rsa = rsaKeyPair;
+        if (rsa == null) throw new IllegalStateException("未启用 RSA 回退");
+        return rsa.join();
+    }
+    /**
+     * 【修改】取会话密钥；登录时恢复的密钥在这里第一次被用到时解密
+     */
+    public SecretKey getSharedAesKey(String targetId) {
+        SecretKey key = sharedAesKeys.get(targetId);
+        if (key != null || !lockedKeys.containsKey(targetId)) return key;
+        return sharedAesKeys.computeIfAbsent(targetId, this::unlockKey);
+    }
+    public ClockSync getClockSync() { return clockSync; }
+    public GroupSession getGroupSession() { return groupSession; }
+    public SearchIndex getSearchIndex() { return searchIndex; }
 
     /**
      * 【关键修改】设置共享密钥时，自动加密并持久化到本地数据库
      */
     public void setSharedAesKey(String targetId, SecretKey key) {
+        lockedKeys.remove(targetId); // 新协商的密钥取代本地存档
         sharedAesKeys.put(targetId, key);
         System.out.println("✅ 安全通道建立: " + targetId);
+        groupSession.onPairwiseKey(targetId); // 【新增】通道建立后补发群密钥
 
         // 如果已初始化安全存储 (即用户已登录)，则保存密钥
         if (localMasterKey != null && currentUserId != null) {
@@ -76,44 +193,65 @@ public class Client {
     /**
      * 【新增】初始化安全存储 (在登录成功后调用)
      * 1. 根据用户密码生成主密钥
-     * 2. 从数据库加载之前的聊天密钥
+     * 2. 从数据库读出之前的聊天密钥 (【修改】只读出密文，用到时再解密)
      */
     public void initSecureStorage(String password) {
         try {
+            long start = System.nanoTime();
             // 1. 派生主密钥
             this.localMasterKey = EncryptionUtils.deriveKeyFromPassword(password);
             System.out.println("🔐 安全存储已初始化。");
+            persistIdentity(); // 【新增】第一次登录生成的身份密钥此时才落盘
+            publishRsaKeyWhenReady();
 
-            // 2. 加载本地密钥
+            // 2. 读出本地密钥的密文
             Map<String, String> encryptedKeys = DatabaseManager.getAllSessionKeys(currentUserId);
-            int loadedCount = 0;
-
             for (Map.Entry<String, String> entry : encryptedKeys.entrySet()) {
-                String targetId = entry.getKey();
-                String encryptedBlob = entry.getValue();
-
-                try {
-                    // 使用主密钥解密
-                    String keyBase64 = EncryptionUtils.aesDecrypt(encryptedBlob, localMasterKey);
-                    byte[] keyBytes = Base64.getDecoder().decode(keyBase64);
-                    SecretKey originalKey = new SecretKeySpec(keyBytes, "AES");
-
-                    // 放入内存
-                    sharedAesKeys.put(targetId, originalKey);
-                    loadedCount++;
-                } catch (Exception e) {
-                    System.err.println("⚠️ 警告: 无法解密与 " + targetId + " 的密钥 (可能修改了密码?)");
-                }
+                if (!sharedAesKeys.containsKey(entry.getKey())) lockedKeys.put(entry.getKey(), entry.getValue());
             }
-            if (loadedCount > 0) {
-                System.out.println("📂 已恢复 " + loadedCount + " 个历史会话密钥。");
+            if (!encryptedKeys.isEmpty()) {
+                System.out.printf("📂 已找到 %d 个历史会话密钥 (按需解密), 用时 %.1fms%n",
+                        encryptedKeys.size(), (System.nanoTime() - start) / 1e6);
             }
 
+            // 3. 【新增】打开搜索索引，并在后台补建已有历史记录的索引 (密钥在索引线程上按需解密)
+            searchIndex = SearchIndex.open(DatabaseManager.localSearchIndexPath(currentUserId), localMasterKey, currentUserId);
+            searchIndex.startBackfill(new ArrayList<>(encryptedKeys.keySet()), this::getSharedAesKey);
+
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 【新增】解密一个存档的会话密钥 (只在 getSharedAesKey 的 computeIfAbsent 中调用)
+     * @return 解密失败 (例如修改过密码) 时返回 null，之后需要重新握手
+     */
+    private SecretKey unlockKey(String targetId) {
+        String encryptedBlob = lockedKeys.remove(targetId);
+        if (encryptedBlob == null) return null;
+        try {
+            // 本地存档的会话密钥可能是升级前用 CBC 加密的
+            String keyBase64 = EncryptionUtils.aesDecrypt(encryptedBlob, localMasterKey, true);
+            MetricsRegistry.counter("keys.unlocked").increment();
+            return new SecretKeySpec(Base64.getDecoder().decode(keyBase64), "AES");
+        } catch (Exception e) {
+            System.err.println("⚠️ 警告: 无法解密与 " + targetId + " 的密钥 (可能修改了密码?)");
+            return null;
+        }
+    }
+
+    /**
+     * 【新增】在后台预先解密接下来可能用到的会话密钥 (例如在线的联系人)，不阻塞调用线程
+     */
+    public void warmKeys(Collection<String> targetIds) {
+        List<String> pending = new ArrayList<>();
+        for (String targetId : targetIds) {
+            if (lockedKeys.containsKey(targetId)) pending.add(targetId);
+        }
+        if (!pending.isEmpty()) keyWarmer.execute(() -> pending.forEach(this::getSharedAesKey));
+    }
+
     /**
      * 【新增】将密钥加密存入 DB
      */
@@ -141,6 +279,7 @@ public class Client {
         this.loginCallback = loginCallback;
         this.messageCallback = messageCallback;
         this.group = new NioEventLoopGroup();
+        scheduleMetricsReport();
         try {
             final SslContext sslCtx = SslContextBuilder.forClient()
                     .protocols("TLSv1.2")
@@ -179,6 +318,20 @@ public class Client {
         }
     }
 
+    /**
+     * 【新增】客户端也定期输出指标 (端到端与分段延迟 client.*)，间隔同服务端 (-Dchat.metrics.interval=<秒>，默认 60，0 表示关闭)
+     */
+    private void scheduleMetricsReport() {
+        long interval = Long.getLong("chat.metrics.interval", 60);
+        if (interval <= 0) return;
+        group.scheduleAtFixedRate(() -> printMetrics("最近 " + interval + " 秒"), interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static void printMetrics(String title) {
+        String report = MetricsRegistry.report();
+        if (!report.isEmpty()) System.out.println("[指标] " + title + ":\n" + report);
+    }
+
     public synchronized void doReconnect() {
         if (isIntentionalDisconnect) return;
         ChannelFuture f = bootstrap.connect(host, port);
@@ -203,13 +356,50 @@ public class Client {
     public void doConnect() { doReconnect(); }
 
     public void sendMessage(Message message) {
+        // 【新增】发送时刻换算为服务端时间，接收方可以跨机器计算端到端延迟 (心跳保留本地时间用于测 RTT)
+        if (message.getType() != Message.MessageType.HEARTBEAT) {
+            message.setTimestamp(clockSync.toServerTime(System.currentTimeMillis()));
+        }
         if (channel != null && channel.isActive()) channel.writeAndFlush(message);
     }
 
+    /**
+     * 【新增】发送群消息：用发送者密钥只加密一次 (必要时先向新成员分发群密钥)，服务端把同一份密文广播给所有人
+     */
+    public void sendGroupText(String text) throws GeneralSecurityException {
+        sendMessage(groupSession.encrypt(currentUserId, text));
+    }
+
+    /**
+     * 【新增】同 sendMessage，但返回写出结果，调用方可以据此限制在途帧数 (分块发图时的背压)；未连接时返回 null
+     */
+    public ChannelFuture sendMessageAwaitable(Message message) {
+        message.setTimestamp(clockSync.toServerTime(System.currentTimeMillis()));
+        Channel ch = channel;
+        if (ch == null || !ch.isActive()) return null;
+        return ch.writeAndFlush(message);
+    }
+
+    /**
+     * 【新增】批量发送 (批量转发)：在事件循环中依次 write，最后只 flush 一次，多帧合并进同一批系统调用
+     */
+    public void sendMessages(List<? extends Message> messages) {
+        long now = clockSync.toServerTime(System.currentTimeMillis());
+        for (Message message : messages) message.setTimestamp(now);
+        Channel ch = channel;
+        if (ch == null || !ch.isActive() || messages.isEmpty()) return;
+        ch.eventLoop().execute(() -> {
+            for (Message message : messages) ch.write(message);
+            ch.flush();
+        });
+    }
+
     public void disconnect() {
         isIntentionalDisconnect = true;
+        printMetrics("断开连接前"); // 【新增】退出时输出最后一个周期的指标
         if (channel != null) channel.close();
         if (group != null) group.shutdownGracefully();
+        if (searchIndex != null) searchIndex.close(); // 【新增】退出前写盘
     }
 
     public void setMessageCallback(Consumer<Message> callback) {
@@ -0,0 +1,49 @@
+package com.my.chatroom;
+
+/**
+ * 时钟偏差估计 (ClockSync)
+ * 作用：根据心跳往返 (HEARTBEAT -> HEARTBEAT_ACK) 估算"服务端时间 - 本地时间"。
+ * 与 NTP 思路一致：假设上下行对称，offset = serverTime - (发送时间 + RTT / 2)；
+ * 只采信最近若干次样本中 RTT 最小的一次，排队抖动越小估计越准。
+ */
+public class ClockSync {
+
+    private static final int WINDOW = 8;
+
+    private final long[] rtts = new long[WINDOW];
+    private final long[] offsets = new long[WINDOW];
+    private int samples = 0;
+    private volatile long offsetMillis = 0;
+    private volatile long bestRttMillis = -1;
+
+    /**
+     * 收到心跳应答
+     * @param receivedAt 本地收到应答的时间
+     */
+    public synchronized void onHeartbeatAck(HeartbeatAck ack, long receivedAt) {
+        long rtt = receivedAt - ack.getPingTimestamp();
+        if (rtt < 0) return;
+        int slot = samples++ % WINDOW;
+        rtts[slot] = rtt;
+        offsets[slot] = ack.getServerTime() - (ack.getPingTimestamp() + rtt / 2);
+
+        int best = 0;
+        int filled = Math.min(samples, WINDOW);
+        for (int i = 1; i < filled; i++) {
+            if (rtts[i] < rtts[best]) best = i;
+        }
+        bestRttMillis = rtts[best];
+        offsetMillis = offsets[best];
+    }
+
+    public boolean isSynchronized() { return bestRttMillis >= 0; }
+    public long getOffsetMillis() { return offsetMillis; }
+    public long getBestRttMillis() { return bestRttMillis; }
+
+    /**
+     * 本地时间换算为服务端时间
+     */
+    public long toServerTime(long localMillis) {
+        return localMillis + offsetMillis;
+    }
+}
@@ -0,0 +1,116 @@
+package com.my.chatroom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * 加密上下文 (CryptoContext)
+ * 作用：EncryptionUtils 每次调用都要 Cipher.getInstance / KeyFactory.getInstance (遍历 Provider 列表) 并新建 SecureRandom，
+ * 这里把这些对象按线程缓存，调用方每次只需 init。
+ *
+ * - Cipher、KeyFactory、KeyAgreement、Mac、MessageDigest 不是线程安全的：每个线程一份 (ThreadLocal)，不能跨线程传递
+ * - SecureRandom 是线程安全的：全进程共享一个，第一次使用时自播种
+ * - scratch(n)：解密输出的线程内缓冲区，超过 SCRATCH_LIMIT 时返回新数组，避免大图片长期占住内存
+ */
+final class CryptoContext {
+
+    private static final int SCRATCH_LIMIT = 64 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<CryptoContext> CURRENT = ThreadLocal.withInitial(CryptoContext::new);
+
+    private final Cipher aes;
+    private final Cipher gcm;
+    private final Cipher rsa;
+    private final KeyFactory rsaKeyFactory;
+    private final KeyPairGenerator x25519Generator;
+    private final KeyFactory x25519KeyFactory;
+    private final KeyAgreement x25519;
+    private final Mac hmacSha256;
+    private final MessageDigest sha256;
+    private final byte[] nonce;
+    private byte[] scratch = new byte[1024];
+
+    private CryptoContext() {
+        try {
+            this.aes = Cipher.getInstance(EncryptionUtils.AES_TRANSFORMATION);
+            this.gcm = Cipher.getInstance(EncryptionUtils.GCM_TRANSFORMATION);
+            this.rsa = Cipher.getInstance(EncryptionUtils.RSA_TRANSFORMATION);
+            this.rsaKeyFactory = KeyFactory.getInstance(EncryptionUtils.RSA_ALGORITHM);
+            this.x25519Generator = KeyPairGenerator.getInstance(EncryptionUtils.AGREEMENT_ALGORITHM);
+            this.x25519KeyFactory = KeyFactory.getInstance(EncryptionUtils.AGREEMENT_ALGORITHM);
+            this.x25519 = KeyAgreement.getInstance(EncryptionUtils.AGREEMENT_ALGORITHM);
+            this.hmacSha256 = Mac.getInstance("HmacSHA256");
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("JCE 不支持所需的算法", e);
+        }
+        this.nonce = new byte[EncryptionUtils.GCM_NONCE_SIZE];
+    }
+
+    static CryptoContext get() {
+        return CURRENT.get();
+    }
+
+    static SecureRandom random() {
+        return RANDOM;
+    }
+
+    Cipher aes() {
+        return aes;
+    }
+
+    Cipher gcm() {
+        return gcm;
+    }
+
+    Cipher rsa() {
+        return rsa;
+    }
+
+    KeyFactory rsaKeyFactory() {
+        return rsaKeyFactory;
+    }
+
+    KeyPairGenerator x25519Generator() {
+        return x25519Generator;
+    }
+
+    KeyFactory x25519KeyFactory() {
+        return x25519KeyFactory;
+    }
+
+    KeyAgreement x25519() {
+        return x25519;
+    }
+
+    Mac hmacSha256() {
+        return hmacSha256;
+    }
+
+    MessageDigest sha256() {
+        sha256.reset();
+        return sha256;
+    }
+
+    /**
+     * 新的随机 GCM nonce (96 位)，放在线程内的数组里 (下一次调用会覆盖)
+     */
+    byte[] nextNonce() {
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    byte[] scratch(int size) {
+        if (size > SCRATCH_LIMIT) return new byte[size];
+        if (scratch.length < size) scratch = new byte[Math.max(size, Math.min(SCRATCH_LIMIT, scratch.length * 2))];
+        return scratch;
+    }
+}
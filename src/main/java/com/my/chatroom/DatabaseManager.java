@@ -1,194 +1,337 @@
 package com.my.chatroom;
 
-import java.sql.*;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据库管理器 - 支持消息 ID 返回与删除
+ * 【修改】只负责选择存储引擎 (-Dchat.store.engine) 和用户缓存，具体存储由 MessageStore / UserStore 的实现完成：
+ * sqlite (默认，SqliteStore)、memory (MemoryStore)、log (LogStructuredStore)。
+ *
+ * 【修改】服务端与客户端的存储分开：
+ * - 服务端存储：用户账号与公钥 (registerUser / getUser / updatePublicKey)，-Dchat.db.url，默认 chatroom.db，只有服务端进程会打开
+ * - 客户端存储：每个本地用户一个文件 (-Dchat.client.dir 下的 chatroom-<用户>.db)，保存聊天记录与会话密钥，按方法的第一个参数 (当前用户) 路由
+ * 同一台机器上的服务端和多个客户端不再争用同一个 SQLite 写锁。
  */
 public class DatabaseManager {
 
-    private static final String URL = "jdbc:sqlite:chatroom.db";
+    // 服务端数据库，可通过 -Dchat.db.url 指向其他数据库 (压测、回归工具使用临时库)
+    private static final String URL = System.getProperty("chat.db.url", "jdbc:sqlite:chatroom.db");
+    // 【新增】客户端数据库所在目录，每个本地用户一个文件
+    private static final String CLIENT_DIR = System.getProperty("chat.client.dir", ".");
+    private static final int READER_COUNT = Integer.getInteger("chat.db.readers", 4);
+    // 【新增】存储引擎选择；log 引擎的段文件目录和段大小
+    private static final String ENGINE = System.getProperty("chat.store.engine", "sqlite");
+    private static final String LOG_DIR = System.getProperty("chat.store.dir", "chatroom-log");
+    private static final int SEGMENT_MB = Integer.getInteger("chat.store.segmentMB", 64);
+    // 【新增】保留策略与后台维护 (见 RetentionPolicy / HistoryMaintenance)
+    private static final long MAINTENANCE_INTERVAL = Long.getLong("chat.maintenance.intervalSeconds", 300);
+    private static final long MAINTENANCE_IDLE = Long.getLong("chat.maintenance.idleSeconds", 30);
+
+    // 【新增】本地用户 -> 该用户的客户端存储，第一次用到时打开
+    private static final Map<String, LocalStorage> LOCAL_STORES = new ConcurrentHashMap<>();
+    // 【新增】用户 / 公钥缓存 (-Dchat.userCache.size，默认 10000)
+    private static final UserCache USER_CACHE = new UserCache(Integer.getInteger("chat.userCache.size", 10000));
+    // 用户写入串行化，保证存储与缓存的更新顺序一致
+    private static final Object USER_WRITE_LOCK = new Object();
+    // 已打开的服务端存储 (未打开时为 null)；关闭钩子只看这里，不去加载 ServerStorage，客户端退出时不会创建服务端数据库
+    private static volatile MessageStore openedServerStore;
 
     static {
         try {
             Class.forName("org.sqlite.JDBC");
-            initializeDatabase();
+            MetricsRegistry.gauge("userCache.size", USER_CACHE::size);
+            MetricsRegistry.gauge("userCache.hits", USER_CACHE::hitCount);
+            MetricsRegistry.gauge("userCache.misses", USER_CACHE::missCount);
+            MetricsRegistry.gauge("userCache.hitRate%", USER_CACHE::hitRatePercent);
+            // 先写完缓冲中的聊天记录，再释放存储
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                LOCAL_STORES.values().forEach(LocalStorage::close);
+                MessageStore server = openedServerStore;
+                if (server != null) server.close();
+            }));
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
 
-    private static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL);
-    }
-
-    private static void initializeDatabase() {
-        // 表结构保持不变
-        String createUsersTableSQL = "CREATE TABLE IF NOT EXISTS users ("
-                + "user_id TEXT PRIMARY KEY NOT NULL,"
-                + "password_hash TEXT NOT NULL,"
-                + "public_key TEXT"
-                + ");";
-
-        String createHistoryTableSQL = "CREATE TABLE IF NOT EXISTS chat_history ("
-                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + "user_id TEXT NOT NULL,"
-                + "target_id TEXT NOT NULL,"
-                + "is_sender INTEGER NOT NULL,"
-                + "encrypted_content TEXT NOT NULL,"
-                + "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP"
-                + ");";
-
-        String createKeysTableSQL = "CREATE TABLE IF NOT EXISTS session_keys ("
-                + "owner_id TEXT NOT NULL,"
-                + "target_id TEXT NOT NULL,"
-                + "key_blob TEXT NOT NULL,"
-                + "PRIMARY KEY (owner_id, target_id)"
-                + ");";
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createUsersTableSQL);
-            stmt.execute(createHistoryTableSQL);
-            stmt.execute(createKeysTableSQL);
+    /**
+     * 服务端存储，第一次访问用户数据时才打开 (客户端进程不会打开)
+     */
+    private static final class ServerStorage {
+        static final MessageStore STORE = open();
+        static final UserStore USERS = (UserStore) STORE;
+
+        private static MessageStore open() {
+            try {
+                MessageStore store = openStore(URL, Paths.get(LOG_DIR, "server"));
+                openedServerStore = store;
+                return store;
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("无法打开服务端数据库: " + URL, e);
+            }
+        }
+    }
+
+    /**
+     * 一个本地用户的客户端存储及其后台维护
+     */
+    private static final class LocalStorage {
+        final MessageStore messages;
+        final UserStore keys;
+        final HistoryMaintenance maintenance;
+
+        LocalStorage(MessageStore store) {
+            this.messages = store;
+            this.keys = (UserStore) store;
+            this.maintenance = new HistoryMaintenance(store, RetentionPolicy.fromSystemProperties(), MAINTENANCE_IDLE);
+            maintenance.start(MAINTENANCE_INTERVAL);
+        }
+
+        void close() {
+            maintenance.close();
+            messages.close();
+        }
+    }
+
+    private static MessageStore openStore(String url, Path logDir) throws SQLException, IOException {
+        switch (ENGINE) {
+            case "memory":
+                return new MemoryStore();
+            case "log":
+                return new LogStructuredStore(logDir, SEGMENT_MB * 1024 * 1024);
+            case "sqlite":
+                return new SqliteStore(url, READER_COUNT);
+            default:
+                throw new IllegalArgumentException("未知的存储引擎: " + ENGINE + " (可选 sqlite / memory / log)");
+        }
+    }
+
+    /**
+     * 【新增】服务端启动时调用：立即打开服务端存储，出错时在启动阶段就失败
+     */
+    public static void initServerStorage() {
+        ServerStorage.USERS.getClass();
+    }
+
+    private static LocalStorage local(String userId) {
+        LocalStorage storage = LOCAL_STORES.get(userId);
+        if (storage != null) return storage;
+        return LOCAL_STORES.computeIfAbsent(userId, DatabaseManager::openLocal);
+    }
+
+    private static LocalStorage openLocal(String userId) {
+        Path file = localDatabasePath(userId);
+        boolean created = !Files.exists(file);
+        try {
+            MessageStore store = openStore("jdbc:sqlite:" + file, Paths.get(LOG_DIR, localFileStem(userId)));
+            if (created && store instanceof SqliteStore) importFromSharedDatabase((SqliteStore) store, userId);
+            return new LocalStorage(store);
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("无法打开 " + userId + " 的本地数据库: " + file, e);
+        }
+    }
+
+    /**
+     * 拆分前聊天记录和会话密钥与用户表放在同一个 chatroom.db 中：第一次创建本地文件时，把属于这个用户的部分复制过来 (id 保持不变)
+     */
+    private static void importFromSharedDatabase(SqliteStore store, String userId) {
+        if (!URL.startsWith("jdbc:sqlite:")) return;
+        Path shared = Paths.get(URL.substring("jdbc:sqlite:".length()));
+        if (!Files.isRegularFile(shared)) return;
+        try {
+            long start = System.currentTimeMillis();
+            int imported = store.importLocalUser(shared, userId);
+            if (imported > 0) {
+                System.out.println("📦 已从共享数据库导入 " + userId + " 的 " + imported + " 条记录, 用时 "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[本地存储] 从共享数据库导入 {} 失败 {}", userId, e);
         }
     }
 
-    // --- 用户相关方法 (保持不变) ---
+    /**
+     * 【新增】本地用户的数据库文件：用户名中的安全字符 + 用户名哈希 (避免不区分大小写的文件系统上重名)
+     */
+    public static Path localDatabasePath(String userId) {
+        return Paths.get(CLIENT_DIR, "chatroom-" + localFileStem(userId) + ".db");
+    }
+
+    /**
+     * 【新增】该用户的本地身份密钥库 (见 IdentityKeyStore)
+     */
+    public static Path localIdentityPath(String userId) {
+        return Paths.get(CLIENT_DIR, "identity-" + localFileStem(userId) + ".key");
+    }
+
+    /**
+     * 【新增】该用户的本地媒体目录 (图片密文文件，见 MediaStore)，与本地数据库放在一起
+     */
+    public static Path localMediaDir(String userId) {
+        return Paths.get(CLIENT_DIR, "media-" + localFileStem(userId));
+    }
+
+    /**
+     * 【新增】该用户的加密搜索索引文件 (见 SearchIndex)
+     */
+    public static Path localSearchIndexPath(String userId) {
+        return Paths.get(CLIENT_DIR, "search-" + localFileStem(userId) + ".idx");
+    }
+
+    private static String localFileStem(String userId) {
+        String safe = userId.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_-]", "_");
+        if (safe.length() > 32) safe = safe.substring(0, 32);
+        return safe + "-" + hashPassword(userId).substring(0, 8);
+    }
+
+    /**
+     * 该用户的旧表是否仍在迁移中 (只有 sqlite 引擎会迁移)
+     */
+    public static boolean isLegacyHistoryPending(String userId) {
+        MessageStore messages = local(userId).messages;
+        return messages instanceof SqliteStore && ((SqliteStore) messages).isLegacyHistoryPending();
+    }
+
+    /**
+     * 【新增】立即执行一轮清理和空间回收，不等待空闲 (命令行工具使用)
+     */
+    public static HistoryMaintenance.Summary runMaintenance(String userId) {
+        return local(userId).maintenance.runOnce(true);
+    }
+
+    // --- 用户相关方法 ---
     public static boolean registerUser(String userId, String password) {
         if (getUser(userId) != null) return false;
-        String hash = hashPassword(password);
-        String sql = "INSERT INTO users (user_id, password_hash) VALUES (?, ?)";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, userId);
-            pstmt.setString(2, hash);
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) { return false; }
+        User user = new User(userId, hashPassword(password));
+        synchronized (USER_WRITE_LOCK) {
+            if (ServerStorage.USERS.insertUser(user)) {
+                USER_CACHE.put(user);
+                return true;
+            }
+            USER_CACHE.invalidate(userId);
+            return false;
+        }
     }
 
     public static User getUser(String userId) {
-        String sql = "SELECT user_id, password_hash, public_key FROM users WHERE user_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                User user = new User(rs.getString("user_id"), rs.getString("password_hash"));
-                user.setPublicKey(rs.getString("public_key"));
-                return user;
-            }
-        } catch (SQLException e) {}
-        return null;
+        return USER_CACHE.get(userId, ServerStorage.USERS::loadUser);
     }
 
     public static boolean updatePublicKey(String userId, String publicKey) {
-        String sql = "UPDATE users SET public_key = ? WHERE user_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, publicKey);
-            pstmt.setString(2, userId);
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) { return false; }
+        synchronized (USER_WRITE_LOCK) {
+            if (ServerStorage.USERS.updatePublicKey(userId, publicKey)) {
+                USER_CACHE.updatePublicKey(userId, publicKey);
+                return true;
+            }
+            USER_CACHE.invalidate(userId);
+            return false;
+        }
     }
 
     // --- 消息相关方法 (核心修改) ---
 
     /**
-     * 保存消息并返回生成的 ID
+     * 保存消息并返回生成的 ID (同步等待提交)
      * @return 消息的数据库 ID，失败返回 -1
      */
     public static long saveEncryptedMessage(String currentUserId, String targetId, boolean isSender, String encryptedContent) {
-        String sql = "INSERT INTO chat_history (user_id, target_id, is_sender, encrypted_content) VALUES (?, ?, ?, ?)";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) { // 关键：请求返回主键
-            pstmt.setString(1, currentUserId);
-            pstmt.setString(2, targetId);
-            pstmt.setInt(3, isSender ? 1 : 0);
-            pstmt.setString(4, encryptedContent);
-            int affectedRows = pstmt.executeUpdate();
-
-            if (affectedRows > 0) {
-                try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        return generatedKeys.getLong(1); // 返回 ID
-                    }
-                }
-            }
-        } catch (SQLException e) { e.printStackTrace(); }
-        return -1;
-    }
-
-    /**
-     * 获取历史记录
-     * @return List<String[]> -> [isSender, encrypted_content, timestamp, id]
-     */
-    public static java.util.List<String[]> getEncryptedHistory(String currentUserId, String targetId) {
-        java.util.List<String[]> history = new java.util.ArrayList<>();
-        // 【修改】增加了 id 字段
-        String sql = "SELECT id, is_sender, encrypted_content, timestamp FROM chat_history WHERE user_id = ? AND target_id = ? ORDER BY timestamp ASC";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, currentUserId);
-            pstmt.setString(2, targetId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                history.add(new String[]{
-                        rs.getString("is_sender"),
-                        rs.getString("encrypted_content"),
-                        rs.getString("timestamp"),
-                        String.valueOf(rs.getLong("id")) // 第4个元素是 ID
-                });
-            }
-        } catch (SQLException e) {}
-        return history;
+        try {
+            return saveEncryptedMessageAsync(currentUserId, targetId, isSender, encryptedContent).join();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * 【新增】异步保存消息：进入写入队列后立即返回，与其它消息合并到同一事务提交
+     * @return 提交后得到数据库 ID 的 Future
+     */
+    public static CompletableFuture<Long> saveEncryptedMessageAsync(String currentUserId, String targetId, boolean isSender, String encryptedContent) {
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.saveMessageAsync(currentUserId, targetId, isSender, encryptedContent);
+    }
+
+    /**
+     * 【新增】保存二进制密文 (EncryptionUtils.seal 的信封)，sqlite 引擎直接按字节入库
+     */
+    public static CompletableFuture<Long> saveSealedMessageAsync(String currentUserId, String targetId, boolean isSender, byte[] sealedContent) {
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.saveMessageAsync(currentUserId, targetId, isSender, sealedContent);
+    }
+
+    /**
+     * 【新增】批量保存 (批量转发)：sqlite 引擎在一个事务中写入，必须在后台线程调用
+     * @return 与 batch 顺序一致的数据库 ID
+     */
+    public static CompletableFuture<List<Long>> saveEncryptedMessagesAsync(String currentUserId, boolean isSender, List<MessageStore.NewMessage> batch) {
+        if (batch.isEmpty()) return CompletableFuture.completedFuture(List.of());
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.saveMessagesAsync(currentUserId, isSender, batch);
+    }
+
+    /**
+     * 【新增】等待已提交的聊天记录全部写入
+     */
+    public static void flushHistory(String currentUserId) {
+        local(currentUserId).messages.flush();
+    }
+
+    /**
+     * 【新增】分页读取历史记录 (键集分页)
+     * 返回 id 小于 beforeId 的最新 limit 条，按时间正序排列；翻到更早一页时把本页第一条的 id 作为新的 beforeId。
+     * @param beforeId 游标，传 Long.MAX_VALUE 表示从最新一条开始
+     */
+    public static List<HistoryRecord> getHistoryPage(String currentUserId, String targetId, long beforeId, int limit) {
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.getHistoryPage(currentUserId, targetId, beforeId, limit);
     }
 
     /**
      * 【新增】彻底删除消息
      */
-    public static boolean deleteMessage(long messageId) {
-        String sql = "DELETE FROM chat_history WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, messageId);
-            return pstmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+    public static boolean deleteMessage(String currentUserId, long messageId) {
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.deleteMessage(messageId);
+    }
+
+    /**
+     * 【新增】批量彻底删除 (多选删除)
+     * @return 实际删除的条数
+     */
+    public static int deleteMessages(String currentUserId, Collection<Long> messageIds) {
+        LocalStorage local = local(currentUserId);
+        local.maintenance.touch();
+        return local.messages.deleteMessages(messageIds);
     }
 
-    // --- 密钥管理 (保持不变) ---
+    // --- 密钥管理 ---
     public static boolean saveSessionKey(String ownerId, String targetId, String encryptedKeyBlob) {
-        String sql = "INSERT OR REPLACE INTO session_keys (owner_id, target_id, key_blob) VALUES (?, ?, ?)";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, ownerId);
-            pstmt.setString(2, targetId);
-            pstmt.setString(3, encryptedKeyBlob);
-            pstmt.executeUpdate();
-            return true;
-        } catch (SQLException e) { return false; }
+        return local(ownerId).keys.saveSessionKey(ownerId, targetId, encryptedKeyBlob);
     }
 
     public static Map<String, String> getAllSessionKeys(String ownerId) {
-        Map<String, String> keys = new HashMap<>();
-        String sql = "SELECT target_id, key_blob FROM session_keys WHERE owner_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, ownerId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                keys.put(rs.getString("target_id"), rs.getString("key_blob"));
-            }
-        } catch (SQLException e) {}
-        return keys;
+        return local(ownerId).keys.getAllSessionKeys(ownerId);
     }
 
     public static String hashPassword(String plainPassword) {
         try {
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(plainPassword.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            byte[] encodedhash = CryptoContext.get().sha256().digest(plainPassword.getBytes(java.nio.charset.StandardCharsets.UTF_8));
             StringBuilder hexString = new StringBuilder(2 * encodedhash.length);
             for (byte b : encodedhash) {
                 String hex = Integer.toHexString(0xff & b);
@@ -198,4 +341,4 @@ public class DatabaseManager {
             return hexString.toString();
         } catch (Exception e) { throw new RuntimeException(e); }
     }
-}
\ No newline at end of file
+}
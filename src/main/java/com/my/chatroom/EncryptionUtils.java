@@ -5,28 +5,40 @@ import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.util.Arrays;
-import java.io.ByteArrayOutputStream;
+import java.util.function.IntFunction;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
  * 加密工具类 - 安全升级版
+ * 【修改】Cipher / KeyFactory / MessageDigest 按线程缓存，IV 来自共享的 SecureRandom (见 CryptoContext)，
+ * 密文直接写入 IV 之后的位置，解密直接从 IV 之后读取，不再经 ByteArrayOutputStream / Arrays.copyOfRange 复制
+ * 【修改】对称加密改为带认证的 AES-GCM 信封 (seal / open，byte[] 与 ByteBuffer 两种形式)；
+ * 旧的 CBC 密文只在调用方明确声明是升级前保存的数据时 (allowLegacy) 才解密，网络上收到的内容一律按 GCM 校验
+ * 【新增】X25519 密钥协商 (generateAgreementKeyPair / agreeSessionKey)，会话密钥由双方各自算出，RSA 只在对方不支持时使用
  */
 public class EncryptionUtils {
 
     // ... (原有的常量和静态块保持不变) ...
-    private static final String RSA_ALGORITHM = "RSA";
-    private static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    static final String RSA_ALGORITHM = "RSA";
+    static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
     private static final int RSA_KEY_SIZE = 2048;
     private static final String AES_ALGORITHM = "AES";
-    private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
     private static final int AES_KEY_SIZE = 128;
-    private static final int IV_SIZE = 16;
+    static final int IV_SIZE = 16;
+    static final String AGREEMENT_ALGORITHM = "X25519";
+    public static final int AGREEMENT_SALT_SIZE = 16;
+    private static final byte[] SESSION_KEY_INFO = "chatroom session key v1".getBytes(StandardCharsets.UTF_8);
 
     static {
         if (Security.getProvider("BC") == null) {
@@ -34,7 +46,7 @@ public class EncryptionUtils {
         }
     }
 
-    // ... (原有的 generateRsaKeyPair, generateAesKey, rsaEncrypt, rsaDecrypt 保持不变) ...
+    // 【修改】AES 密钥直接取自共享的 SecureRandom，RSA 复用线程内的 Cipher
     public static KeyPair generateRsaKeyPair() throws NoSuchAlgorithmException {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance(RSA_ALGORITHM);
         keyGen.initialize(RSA_KEY_SIZE);
@@ -42,46 +54,209 @@ public class EncryptionUtils {
     }
 
     public static SecretKey generateAesKey() throws NoSuchAlgorithmException {
-        KeyGenerator keyGen = KeyGenerator.getInstance(AES_ALGORITHM);
-        keyGen.init(AES_KEY_SIZE);
-        return keyGen.generateKey();
+        byte[] keyBytes = new byte[AES_KEY_SIZE / 8];
+        CryptoContext.random().nextBytes(keyBytes);
+        return new SecretKeySpec(keyBytes, AES_ALGORITHM);
     }
 
     public static String rsaEncrypt(byte[] data, PublicKey publicKey) throws Exception {
-        Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+        Cipher cipher = CryptoContext.get().rsa();
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey, CryptoContext.random());
         return Base64.getEncoder().encodeToString(cipher.doFinal(data));
     }
 
     public static byte[] rsaDecrypt(String base64EncryptedData, PrivateKey privateKey) throws Exception {
-        Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
+        Cipher cipher = CryptoContext.get().rsa();
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
         return cipher.doFinal(Base64.getDecoder().decode(base64EncryptedData));
     }
 
-    // ... (原有的 aesEncrypt, aesDecrypt 保持不变) ...
+    // 【修改】aesEncrypt / aesDecrypt 复用线程内的 Cipher；新密文一律为 GCM 信封 (见 seal)，Base64 包装不变
     public static String aesEncrypt(String plainText, SecretKey key) throws Exception {
-        SecureRandom random = new SecureRandom();
-        byte[] iv = new byte[IV_SIZE];
-        random.nextBytes(iv);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-        Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, key, ivSpec);
-        byte[] encryptedData = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        outputStream.write(iv);
-        outputStream.write(encryptedData);
-        return Base64.getEncoder().encodeToString(outputStream.toByteArray());
+        return Base64.getEncoder().encodeToString(seal(plainText.getBytes(StandardCharsets.UTF_8), key));
     }
 
     public static String aesDecrypt(String base64EncryptedData, SecretKey key) throws Exception {
-        byte[] encryptedWithIv = Base64.getDecoder().decode(base64EncryptedData);
-        byte[] iv = Arrays.copyOfRange(encryptedWithIv, 0, IV_SIZE);
-        byte[] encryptedData = Arrays.copyOfRange(encryptedWithIv, IV_SIZE, encryptedWithIv.length);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-        Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
-        cipher.init(Cipher.DECRYPT_MODE, key, ivSpec);
-        return new String(cipher.doFinal(encryptedData), StandardCharsets.UTF_8);
+        return aesDecrypt(base64EncryptedData, key, false);
+    }
+
+    /**
+     * 【新增】allowLegacy 为 true 时兼容旧的 CBC 密文，只用于升级前保存在本地的数据 (旧的聊天记录、会话密钥存档等)
+     */
+    public static String aesDecrypt(String base64EncryptedData, SecretKey key, boolean allowLegacy) throws Exception {
+        return openToString(Base64.getDecoder().decode(base64EncryptedData), key, allowLegacy);
+    }
+
+    /**
+     * 【新增】二进制数据的 AES 加密，输出 IV + 密文的原始字节 (本地索引文件等不需要 Base64 的场合)
+     * 【修改】与 seal 相同
+     */
+    public static byte[] aesEncryptBytes(byte[] data, SecretKey key) throws Exception {
+        return seal(data, key);
+    }
+
+    public static byte[] aesDecryptBytes(byte[] encryptedWithIv, SecretKey key) throws Exception {
+        return open(encryptedWithIv, key);
+    }
+
+    // --- 【新增】AES-GCM 信封 ---
+    //
+    // 格式：[版本 0x02][12 字节 nonce][密文][16 字节认证标签]，篡改或用错密钥时 open 抛出 AEADBadTagException。
+    // 旧格式 (16 字节 IV + CBC 密文) 没有认证，只在 allowLegacy 时解密：按长度和版本字节区分，
+    // 旧 IV 恰好以 0x02 开头 (1/256) 时 GCM 校验失败，再按 CBC 解密一次。
+    // 不允许旧格式时，GCM 校验失败就是失败，不会退回到 CBC (否则篡改过的信封或对端直接发来的 CBC 密文都会绕过认证)。
+
+    static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int GCM_NONCE_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final byte ENVELOPE_GCM = 0x02;
+    private static final int GCM_HEADER = 1 + GCM_NONCE_SIZE;
+    private static final int GCM_OVERHEAD = GCM_HEADER + GCM_TAG_BITS / 8;
+
+    public static byte[] seal(byte[] plain, SecretKey key) throws GeneralSecurityException {
+        return seal(ByteBuffer.wrap(plain), key).array();
+    }
+
+    /**
+     * 加密 plain 中剩余的字节 (读完后 position 到 limit)
+     * @return 堆内缓冲区，position 为 0，limit 为信封长度，array() 恰好是整个信封
+     */
+    public static ByteBuffer seal(ByteBuffer plain, SecretKey key) throws GeneralSecurityException {
+        CryptoContext context = CryptoContext.get();
+        byte[] nonce = context.nextNonce();
+        Cipher cipher = context.gcm();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+        ByteBuffer out = ByteBuffer.allocate(GCM_HEADER + cipher.getOutputSize(plain.remaining()));
+        out.put(ENVELOPE_GCM).put(nonce);
+        cipher.doFinal(plain, out);
+        out.flip();
+        return out;
+    }
+
+    public static byte[] open(byte[] envelope, SecretKey key) throws GeneralSecurityException {
+        return open(envelope, key, false);
+    }
+
+    /**
+     * 【新增】allowLegacy 含义同 aesDecrypt
+     */
+    public static byte[] open(byte[] envelope, SecretKey key, boolean allowLegacy) throws GeneralSecurityException {
+        byte[][] holder = new byte[1][];
+        int plainLength = open(CryptoContext.get(), envelope, 0, envelope.length, key, allowLegacy, size -> holder[0] = new byte[size]);
+        return plainLength == holder[0].length ? holder[0] : Arrays.copyOf(holder[0], plainLength);
+    }
+
+    public static byte[] open(byte[] envelope, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        byte[][] holder = new byte[1][];
+        int plainLength = open(CryptoContext.get(), envelope, offset, length, key, false, size -> holder[0] = new byte[size]);
+        return plainLength == holder[0].length ? holder[0] : Arrays.copyOf(holder[0], plainLength);
+    }
+
+    /**
+     * 解密 envelope 中剩余的字节 (读完后 position 到 limit)
+     */
+    public static ByteBuffer open(ByteBuffer envelope, SecretKey key) throws GeneralSecurityException {
+        byte[] plain;
+        if (envelope.hasArray()) {
+            plain = open(envelope.array(), envelope.arrayOffset() + envelope.position(), envelope.remaining(), key);
+        } else {
+            byte[] copy = new byte[envelope.remaining()];
+            envelope.duplicate().get(copy);
+            plain = open(copy, key);
+        }
+        envelope.position(envelope.limit());
+        return ByteBuffer.wrap(plain);
+    }
+
+    /**
+     * 解密并按 UTF-8 解码，明文只经过线程内缓冲区
+     */
+    public static String openToString(byte[] envelope, SecretKey key) throws GeneralSecurityException {
+        return openToString(envelope, key, false);
+    }
+
+    /**
+     * 【新增】allowLegacy 含义同 aesDecrypt (聊天记录按 HistoryRecord.isLegacy() 传入)
+     */
+    public static String openToString(byte[] envelope, SecretKey key, boolean allowLegacy) throws GeneralSecurityException {
+        CryptoContext context = CryptoContext.get();
+        byte[][] holder = new byte[1][];
+        int plainLength = open(context, envelope, 0, envelope.length, key, allowLegacy, size -> holder[0] = context.scratch(size));
+        return new String(holder[0], 0, plainLength, StandardCharsets.UTF_8);
+    }
+
+    private static int open(CryptoContext context, byte[] envelope, int offset, int length, SecretKey key,
+                            boolean allowLegacy, IntFunction<byte[]> output) throws GeneralSecurityException {
+        if (length >= GCM_OVERHEAD && envelope[offset] == ENVELOPE_GCM) {
+            try {
+                Cipher cipher = context.gcm();
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, envelope, offset + 1, GCM_NONCE_SIZE));
+                byte[] out = output.apply(cipher.getOutputSize(length - GCM_HEADER));
+                return cipher.doFinal(envelope, offset + GCM_HEADER, length - GCM_HEADER, out, 0);
+            } catch (AEADBadTagException e) {
+                if (!allowLegacy || !isLegacyLength(length)) throw e;
+            }
+        }
+        if (!allowLegacy) throw new GeneralSecurityException("不是 AES-GCM 信封");
+        if (!isLegacyLength(length)) throw new GeneralSecurityException("密文长度不正确: " + length);
+        Cipher cipher = context.aes();
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(envelope, offset, IV_SIZE));
+        byte[] out = output.apply(cipher.getOutputSize(length - IV_SIZE));
+        return cipher.doFinal(envelope, offset + IV_SIZE, length - IV_SIZE, out, 0);
+    }
+
+    // --- 【新增】X25519 密钥协商 ---
+
+    /**
+     * X25519 密钥对：生成只需几十微秒 (RSA-2048 为数百毫秒)，每个客户端启动时生成一次
+     */
+    public static KeyPair generateAgreementKeyPair() {
+        return CryptoContext.get().x25519Generator().generateKeyPair();
+    }
+
+    /**
+     * 解析对方的 X25519 公钥 (X.509 编码的 Base64)，格式不对时返回 null
+     */
+    public static PublicKey getAgreementPublicKey(String base64PublicKey) {
+        try {
+            byte[] keyBytes = Base64.getDecoder().decode(base64PublicKey);
+            return CryptoContext.get().x25519KeyFactory().generatePublic(new X509EncodedKeySpec(keyBytes));
+        } catch (Exception e) { return null; }
+    }
+
+    /**
+     * 由己方私钥和对方公钥协商出会话密钥：X25519 共享秘密经 HKDF-SHA256 (盐为发起方的随机数，信息中带上双方 ID) 导出 128 位 AES 密钥。
+     * 双方用相同的 salt、initiatorId、responderId 调用得到同一把密钥；每次密钥交换换一个 salt，密钥也随之更换。
+     */
+    public static SecretKey agreeSessionKey(PrivateKey ownKey, PublicKey peerKey, byte[] salt,
+                                            String initiatorId, String responderId) throws GeneralSecurityException {
+        CryptoContext ctx = CryptoContext.get();
+        KeyAgreement agreement = ctx.x25519();
+        agreement.init(ownKey);
+        agreement.doPhase(peerKey, true);
+        byte[] shared = agreement.generateSecret();
+
+        Mac hmac = ctx.hmacSha256();
+        // HKDF-Extract
+        hmac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = hmac.doFinal(shared);
+        Arrays.fill(shared, (byte) 0);
+        // HKDF-Expand，只需要第一块
+        hmac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        hmac.update(SESSION_KEY_INFO);
+        hmac.update(initiatorId.getBytes(StandardCharsets.UTF_8));
+        hmac.update((byte) 0);
+        hmac.update(responderId.getBytes(StandardCharsets.UTF_8));
+        hmac.update((byte) 1);
+        byte[] okm = hmac.doFinal();
+        Arrays.fill(prk, (byte) 0);
+        SecretKey key = new SecretKeySpec(okm, 0, AES_KEY_SIZE / 8, AES_ALGORITHM);
+        Arrays.fill(okm, (byte) 0);
+        return key;
+    }
+
+    private static boolean isLegacyLength(int length) {
+        return length >= 2 * IV_SIZE && length % IV_SIZE == 0;
     }
 
     // --- 【新增】安全辅助方法 ---
@@ -92,8 +267,7 @@ public class EncryptionUtils {
      * (在更严格的场景下应使用 PBKDF2，但此处 SHA-256 已足够演示原理)
      */
     public static SecretKey deriveKeyFromPassword(String password) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = CryptoContext.get().sha256().digest(password.getBytes(StandardCharsets.UTF_8));
         // 截取前 16 字节 (128位) 作为 AES 密钥
         byte[] keyBytes = Arrays.copyOf(hash, 16);
         return new SecretKeySpec(keyBytes, AES_ALGORITHM);
@@ -103,8 +277,7 @@ public class EncryptionUtils {
         try {
             byte[] keyBytes = Base64.getDecoder().decode(base64PublicKey);
             X509EncodedKeySpec keySpec = new X509EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(RSA_ALGORITHM);
-            return keyFactory.generatePublic(keySpec);
+            return CryptoContext.get().rsaKeyFactory().generatePublic(keySpec);
         } catch (Exception e) { return null; }
     }
 
@@ -112,8 +285,7 @@ public class EncryptionUtils {
         try {
             byte[] keyBytes = Base64.getDecoder().decode(base64PrivateKey);
             PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(RSA_ALGORITHM);
-            return keyFactory.generatePrivate(keySpec);
+            return CryptoContext.get().rsaKeyFactory().generatePrivate(keySpec);
         } catch (Exception e) { return null; }
     }
 }
\ No newline at end of file
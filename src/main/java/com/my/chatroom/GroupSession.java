@@ -0,0 +1,229 @@
+package com.my.chatroom;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 群聊发送者密钥 (GroupSession)
+ * 作用：群消息不再明文广播，也不逐个成员用私聊密钥加密 (N 次)，而是采用发送者密钥方案：
+ * - 每个成员有一条自己的链密钥 (32 字节)，经已有的私聊通道 (SenderKeyMessage) 分发给其他成员，每人只发一次
+ * - 每条群消息用当前链密钥派生的消息密钥加密一次 (AES-GCM)，链密钥随后向前推进 (HMAC-SHA256)，服务端把同一份密文广播给所有人
+ * - 接收方按消息中的序号把发送者的链推进到对应位置再解密；旧的消息密钥推不回来
+ * - 有成员离开时换一条新链重新分发，离开的人读不到之后的消息
+ *
+ * 群消息格式：[版本 0x04][链 id int][序号 int][EncryptionUtils.seal 信封]
+ * 分发内容 (用私聊会话密钥 seal)：[链 id int][序号 int][链密钥 32 字节]
+ *
+ * 注：没有 Signal 那样的发送者签名，持有链密钥的成员理论上可以冒充该发送者发群消息。
+ */
+public class GroupSession {
+
+    static final byte VERSION = 0x04;
+    private static final int HEADER_SIZE = 1 + 4 + 4;
+    private static final int CHAIN_KEY_SIZE = 32;
+    private static final int MESSAGE_KEY_SIZE = 16;
+    // 接收方一次最多向前推进多少步，防止伪造的序号导致大量计算
+    private static final int MAX_SKIP = 2000;
+    // 每个发送者保留最近几条链 (换链时仍在途的旧消息还能解密)
+    private static final int KEPT_CHAINS = 2;
+
+    private final Client client;
+
+    // 自己的发送链
+    private Chain own;
+    private final Set<String> members = new HashSet<>();
+    private final Set<String> distributedTo = new HashSet<>();
+    private final Set<String> handshakeRequested = new HashSet<>();
+    // 其他成员 (以及自己的回显) 的接收链
+    private final Map<String, Deque<Chain>> received = new HashMap<>();
+
+    public GroupSession(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * 一条链的状态：id、当前链密钥、下一条消息的序号
+     */
+    private static final class Chain {
+        final int id;
+        byte[] chainKey;
+        int iteration;
+
+        Chain(int id, byte[] chainKey, int iteration) {
+            this.id = id;
+            this.chainKey = chainKey;
+            this.iteration = iteration;
+        }
+
+        Chain copy() {
+            return new Chain(id, chainKey.clone(), iteration);
+        }
+
+        /**
+         * 当前序号的消息密钥，并把链推进一步
+         */
+        SecretKey advance() throws GeneralSecurityException {
+            Mac hmac = CryptoContext.get().hmacSha256();
+            hmac.init(new SecretKeySpec(chainKey, "HmacSHA256"));
+            byte[] messageKey = hmac.doFinal(new byte[]{1});
+            hmac.init(new SecretKeySpec(chainKey, "HmacSHA256"));
+            byte[] next = hmac.doFinal(new byte[]{2});
+            Arrays.fill(chainKey, (byte) 0);
+            chainKey = next;
+            iteration++;
+            SecretKey key = new SecretKeySpec(messageKey, 0, MESSAGE_KEY_SIZE, "AES");
+            Arrays.fill(messageKey, (byte) 0);
+            return key;
+        }
+    }
+
+    // ================= 发送 =================
+
+    /**
+     * 加密一条群消息：只加密一次，必要时先把自己的链密钥分发给还没有收到的在线成员
+     */
+    public synchronized TextMessage encrypt(String senderId, String text) throws GeneralSecurityException {
+        if (own == null) rotate();
+        distributePending();
+        int iteration = own.iteration;
+        byte[] sealed = EncryptionUtils.seal(text.getBytes(StandardCharsets.UTF_8), own.advance());
+        byte[] envelope = ByteBuffer.allocate(HEADER_SIZE + sealed.length)
+                .put(VERSION).putInt(own.id).putInt(iteration).put(sealed).array();
+        TextMessage msg = new TextMessage(senderId, null);
+        msg.setTargetUserId("ALL");
+        msg.setSealedContent(envelope);
+        MetricsRegistry.counter("group.encrypted").increment();
+        return msg;
+    }
+
+    /**
+     * 在线成员变化 (UserListMessage)：有人离开就换一条新链，之后的消息离开的人无法解密
+     * (对方的接收链保留：对方断线重连后继续用原来的链发消息)
+     */
+    public synchronized void onMembers(Collection<String> online) {
+        Set<String> current = new HashSet<>(online);
+        String self = client.getCurrentUserId();
+        if (self != null) current.remove(self);
+        boolean someoneLeft = !current.containsAll(distributedTo);
+        members.clear();
+        members.addAll(current);
+        handshakeRequested.retainAll(current);
+        if (someoneLeft && own != null) rotate();
+    }
+
+    /**
+     * 与 peerId 的私聊会话密钥刚建立或重新协商：补发 (对方可能是重启后的新会话，手里没有本端的链密钥)
+     */
+    public synchronized void onPairwiseKey(String peerId) {
+        if (own == null || !members.contains(peerId)) return;
+        try {
+            distributeTo(peerId, client.getSharedAesKey(peerId));
+        } catch (GeneralSecurityException e) {
+            System.err.println("❌ 群密钥分发失败: " + peerId);
+        }
+    }
+
+    private void rotate() {
+        byte[] chainKey = new byte[CHAIN_KEY_SIZE];
+        CryptoContext.random().nextBytes(chainKey);
+        own = new Chain(CryptoContext.random().nextInt(), chainKey, 0);
+        distributedTo.clear();
+        // 服务端会把群消息也发回给自己，用一份副本解密回显
+        String self = client.getCurrentUserId();
+        if (self != null) install(self, own.copy());
+    }
+
+    private void distributePending() throws GeneralSecurityException {
+        String self = client.getCurrentUserId();
+        for (String member : members) {
+            if (distributedTo.contains(member)) continue;
+            SecretKey pairwise = client.getSharedAesKey(member);
+            if (pairwise != null) {
+                distributeTo(member, pairwise);
+            } else if (handshakeRequested.add(member)) {
+                // 还没有私聊密钥：先握手，建立后 onPairwiseKey 补发 (在此之前对方看不到本端的群消息)
+                client.sendMessage(new KeyExchangeRequest(self, member));
+            }
+        }
+    }
+
+    private void distributeTo(String member, SecretKey pairwise) throws GeneralSecurityException {
+        byte[] payload = ByteBuffer.allocate(8 + CHAIN_KEY_SIZE).putInt(own.id).putInt(own.iteration).put(own.chainKey).array();
+        client.sendMessage(new SenderKeyMessage(client.getCurrentUserId(), member, EncryptionUtils.seal(payload, pairwise)));
+        Arrays.fill(payload, (byte) 0);
+        distributedTo.add(member);
+        MetricsRegistry.counter("group.keysDistributed").increment();
+    }
+
+    // ================= 接收 =================
+
+    /**
+     * 收到某个成员分发的链密钥
+     */
+    public synchronized void accept(SenderKeyMessage msg) throws GeneralSecurityException {
+        SecretKey pairwise = client.getSharedAesKey(msg.getSenderId());
+        if (pairwise == null) throw new GeneralSecurityException("与 " + msg.getSenderId() + " 没有会话密钥");
+        byte[] payload = EncryptionUtils.open(msg.getDistribution(), pairwise);
+        if (payload.length != 8 + CHAIN_KEY_SIZE) throw new GeneralSecurityException("群密钥格式不正确");
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int id = buffer.getInt();
+        int iteration = buffer.getInt();
+        byte[] chainKey = new byte[CHAIN_KEY_SIZE];
+        buffer.get(chainKey);
+        Arrays.fill(payload, (byte) 0);
+        install(msg.getSenderId(), new Chain(id, chainKey, iteration));
+    }
+
+    private void install(String senderId, Chain chain) {
+        Deque<Chain> chains = received.computeIfAbsent(senderId, k -> new ArrayDeque<>());
+        chains.removeIf(c -> c.id == chain.id);
+        chains.addFirst(chain);
+        while (chains.size() > KEPT_CHAINS) chains.removeLast();
+    }
+
+    /**
+     * 解密一条群消息
+     * @throws GeneralSecurityException 还没有收到发送者的链密钥、序号已经用过或密文被改动
+     */
+    public synchronized String decrypt(String senderId, byte[] envelope) throws GeneralSecurityException {
+        if (envelope.length < HEADER_SIZE || envelope[0] != VERSION) throw new GeneralSecurityException("不是群消息密文");
+        ByteBuffer buffer = ByteBuffer.wrap(envelope);
+        buffer.get();
+        int id = buffer.getInt();
+        int iteration = buffer.getInt();
+        Chain chain = find(senderId, id);
+        if (chain == null) throw new GeneralSecurityException("尚未收到 " + senderId + " 的群密钥");
+        if (iteration < chain.iteration) throw new GeneralSecurityException("群消息序号已使用: " + iteration);
+        if (iteration - chain.iteration > MAX_SKIP) throw new GeneralSecurityException("群消息序号跳跃过大: " + iteration);
+
+        // 在副本上推进，解密成功后才替换，伪造的消息不会破坏链状态
+        Chain candidate = chain.copy();
+        while (candidate.iteration < iteration) candidate.advance();
+        SecretKey messageKey = candidate.advance();
+        byte[] plain = EncryptionUtils.open(envelope, HEADER_SIZE, envelope.length - HEADER_SIZE, messageKey);
+        chain.chainKey = candidate.chainKey;
+        chain.iteration = candidate.iteration;
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private Chain find(String senderId, int id) {
+        Deque<Chain> chains = received.get(senderId);
+        if (chains == null) return null;
+        for (Chain chain : chains) {
+            if (chain.id == id) return chain;
+        }
+        return null;
+    }
+}
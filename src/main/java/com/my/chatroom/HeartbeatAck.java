@@ -0,0 +1,29 @@
+package com.my.chatroom;
+
+/**
+ * 心跳应答协议 (HeartbeatAck)
+ * 服务端收到客户端心跳后立即回送，带回心跳原始时间戳和服务端当前时间，
+ * 客户端据此估算往返时延和本地时钟与服务端时钟的偏差。
+ */
+public class HeartbeatAck extends Message {
+
+    private long pingTimestamp; // 客户端发出心跳时的本地时间
+    private long serverTime;    // 服务端回应时的时间
+
+    public HeartbeatAck() {
+        super();
+        super.setType(MessageType.HEARTBEAT_ACK);
+    }
+
+    public HeartbeatAck(long pingTimestamp, long serverTime) {
+        super(MessageType.HEARTBEAT_ACK, "SERVER");
+        this.pingTimestamp = pingTimestamp;
+        this.serverTime = serverTime;
+    }
+
+    public long getPingTimestamp() { return pingTimestamp; }
+    public void setPingTimestamp(long pingTimestamp) { this.pingTimestamp = pingTimestamp; }
+
+    public long getServerTime() { return serverTime; }
+    public void setServerTime(long serverTime) { this.serverTime = serverTime; }
+}
@@ -0,0 +1,74 @@
+package com.my.chatroom;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 聊天记录内容的存储编码 (HistoryContent)
+ * 作用：AES 加密结果在协议和界面中是 Base64 文本，入库时还原成原始字节存为 BLOB，体积减少约 25%。
+ * 对端发来的内容不一定是规范的 Base64 (例如旧版本客户端或异常数据)，这种情况按 UTF-8 原样保存，读出时原样还原。
+ * 【修改】新写入的密文记为 ENCODING_SEALED，读取时只按 AES-GCM 信封解密；ENCODING_BASE64 / ENCODING_TEXT 是改用 GCM 之前
+ * 保存的记录 (或从 chat_history 迁移来的记录)，解密时才允许旧的 CBC 格式 (见 HistoryRecord.isLegacy)。
+ */
+final class HistoryContent {
+
+    static final int ENCODING_BASE64 = 0; // BLOB 为 Base64 解码后的字节，读取时重新编码
+    static final int ENCODING_TEXT = 1;   // BLOB 为原文的 UTF-8 字节
+    static final int ENCODING_SEALED = 2; // 【新增】与 ENCODING_BASE64 相同，但写入于 GCM 信封之后，不接受 CBC 密文
+
+    final int encoding;
+    final byte[] bytes;
+
+    private HistoryContent(int encoding, byte[] bytes) {
+        this.encoding = encoding;
+        this.bytes = bytes;
+    }
+
+    static HistoryContent encode(String content) {
+        return encode(content, ENCODING_SEALED);
+    }
+
+    /**
+     * 【新增】迁移旧表中的记录：保持旧记录的身份，解密时仍兼容 CBC
+     */
+    static HistoryContent encodeLegacy(String content) {
+        return encode(content, ENCODING_BASE64);
+    }
+
+    private static HistoryContent encode(String content, int binaryEncoding) {
+        try {
+            byte[] raw = Base64.getDecoder().decode(content);
+            // 只有能无损还原的规范 Base64 才按字节存储
+            if (Base64.getEncoder().encodeToString(raw).equals(content)) {
+                return new HistoryContent(binaryEncoding, raw);
+            }
+        } catch (IllegalArgumentException e) {
+            // 不是 Base64
+        }
+        return new HistoryContent(ENCODING_TEXT, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 【新增】已经是原始字节的密文 (EncryptionUtils.seal 的信封)，直接按字节存储，不经过 Base64
+     */
+    static HistoryContent ofBytes(byte[] raw) {
+        return new HistoryContent(ENCODING_SEALED, raw);
+    }
+
+    static boolean isBinary(int encoding) {
+        return encoding != ENCODING_TEXT;
+    }
+
+    /**
+     * 该编码的记录是否写入于改用 GCM 信封之前
+     */
+    static boolean isLegacy(int encoding) {
+        return encoding != ENCODING_SEALED;
+    }
+
+    static String decode(int encoding, byte[] bytes) {
+        return isBinary(encoding)
+                ? Base64.getEncoder().encodeToString(bytes)
+                : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+package com.my.chatroom;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录后台维护 (HistoryMaintenance)
+ * 作用：按 RetentionPolicy 分批删除过期记录，然后回收删除留下的空间 (SQLite 增量 VACUUM / 日志压缩)。
+ *
+ * - 每 -Dchat.maintenance.intervalSeconds (默认 300) 秒检查一次，只在存储空闲超过
+ *   -Dchat.maintenance.idleSeconds (默认 30) 秒时运行，批与批之间再次检查，用户开始聊天就让出
+ * - 每批最多 BATCH_SIZE 条，单独的短事务，批间暂停 PAUSE_MILLIS
+ * - 每次运行输出删除条数、回收字节数和用时，并计入 retention.deleted / maintenance.bytesReclaimed 指标
+ */
+public class HistoryMaintenance implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 500;
+    private static final long PAUSE_MILLIS = 20;
+
+    private final MessageStore store;
+    private final RetentionPolicy policy;
+    private final long idleNanos;
+    private volatile long lastActivity = System.nanoTime();
+    private ScheduledExecutorService scheduler;
+
+    public HistoryMaintenance(MessageStore store, RetentionPolicy policy, long idleSeconds) {
+        this.store = store;
+        this.policy = policy;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+    }
+
+    /**
+     * 存储被读写时调用，推迟维护
+     */
+    public void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    private boolean isIdle() {
+        return System.nanoTime() - lastActivity >= idleNanos;
+    }
+
+    /**
+     * 启动定时维护 (守护线程)
+     */
+    public void start(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (isIdle()) runOnce(false);
+            } catch (RuntimeException e) {
+                AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 后台维护失败 {} {}", policy, e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 执行一轮清理 + 空间回收
+     * @param force 为 true 时不检查空闲 (命令行工具使用)
+     */
+    public Summary runOnce(boolean force) {
+        long start = System.nanoTime();
+        long sizeBefore = store.sizeBytes();
+        long deleted = 0;
+        boolean interrupted = false;
+        int batch;
+        while ((batch = store.purgeExpired(policy, BATCH_SIZE)) > 0) {
+            deleted += batch;
+            MetricsRegistry.counter("retention.deleted").add(batch);
+            if (!force && !isIdle()) {
+                interrupted = true;
+                break;
+            }
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                break;
+            }
+        }
+        // 【修改】空间回收也分段进行：每段之间检查是否空闲，有新的读写时把剩下的留到下一轮
+        long reclaimed = 0;
+        long step;
+        while (!interrupted && (step = store.reclaimSpace()) > 0) {
+            reclaimed += step;
+            if (!force && !isIdle()) {
+                interrupted = true;
+                break;
+            }
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            }
+        }
+        MetricsRegistry.counter("maintenance.bytesReclaimed").add(reclaimed);
+        Summary summary = new Summary(deleted, reclaimed, sizeBefore, store.sizeBytes(), System.nanoTime() - start);
+        if (deleted > 0 || reclaimed > 0) {
+            System.out.println("[聊天记录] 后台维护 (" + policy + "): " + summary + (interrupted ? " (有新的读写，已让出)" : ""));
+        }
+        return summary;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    /**
+     * 一轮维护的结果
+     */
+    public static final class Summary {
+        private final long deleted;
+        private final long bytesReclaimed;
+        private final long sizeBefore;
+        private final long sizeAfter;
+        private final long elapsedNanos;
+
+        Summary(long deleted, long bytesReclaimed, long sizeBefore, long sizeAfter, long elapsedNanos) {
+            this.deleted = deleted;
+            this.bytesReclaimed = bytesReclaimed;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getDeleted() { return deleted; }
+        public long getBytesReclaimed() { return bytesReclaimed; }
+        public long getSizeBefore() { return sizeBefore; }
+        public long getSizeAfter() { return sizeAfter; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        @Override
+        public String toString() {
+            return String.format("删除 %d 条, 回收 %.1fMB, 存储 %.1fMB -> %.1fMB, 用时 %dms",
+                    deleted, bytesReclaimed / 1048576.0, sizeBefore / 1048576.0, sizeAfter / 1048576.0,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.my.chatroom;
+
+import java.util.Base64;
+
+/**
+ * 聊天记录实体类 (HistoryRecord)
+ * 作用：对应 chat_messages 表中的一行 (内容已还原为 Base64 文本)，替代原来的 String[] {isSender, content, timestamp, id}
+ * 【修改】sqlite 引擎按原始字节返回内容 (getEncryptedBytes)，只有调用 getEncryptedContent 时才编码成 Base64
+ * 【修改】legacy 标记改用 GCM 信封之前保存的记录，只有这些记录解密时才兼容旧的 CBC 格式
+ */
+public class HistoryRecord {
+
+    private final long id;                 // 数据库主键，同时作为分页游标
+    private final boolean sender;          // 当前用户是否为发送方
+    private String encryptedContent;       // AES 加密后的内容 (Base64)
+    private final byte[] encryptedBytes;   // 【新增】同一内容的原始字节，可能为 null
+    private final long timestamp;          // 入库时间 (epoch 毫秒)
+    private final boolean legacy;          // 【新增】改用 GCM 信封之前保存的记录
+
+    public HistoryRecord(long id, boolean sender, String encryptedContent, long timestamp) {
+        this(id, sender, encryptedContent, timestamp, false);
+    }
+
+    public HistoryRecord(long id, boolean sender, String encryptedContent, long timestamp, boolean legacy) {
+        this.id = id;
+        this.sender = sender;
+        this.encryptedContent = encryptedContent;
+        this.encryptedBytes = null;
+        this.timestamp = timestamp;
+        this.legacy = legacy;
+    }
+
+    public HistoryRecord(long id, boolean sender, byte[] encryptedBytes, long timestamp) {
+        this(id, sender, encryptedBytes, timestamp, false);
+    }
+
+    public HistoryRecord(long id, boolean sender, byte[] encryptedBytes, long timestamp, boolean legacy) {
+        this.id = id;
+        this.sender = sender;
+        this.encryptedBytes = encryptedBytes;
+        this.timestamp = timestamp;
+        this.legacy = legacy;
+    }
+
+    public long getId() { return id; }
+    public boolean isSender() { return sender; }
+    public String getEncryptedContent() {
+        if (encryptedContent == null) encryptedContent = Base64.getEncoder().encodeToString(encryptedBytes);
+        return encryptedContent;
+    }
+
+    /**
+     * 【新增】密文的原始字节 (内容不是 Base64 时抛出 IllegalArgumentException)
+     */
+    public byte[] getEncryptedBytes() {
+        return encryptedBytes != null ? encryptedBytes : Base64.getDecoder().decode(encryptedContent);
+    }
+    public long getTimestamp() { return timestamp; }
+    public boolean isLegacy() { return legacy; }
+}
@@ -0,0 +1,170 @@
+package com.my.chatroom;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * 存储结构对比工具 (HistoryStorageReport)
+ * 作用：生成一个旧结构 (chat_history：Base64 文本 + DATETIME 字符串) 的数据库，
+ * 测量文件大小和历史记录加载耗时，然后让 DatabaseManager 在线迁移到 chat_messages (BLOB + epoch 毫秒 + 会话编号)，
+ * VACUUM 后再测一次。
+ *
+ * 用法：HistoryStorageReport [消息总数] [会话数]
+ */
+public class HistoryStorageReport {
+
+    private static final int PAGE = 50;
+    private static final int PAGE_ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int conversations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // 【修改】聊天记录在每个本地用户自己的数据库里：把 "me" 的库放到临时目录
+        Path dir = Files.createTempDirectory("history-report-");
+        System.setProperty("chat.client.dir", dir.toString());
+        Path db = DatabaseManager.localDatabasePath("me");
+        db.toFile().deleteOnExit();
+        String url = "jdbc:sqlite:" + db.toAbsolutePath();
+
+        System.out.printf("▶ 生成旧结构数据库: %d 条消息, %d 个会话%n", total, conversations);
+        createLegacyDatabase(url, total, conversations);
+        long sizeBefore = checkpointedSize(url, db);
+        double pageBefore = timeLegacyPages(url, conversations);
+        double fullBefore = timeLegacyFullLoad(url);
+
+        System.out.println("▶ 在线迁移...");
+        long start = System.nanoTime();
+        DatabaseManager.isLegacyHistoryPending("me"); // 触发初始化与迁移
+        while (DatabaseManager.isLegacyHistoryPending("me")) {
+            Thread.sleep(50);
+        }
+        double migrateSeconds = (System.nanoTime() - start) / 1e9;
+        vacuum(url);
+        long sizeAfter = checkpointedSize(url, db);
+        double pageAfter = timePages(conversations);
+        double fullAfter = timeFullLoad(total);
+
+        System.out.println();
+        System.out.println("================ 存储结构对比 ================");
+        System.out.printf("迁移用时: %.2fs%n", migrateSeconds);
+        System.out.printf("%-20s %14s %14s%n", "", "旧 (chat_history)", "新 (chat_messages)");
+        System.out.printf("%-20s %13.1fMB %13.1fMB%n", "文件大小", sizeBefore / 1048576.0, sizeAfter / 1048576.0);
+        System.out.printf("%-20s %13.3fms %13.3fms%n", "最新一页 (" + PAGE + " 条)", pageBefore, pageAfter);
+        System.out.printf("%-20s %13.1fms %13.1fms%n", "整个会话", fullBefore, fullAfter);
+        System.out.println("==============================================");
+        System.exit(0);
+    }
+
+    private static void createLegacyDatabase(String url, int total, int conversations) throws SQLException {
+        Random random = new Random(42);
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE chat_history (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id TEXT NOT NULL,"
+                    + " target_id TEXT NOT NULL, is_sender INTEGER NOT NULL, encrypted_content TEXT NOT NULL,"
+                    + " timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE INDEX idx_history_conversation ON chat_history (user_id, target_id, id)");
+            stmt.execute("PRAGMA user_version = 1");
+            conn.setAutoCommit(false);
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+            long time = System.currentTimeMillis() - total * 60_000L;
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO chat_history (user_id, target_id, is_sender, encrypted_content, timestamp) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < total; i++) {
+                    // 16 字节 IV + 1~12 个 AES 块，与真实的 aesEncrypt 输出长度分布相近
+                    byte[] payload = new byte[16 + 16 * (1 + random.nextInt(12))];
+                    random.nextBytes(payload);
+                    ps.setString(1, "me");
+                    ps.setString(2, "peer" + (i % conversations));
+                    ps.setInt(3, random.nextInt(2));
+                    ps.setString(4, Base64.getEncoder().encodeToString(payload));
+                    ps.setString(5, sdf.format(new java.util.Date(time + i * 60_000L)));
+                    ps.addBatch();
+                    if (i % 10_000 == 9_999) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    /**
+     * 旧做法：按 (user_id, target_id) 取最新一页，时间字符串在 Java 里逐条解析
+     */
+    private static double timeLegacyPages(String url, int conversations) throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement("SELECT id, is_sender, encrypted_content, timestamp FROM chat_history"
+                     + " WHERE user_id = ? AND target_id = ? ORDER BY id DESC LIMIT " + PAGE)) {
+            long start = System.nanoTime();
+            for (int round = 0; round < PAGE_ROUNDS; round++) {
+                ps.setString(1, "me");
+                ps.setString(2, "peer" + (round % conversations));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getLong(1);
+                        rs.getInt(2);
+                        rs.getString(3);
+                        sdf.parse(rs.getString(4));
+                    }
+                }
+            }
+            return (System.nanoTime() - start) / 1e6 / PAGE_ROUNDS;
+        }
+    }
+
+    private static double timeLegacyFullLoad(String url) throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement("SELECT id, is_sender, encrypted_content, timestamp FROM chat_history"
+                     + " WHERE user_id = 'me' AND target_id = 'peer0' ORDER BY id")) {
+            long start = System.nanoTime();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rs.getLong(1);
+                    rs.getInt(2);
+                    rs.getString(3);
+                    sdf.parse(rs.getString(4));
+                }
+            }
+            return (System.nanoTime() - start) / 1e6;
+        }
+    }
+
+    private static double timePages(int conversations) {
+        long start = System.nanoTime();
+        for (int round = 0; round < PAGE_ROUNDS; round++) {
+            DatabaseManager.getHistoryPage("me", "peer" + (round % conversations), Long.MAX_VALUE, PAGE);
+        }
+        return (System.nanoTime() - start) / 1e6 / PAGE_ROUNDS;
+    }
+
+    private static double timeFullLoad(int total) {
+        long start = System.nanoTime();
+        DatabaseManager.getHistoryPage("me", "peer0", Long.MAX_VALUE, total);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void vacuum(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("VACUUM");
+        }
+    }
+
+    private static long checkpointedSize(String url, Path db) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        return Files.size(db);
+    }
+}
@@ -0,0 +1,227 @@
+package com.my.chatroom;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 聊天记录异步写入器 (HistoryWriter)
+ * 作用：聊天记录 (chat_messages) 的插入不再在 Netty 线程 / FX 线程上同步执行，而是进入有界队列，
+ * 由后台线程把一段时间内积累的多条记录合并到同一个事务中提交 (group commit)。
+ *
+ * - enqueue 立即返回 CompletableFuture，事务提交后得到数据库 ID
+ * - 队列满时调用线程等待队列腾出空间 (反压)，不丢数据也不无限堆积；所有记录都由写线程按入队顺序提交，ID 与发送顺序一致
+ * - writeAll 用于批量转发：先等队列中已有的记录落盘，再在调用线程上用一个事务写入整批
+ * - 一批中某条记录写入失败时整批回滚，再逐条重试，只有出错的那条以异常完成
+ * - close() 会先写完队列中剩余的记录再退出，SqliteStore.close() 中调用；关闭后提交的记录在调用线程上直接写入
+ *   (存储已关闭时以异常完成)，不会留在没有写线程的队列里
+ */
+public class HistoryWriter implements AutoCloseable {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_messages (conversation_id, is_sender, encoding, content, created_at) VALUES (?, ?, ?, ?, ?) RETURNING id";
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+
+    private final SqliteConnectionPool pool;
+    private final SqliteStore store;
+    private final BlockingQueue<PendingInsert> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread writerThread;
+
+    public HistoryWriter(SqliteConnectionPool pool, SqliteStore store) {
+        this.pool = pool;
+        this.store = store;
+        this.writerThread = new Thread(this::writeLoop, "history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 提交一条待写入的记录
+     * @return 提交后完成的 ID；写入失败时以异常完成
+     */
+    public CompletableFuture<Long> enqueue(String userId, String targetId, boolean isSender, String encryptedContent) {
+        return enqueue(new PendingInsert(userId, targetId, isSender, encryptedContent, null));
+    }
+
+    /**
+     * 【新增】提交一条已是原始字节的记录 (不再经过 Base64 检测)
+     */
+    public CompletableFuture<Long> enqueue(String userId, String targetId, boolean isSender, HistoryContent content) {
+        return enqueue(new PendingInsert(userId, targetId, isSender, null, content));
+    }
+
+    private CompletableFuture<Long> enqueue(PendingInsert insert) {
+        if (closed.get()) {
+            writeRemaining(insert);
+            return insert.future;
+        }
+        if (queue.offer(insert)) {
+            // 入队的同时被关闭：写线程可能已经退出，由调用线程把剩下的写完
+            if (closed.get()) writeRemaining(null);
+            return insert.future;
+        }
+        // 队列已满：等写线程腾出空间。不能由调用线程直接写入，否则会插到队列中更早的记录前面
+        MetricsRegistry.counter("history.queueFull").increment();
+        try {
+            while (!closed.get()) {
+                if (queue.offer(insert, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed.get()) writeRemaining(null);
+                    return insert.future;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 已关闭 (写线程即将退出) 或等待被中断：先写完队列中剩余的记录，再写这一条
+        writeRemaining(insert);
+        return insert.future;
+    }
+
+    private synchronized void writeRemaining(PendingInsert last) {
+        List<PendingInsert> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (last != null) rest.add(last);
+        if (!rest.isEmpty()) writeBatch(rest);
+    }
+
+    /**
+     * 【新增】在调用线程上把一批记录写入同一个事务 (调用方不能是 FX / Netty 线程)
+     * @return 与 messages 顺序一致的 ID；写入失败时以异常完成
+     */
+    public CompletableFuture<List<Long>> writeAll(String userId, boolean isSender, List<MessageStore.NewMessage> messages) {
+        // 先让队列中更早的记录提交，保证 id 顺序与发送顺序一致
+        flush();
+        List<PendingInsert> batch = new ArrayList<>(messages.size());
+        for (MessageStore.NewMessage message : messages) {
+            batch.add(new PendingInsert(userId, message.targetId, isSender, message.encryptedContent, null));
+        }
+        writeBatch(batch);
+        List<Long> ids = new ArrayList<>(batch.size());
+        try {
+            for (PendingInsert insert : batch) ids.add(insert.future.join());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e.getCause() != null ? e.getCause() : e);
+        }
+        return CompletableFuture.completedFuture(ids);
+    }
+
+    /**
+     * 等待此刻之前提交的记录全部落盘 (屏障与普通记录一样排在队列末尾，队列满时同样等待)
+     */
+    public void flush() {
+        enqueue(null, null, false, (String) null).join();
+    }
+
+    private void writeLoop() {
+        List<PendingInsert> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed.get() || !queue.isEmpty()) {
+            try {
+                PendingInsert first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingInsert> batch) {
+        if (batch.stream().allMatch(insert -> insert.userId == null)) {
+            // 只有 flush() 的屏障：前面的记录都已写完，不必访问数据库 (关闭后的 flush 也能立即返回)
+            batch.forEach(insert -> insert.future.complete(-1L));
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            List<Long> ids = pool.write(conn -> {
+                Connection raw = conn.raw();
+                raw.setAutoCommit(false);
+                try {
+                    List<Long> result = new ArrayList<>(batch.size());
+                    PreparedStatement pstmt = conn.prepare(INSERT_SQL);
+                    for (PendingInsert insert : batch) {
+                        if (insert.userId == null) { // flush() 的屏障
+                            result.add(-1L);
+                            continue;
+                        }
+                        HistoryContent content = insert.content != null ? insert.content : HistoryContent.encode(insert.encryptedContent);
+                        pstmt.setLong(1, store.conversationId(conn, insert.userId, insert.targetId));
+                        pstmt.setInt(2, insert.isSender ? 1 : 0);
+                        pstmt.setInt(3, content.encoding);
+                        pstmt.setBytes(4, content.bytes);
+                        pstmt.setLong(5, insert.createdAt);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            result.add(rs.next() ? rs.getLong(1) : -1L);
+                        }
+                    }
+                    raw.commit();
+                    return result;
+                } catch (SQLException e) {
+                    raw.rollback();
+                    store.clearConversationCache();
+                    throw e;
+                } finally {
+                    raw.setAutoCommit(true);
+                }
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(ids.get(i));
+            }
+            MetricsRegistry.histogram("history.batchCommit").recordNanos(System.nanoTime() - start);
+            MetricsRegistry.counter("history.rows").add(batch.size());
+        } catch (SQLException e) {
+            if (batch.size() > 1) {
+                // 整批已回滚：逐条重试，一条坏记录不连累同批的其它记录
+                AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 批量写入 {} 条失败，改为逐条写入 {}", batch.size(), e);
+                for (PendingInsert insert : batch) writeBatch(List.of(insert));
+                return;
+            }
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 写入发给 {} 的记录失败 {}", batch.get(0).targetId, e);
+            batch.get(0).future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写线程超时未退出时，剩余记录在当前线程补写
+        writeRemaining(null);
+    }
+
+    private static final class PendingInsert {
+        final String userId;
+        final String targetId;
+        final boolean isSender;
+        final String encryptedContent;
+        final HistoryContent content;
+        final long createdAt = System.currentTimeMillis();
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingInsert(String userId, String targetId, boolean isSender, String encryptedContent, HistoryContent content) {
+            this.userId = userId;
+            this.targetId = targetId;
+            this.isSender = isSender;
+            this.encryptedContent = encryptedContent;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.my.chatroom;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * 本地身份密钥库 (IdentityKeyStore)
+ * 作用：X25519 / RSA 身份密钥不再每次 new Client() 都重新生成，而是用本地主密钥 (由登录密码派生) 加密保存在
+ * <chat.client.dir>/identity-<用户>.key 中，下次登录直接读出。公钥不变，服务端也就不必改写、对方不必重新握手。
+ *
+ * 文件内容为 EncryptionUtils.seal 的信封，明文为 [版本][X25519 私钥][X25519 公钥][RSA 私钥][RSA 公钥]，
+ * 每项 [长度 int][编码]，没有 RSA 时长度为 0。写入先落到临时文件再改名。
+ */
+public class IdentityKeyStore {
+
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final SecretKey masterKey;
+
+    public IdentityKeyStore(Path file, SecretKey masterKey) {
+        this.file = file;
+        this.masterKey = masterKey;
+    }
+
+    /**
+     * 身份密钥：agreement 总是存在，rsa 在未启用 RSA 回退时为 null
+     */
+    public static final class Identity {
+        private final KeyPair agreement;
+        private final KeyPair rsa;
+
+        public Identity(KeyPair agreement, KeyPair rsa) {
+            this.agreement = agreement;
+            this.rsa = rsa;
+        }
+
+        public KeyPair getAgreement() { return agreement; }
+        public KeyPair getRsa() { return rsa; }
+    }
+
+    /**
+     * @return 文件不存在时返回 null
+     * @throws GeneralSecurityException 主密钥不对 (密码错误) 或文件被改动
+     */
+    public Identity load() throws IOException, GeneralSecurityException {
+        if (!Files.exists(file)) return null;
+        byte[] plain = EncryptionUtils.open(Files.readAllBytes(file), masterKey);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("不支持的身份密钥库版本: " + version);
+            CryptoContext ctx = CryptoContext.get();
+            KeyPair agreement = readPair(in, ctx.x25519KeyFactory());
+            KeyPair rsa = readPair(in, ctx.rsaKeyFactory());
+            if (agreement == null) throw new IOException("身份密钥库缺少 X25519 密钥");
+            return new Identity(agreement, rsa);
+        }
+    }
+
+    public void save(Identity identity) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VERSION);
+            writePair(out, identity.getAgreement());
+            writePair(out, identity.getRsa());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, EncryptionUtils.seal(bytes.toByteArray(), masterKey));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePair(DataOutputStream out, KeyPair pair) throws IOException {
+        writeBytes(out, pair == null ? null : pair.getPrivate().getEncoded());
+        writeBytes(out, pair == null ? null : pair.getPublic().getEncoded());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? 0 : bytes.length);
+        if (bytes != null) out.write(bytes);
+    }
+
+    private static KeyPair readPair(DataInputStream in, KeyFactory factory) throws IOException, GeneralSecurityException {
+        byte[] privateKey = readBytes(in);
+        byte[] publicKey = readBytes(in);
+        if (privateKey.length == 0) return null;
+        return new KeyPair(factory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                factory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 64 * 1024) throw new IOException("身份密钥库已损坏");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
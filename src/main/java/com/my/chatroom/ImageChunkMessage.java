@@ -0,0 +1,45 @@
+package com.my.chatroom;
+
+/**
+ * 分块图片协议 (ImageChunkMessage)
+ * 一张图片按 ChunkedCipher 加密后拆成多帧发送，每帧带一段密文 (第一帧含密文头部)，服务端逐帧转发，
+ * 接收方按 sequence 顺序追加到 MediaStore，收到 last 帧后整张图片可读。
+ * 密文片段 data 不进 JSON，作为帧的二进制尾部传输 (见 MessageToJsonEncoder)。
+ */
+public class ImageChunkMessage extends Message {
+
+    private String targetUserId;
+    private String transferId; // 同一张图片的所有片段相同；接收方只用它区分同时进行的传输，本地媒体 id 另行生成 (见 MediaTransfer.append，不能直接用对方给的 id，否则可以覆盖已有图片)
+    private int sequence;      // 从 0 开始
+    private boolean last;
+    private transient byte[] data;
+
+    public ImageChunkMessage() {
+        super();
+        super.setType(MessageType.IMAGE_CHUNK);
+    }
+
+    public ImageChunkMessage(String senderId, String targetUserId, String transferId, int sequence, boolean last, byte[] data) {
+        super(MessageType.IMAGE_CHUNK, senderId);
+        this.targetUserId = targetUserId;
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.last = last;
+        this.data = data;
+    }
+
+    public String getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(String targetUserId) { this.targetUserId = targetUserId; }
+
+    public String getTransferId() { return transferId; }
+    public void setTransferId(String transferId) { this.transferId = transferId; }
+
+    public int getSequence() { return sequence; }
+    public void setSequence(int sequence) { this.sequence = sequence; }
+
+    public boolean isLast() { return last; }
+    public void setLast(boolean last) { this.last = last; }
+
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+}
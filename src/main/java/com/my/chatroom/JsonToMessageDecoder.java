@@ -15,17 +15,36 @@ public class JsonToMessageDecoder extends ByteToMessageDecoder {
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
         // LengthFieldBasedFrameDecoder 已经确保这是一个完整的消息帧
+        long start = System.nanoTime();
 
-        int length = in.readableBytes();
-        byte[] bytes = new byte[length];
-        in.readBytes(bytes);
-
-        String json = new String(bytes, StandardCharsets.UTF_8);
+        // 【修改】第一个 0x00 之前是 JSON，之后是二进制尾部 (见 MessageToJsonEncoder)
+        int jsonLength = in.bytesBefore(MessageToJsonEncoder.BINARY_SEPARATOR);
+        if (jsonLength < 0) jsonLength = in.readableBytes();
+        String json = in.toString(in.readerIndex(), jsonLength, StandardCharsets.UTF_8);
+        in.skipBytes(jsonLength);
 
         // 使用配置好的 Gson 反序列化为 Message 基类
         // TypeAdapter 会自动处理子类转换
         Message msg = GSON.fromJson(json, Message.class);
 
+        if (in.isReadable()) {
+            in.skipBytes(1);
+            byte[] trailer = new byte[in.readableBytes()];
+            in.readBytes(trailer);
+            attachBinaryTrailer(msg, trailer);
+        }
+
+        MetricsRegistry.histogram("stage.decode").recordNanos(System.nanoTime() - start);
         out.add(msg);
     }
-}
\ No newline at end of file
+
+    /**
+     * 【新增】把二进制尾部放回消息 (与 MessageToJsonEncoder.binaryTrailer 对应)；经 JSON 复制的消息也用它带上尾部
+     */
+    static void attachBinaryTrailer(Message msg, byte[] trailer) {
+        if (trailer == null) return;
+        if (msg instanceof TextMessage) ((TextMessage) msg).setSealedContent(trailer);
+        else if (msg instanceof ImageChunkMessage) ((ImageChunkMessage) msg).setData(trailer);
+        else if (msg instanceof SenderKeyMessage) ((SenderKeyMessage) msg).setDistribution(trailer);
+    }
+}
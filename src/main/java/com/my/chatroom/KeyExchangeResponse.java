@@ -9,7 +9,8 @@ public class KeyExchangeResponse extends Message {
     private boolean success;
     private String message;
     private String targetUserId;      // 目标用户 ID
-    private String targetPublicKey;   // 目标用户的 Base64 编码公钥
+    private String targetPublicKey;   // 目标用户的 Base64 编码公钥 (RSA，对方不保留 RSA 时为 null)
+    private String targetAgreementKey; // 【新增】目标用户的 X25519 公钥，有则优先用密钥协商
 
     public KeyExchangeResponse() {
         super();
@@ -33,4 +34,6 @@ public class KeyExchangeResponse extends Message {
     public void setTargetUserId(String targetUserId) { this.targetUserId = targetUserId; }
     public String getTargetPublicKey() { return targetPublicKey; }
     public void setTargetPublicKey(String targetPublicKey) { this.targetPublicKey = targetPublicKey; }
+    public String getTargetAgreementKey() { return targetAgreementKey; }
+    public void setTargetAgreementKey(String targetAgreementKey) { this.targetAgreementKey = targetAgreementKey; }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.my.chatroom;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 登录耗时与联系人数量 (KeyUnlockReport)
+ * 作用：为不同数量的联系人生成已存档的会话密钥，对比登录时 initSecureStorage 的耗时：
+ * 旧做法在打开聊天窗口前解密全部密钥，新做法只读出密文，第一次 getSharedAesKey 时才解密。
+ *
+ * 用法：KeyUnlockReport [联系人数 ...]，默认 10 100 1000 10000
+ */
+public class KeyUnlockReport {
+
+    private static final String PASSWORD = "report-password";
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length > 0
+                ? java.util.Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10, 100, 1000, 10000};
+
+        Path dir = Files.createTempDirectory("key-unlock-report-");
+        System.setProperty("chat.client.dir", dir.toString());
+        SecretKey masterKey = EncryptionUtils.deriveKeyFromPassword(PASSWORD);
+
+        System.out.println();
+        System.out.println("================ 登录时的会话密钥加载 ================");
+        System.out.printf("%-10s %14s %14s %18s%n", "联系人", "全部解密", "按需解密", "首次取密钥");
+        for (int contacts : counts) {
+            String owner = "owner" + contacts;
+            for (int i = 0; i < contacts; i++) {
+                String keyBase64 = Base64.getEncoder().encodeToString(EncryptionUtils.generateAesKey().getEncoded());
+                DatabaseManager.saveSessionKey(owner, "friend" + i, EncryptionUtils.aesEncrypt(keyBase64, masterKey));
+            }
+            double eager = 0, lazy = 0, first = 0;
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                SearchIndex eagerIndex = eagerUnlock(owner);
+                double eagerMs = (System.nanoTime() - start) / 1e6;
+                eagerIndex.close();
+
+                Client client = new Client();
+                client.setCurrentUserId(owner);
+                start = System.nanoTime();
+                client.initSecureStorage(PASSWORD);
+                double lazyMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                client.getSharedAesKey("friend" + (contacts / 2));
+                double firstMs = (System.nanoTime() - start) / 1e6;
+                client.getSearchIndex().close();
+
+                if (round > 0) { // 第一轮用于预热
+                    eager += eagerMs;
+                    lazy += lazyMs;
+                    first += firstMs;
+                }
+            }
+            System.out.printf("%-10d %12.2fms %12.2fms %16.3fms%n", contacts, eager / ROUNDS, lazy / ROUNDS, first / ROUNDS);
+        }
+        System.out.println("======================================================");
+        System.exit(0);
+    }
+
+    /**
+     * 旧的 initSecureStorage：登录时逐个解密 (同样打开搜索索引，两边只差在密钥的处理上)
+     */
+    private static SearchIndex eagerUnlock(String owner) throws Exception {
+        SecretKey masterKey = EncryptionUtils.deriveKeyFromPassword(PASSWORD);
+        Map<String, SecretKey> keys = new HashMap<>();
+        for (Map.Entry<String, String> entry : DatabaseManager.getAllSessionKeys(owner).entrySet()) {
+            byte[] keyBytes = Base64.getDecoder().decode(EncryptionUtils.aesDecrypt(entry.getValue(), masterKey, true));
+            keys.put(entry.getKey(), new SecretKeySpec(keyBytes, "AES"));
+        }
+        return SearchIndex.open(DatabaseManager.localSearchIndexPath(owner + "-eager"), masterKey, owner + "-eager");
+    }
+}
@@ -0,0 +1,95 @@
+package com.my.chatroom;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 延迟直方图 (LatencyHistogram)
+ * 作用：多线程无锁记录延迟样本 (单位：微秒)，计算 p50/p99/p999 等分位数。
+ * 采用对数-线性分桶：每个 2 的幂区间再细分 32 个子桶，相对误差约 3%，内存固定不随样本数增长。
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一个样本 (微秒)，负数按 0 处理
+     */
+    public void record(long valueMicros) {
+        long value = Math.max(0, valueMicros);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        maxValue.accumulate(value);
+    }
+
+    public void recordNanos(long valueNanos) {
+        record(valueNanos / 1000);
+    }
+
+    public long count() { return totalCount.get(); }
+
+    public long max() { return maxValue.get(); }
+
+    public double mean() {
+        long n = totalCount.get();
+        return n == 0 ? 0 : (double) totalSum.get() / n;
+    }
+
+    /**
+     * @param percentile 0~100，例如 99.9
+     * @return 对应分位数所在桶的上界 (微秒)
+     */
+    public long percentile(double percentile) {
+        long n = totalCount.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.reset();
+    }
+
+    /**
+     * 一行摘要，单位毫秒
+     */
+    public String summary() {
+        return String.format("n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                count(), percentile(50) / 1000.0, percentile(99) / 1000.0,
+                percentile(99.9) / 1000.0, max() / 1000.0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
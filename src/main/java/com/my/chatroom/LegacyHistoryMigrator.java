@@ -0,0 +1,126 @@
+package com.my.chatroom;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 旧聊天记录在线迁移 (LegacyHistoryMigrator)
+ * 作用：把旧表 chat_history (Base64 文本 + DATETIME 字符串) 分批搬到 chat_messages (BLOB + epoch 毫秒 + 会话编号)。
+ * 每批在写连接上用一个短事务完成 (复制 + 删除旧行)，批与批之间让出写锁，应用在迁移期间照常读写；
+ * 迁移未完成时 SqliteStore 会同时查询新旧两张表。全部搬完后删除旧表并把 user_version 升到 3。
+ * 消息 id 原样保留，界面上已绑定的 id 不受影响。
+ */
+public class LegacyHistoryMigrator implements Runnable {
+
+    private static final int BATCH_SIZE = 500;
+    private static final long PAUSE_MILLIS = 20;
+
+    private final SqliteConnectionPool pool;
+    private final SqliteStore store;
+    private final Runnable onComplete;
+
+    public LegacyHistoryMigrator(SqliteConnectionPool pool, SqliteStore store, Runnable onComplete) {
+        this.pool = pool;
+        this.store = store;
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * 在后台守护线程中启动迁移
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "history-migrator");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        long moved = 0;
+        long start = System.currentTimeMillis();
+        try {
+            int batch;
+            while ((batch = pool.write(this::migrateBatch)) > 0) {
+                moved += batch;
+                Thread.sleep(PAUSE_MILLIS);
+            }
+            pool.write(conn -> {
+                Connection raw = conn.raw();
+                raw.setAutoCommit(false);
+                try (Statement stmt = raw.createStatement()) {
+                    stmt.execute("DROP TABLE chat_history");
+                    stmt.execute("PRAGMA user_version = 3");
+                    raw.commit();
+                } catch (SQLException e) {
+                    raw.rollback();
+                    store.clearConversationCache();
+                    throw e;
+                } finally {
+                    raw.setAutoCommit(true);
+                }
+                return null;
+            });
+            System.out.println("聊天记录迁移完成: " + moved + " 条，用时 " + (System.currentTimeMillis() - start) + "ms");
+            onComplete.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            // 下次启动会从剩余的旧记录继续
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 迁移中断，已迁移 {} 条 {}", moved, e);
+        }
+    }
+
+    private int migrateBatch(SqliteConnectionPool.PooledConnection conn) throws SQLException {
+        Connection raw = conn.raw();
+        raw.setAutoCommit(false);
+        try {
+            List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+            PreparedStatement select = conn.prepare(
+                    "SELECT id, user_id, target_id, is_sender, encrypted_content,"
+                    + " COALESCE(CAST(strftime('%s', timestamp) AS INTEGER) * 1000, 0)"
+                    + " FROM chat_history ORDER BY id LIMIT " + BATCH_SIZE);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Object[]{rs.getLong(1), rs.getString(2), rs.getString(3),
+                            rs.getInt(4), rs.getString(5), rs.getLong(6)});
+                }
+            }
+            if (rows.isEmpty()) {
+                raw.commit();
+                return 0;
+            }
+
+            PreparedStatement insert = conn.prepare(
+                    "INSERT INTO chat_messages (id, conversation_id, is_sender, encoding, content, created_at) VALUES (?, ?, ?, ?, ?, ?)");
+            for (Object[] row : rows) {
+                HistoryContent content = HistoryContent.encodeLegacy((String) row[4]);
+                insert.setLong(1, (Long) row[0]);
+                insert.setLong(2, store.conversationId(conn, (String) row[1], (String) row[2]));
+                insert.setInt(3, (Integer) row[3]);
+                insert.setInt(4, content.encoding);
+                insert.setBytes(5, content.bytes);
+                insert.setLong(6, (Long) row[5]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+
+            PreparedStatement delete = conn.prepare("DELETE FROM chat_history WHERE id <= ?");
+            delete.setLong(1, (Long) rows.get(rows.size() - 1)[0]);
+            delete.executeUpdate();
+            raw.commit();
+            return rows.size();
+        } catch (SQLException e) {
+            raw.rollback();
+            store.clearConversationCache();
+            throw e;
+        } finally {
+            raw.setAutoCommit(true);
+        }
+    }
+}
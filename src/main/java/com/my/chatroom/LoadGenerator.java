@@ -0,0 +1,391 @@
+package com.my.chatroom;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 开环压测工具 (LoadGenerator)，取代原来的 StressTest
+ * 1. 所有机器人共用 SharedClientTransport 的 EventLoopGroup，RSA 密钥只生成一小组循环复用。
+ * 2. 开环调度：按泊松过程预先确定每条消息的"计划发送时间"，不会因为服务端变慢而少发。
+ * 3. 延迟从计划发送时间算起 (修正 coordinated omission)，而不是从实际写出时间算起。
+ * 4. 混合负载：私聊 / 阅后即焚 / 图片 / 群聊 / 密钥交换，分别统计 p50/p99/p999 与吞吐量。
+ *
+ * 用法：LoadGenerator [host] [port] [机器人数] [消息/秒] [持续秒数] [负载配比]
+ * 负载配比示例：private=50,burn=15,image=5,group=5,key=10
+ */
+public class LoadGenerator {
+
+    enum Workload {
+        PRIVATE(50), BURN_AFTER_READ(15), IMAGE(5), GROUP(5), KEY_EXCHANGE(10);
+
+        int weight;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+
+        Workload(int weight) { this.weight = weight; }
+
+        void reset() {
+            latency.reset();
+            sent.set(0);
+            received.set(0);
+        }
+    }
+
+    // 载荷标记：LG|<计划发送时间 nanoTime>|<填充>
+    private static final String MARKER = "LG|";
+    private static final int MAX_CONCURRENT_LOGINS = 50;
+    private static final long WARMUP_SECONDS = 5;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String host;
+    private final int port;
+    private final int botCount;
+    private final double ratePerSecond;
+    private final long durationSeconds;
+    private final int imageBytes;
+
+    private final List<Bot> onlineBots = new ArrayList<>();
+    private final AtomicLong groupFanOut = new AtomicLong();
+    private final LongAccumulator maxScheduleLagNanos = new LongAccumulator(Math::max, 0);
+    // 计划发送时间早于该时刻的消息 (预热阶段) 不计入统计
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+    private final String textPadding;
+    private final String imagePadding;
+
+    public LoadGenerator(String host, int port, int botCount, double ratePerSecond, long durationSeconds, int imageBytes) {
+        this.host = host;
+        this.port = port;
+        this.botCount = botCount;
+        this.ratePerSecond = ratePerSecond;
+        this.durationSeconds = durationSeconds;
+        this.imageBytes = imageBytes;
+        this.textPadding = randomBase64(96);
+        this.imagePadding = randomBase64(imageBytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8888;
+        int bots = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 2000;
+        long duration = args.length > 4 ? Long.parseLong(args[4]) : 60;
+        if (args.length > 5) applyMix(args[5]);
+
+        new LoadGenerator(host, port, bots, rate, duration, 64 * 1024).run();
+    }
+
+    private static void applyMix(String mix) {
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            switch (kv[0].trim().toLowerCase()) {
+                case "private": Workload.PRIVATE.weight = weight; break;
+                case "burn": Workload.BURN_AFTER_READ.weight = weight; break;
+                case "image": Workload.IMAGE.weight = weight; break;
+                case "group": Workload.GROUP.weight = weight; break;
+                case "key": Workload.KEY_EXCHANGE.weight = weight; break;
+                default: throw new IllegalArgumentException("未知负载类型: " + kv[0]);
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println("🚀 开环压测: " + botCount + " 个机器人, 目标 " + ratePerSecond + " msg/s, 持续 " + durationSeconds + "s");
+
+        try (SharedClientTransport transport = new SharedClientTransport(host, port, 0)) {
+            loginAll(transport);
+            if (onlineBots.size() < 2) {
+                System.err.println("❌ 在线机器人不足，压测中止。");
+                return;
+            }
+
+            long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+            measureFromNanos = measureStart;
+            drive(measureStart);
+            for (Workload w : Workload.values()) w.reset();
+            groupFanOut.set(0);
+            maxScheduleLagNanos.reset();
+
+            drive(measureStart + TimeUnit.SECONDS.toNanos(durationSeconds));
+            // 测量窗口到最后一条消息发出为止；之后留给在途消息送达的时间不计入，否则吞吐量被低估
+            long measureEnd = System.nanoTime();
+            Thread.sleep(2000);
+            report(measureEnd - measureStart);
+
+            for (Bot bot : onlineBots) bot.channel.close();
+        }
+    }
+
+    // ================= 登录阶段 =================
+
+    private void loginAll(SharedClientTransport transport) throws Exception {
+        String runId = UUID.randomUUID().toString().substring(0, 4);
+        Map<Integer, Bot> loggedIn = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(botCount);
+        Semaphore inFlight = new Semaphore(MAX_CONCURRENT_LOGINS);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < botCount; i++) {
+            inFlight.acquire();
+            Bot bot = new Bot(i, "LG_" + runId + "_" + i);
+            bot.onLogin = success -> {
+                if (success) loggedIn.put(bot.index, bot);
+                inFlight.release();
+                done.countDown();
+            };
+            // 【修改】每个机器人各自生成 X25519 公钥 (与新客户端相同)，不再共用预先生成的几对 RSA 密钥
+            String agreementKey = Base64.getEncoder().encodeToString(EncryptionUtils.generateAgreementKeyPair().getPublic().getEncoded());
+            transport.connect(new BotHandler(bot)).addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    bot.channel = f.channel();
+                    LoginRequest login = new LoginRequest(bot.userId, "password123", null);
+                    login.setAgreementKey(agreementKey);
+                    bot.channel.writeAndFlush(login);
+                } else {
+                    bot.onLogin.accept(false);
+                }
+            });
+        }
+
+        if (!done.await(5, TimeUnit.MINUTES)) {
+            System.err.println("⚠️ 部分机器人登录超时");
+        }
+        onlineBots.addAll(loggedIn.values());
+        System.out.printf("✅ 登录完成: %d/%d 在线, 用时 %.1fs%n",
+                onlineBots.size(), botCount, (System.nanoTime() - start) / 1e9);
+    }
+
+    // ================= 开环发送 =================
+
+    private void drive(long endNanos) {
+        int totalWeight = 0;
+        for (Workload w : Workload.values()) totalWeight += w.weight;
+        double meanIntervalNanos = 1e9 / ratePerSecond;
+        Random random = new Random();
+
+        long intended = System.nanoTime();
+        long nextReport = intended + REPORT_INTERVAL_NANOS;
+        long lastSent = 0;
+
+        while (true) {
+            // 泊松到达：间隔服从指数分布
+            intended += (long) (-Math.log(1 - random.nextDouble()) * meanIntervalNanos);
+            if (intended > endNanos) break;
+
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            maxScheduleLagNanos.accumulate(now - intended);
+
+            Workload workload = pick(random.nextInt(totalWeight));
+            Bot sender = onlineBots.get(random.nextInt(onlineBots.size()));
+            send(sender, workload, intended, random);
+
+            if (now >= nextReport) {
+                long sentTotal = totalSent();
+                System.out.printf("[进度] 发送 %.0f msg/s | 私聊 %s%n",
+                        (sentTotal - lastSent) * 1e9 / REPORT_INTERVAL_NANOS, Workload.PRIVATE.latency.summary());
+                lastSent = sentTotal;
+                nextReport += REPORT_INTERVAL_NANOS;
+            }
+        }
+    }
+
+    private static Workload pick(int roll) {
+        for (Workload w : Workload.values()) {
+            if (roll < w.weight) return w;
+            roll -= w.weight;
+        }
+        return Workload.PRIVATE;
+    }
+
+    private void send(Bot sender, Workload workload, long intended, Random random) {
+        String targetId = pickTarget(sender, random);
+        Message msg;
+        switch (workload) {
+            case PRIVATE: {
+                TextMessage text = new TextMessage(sender.userId, MARKER + intended + "|" + textPadding);
+                text.setTargetUserId(targetId);
+                msg = text;
+                break;
+            }
+            case BURN_AFTER_READ: {
+                BurnAfterReadMessage burn = new BurnAfterReadMessage(sender.userId, MARKER + intended + "|" + textPadding);
+                burn.setTargetUserId(targetId);
+                msg = burn;
+                break;
+            }
+            case IMAGE:
+                msg = new ImageMessage(sender.userId, MARKER + intended + "|" + imagePadding, targetId);
+                break;
+            case GROUP: {
+                TextMessage group = new TextMessage(sender.userId, MARKER + intended + "|" + textPadding);
+                group.setTargetUserId("ALL");
+                msg = group;
+                break;
+            }
+            default:
+                sender.pendingKeyExchanges.add(intended);
+                msg = new KeyExchangeRequest(sender.userId, targetId);
+                break;
+        }
+        workload.sent.incrementAndGet();
+        // 非 I/O 线程调用，写操作被投递到该连接所属的 EventLoop，不会阻塞调度线程
+        sender.channel.writeAndFlush(msg);
+    }
+
+    private String pickTarget(Bot sender, Random random) {
+        Bot target;
+        do {
+            target = onlineBots.get(random.nextInt(onlineBots.size()));
+        } while (target == sender);
+        return target.userId;
+    }
+
+    private long totalSent() {
+        long sum = 0;
+        for (Workload w : Workload.values()) sum += w.sent.get();
+        return sum;
+    }
+
+    // ================= 结果 =================
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long sent = 0, received = 0;
+        System.out.println();
+        System.out.println("==================== 压测结果 ====================");
+        System.out.printf("在线机器人: %d  目标速率: %.0f msg/s  图片大小: %d KB%n",
+                onlineBots.size(), ratePerSecond, imageBytes / 1024);
+        for (Workload w : Workload.values()) {
+            sent += w.sent.get();
+            received += w.received.get();
+            System.out.printf("%-16s 发送 %8d  送达 %8d  %s%n",
+                    w.name(), w.sent.get(), w.received.get(), w.latency.summary());
+        }
+        System.out.printf("吞吐量: 发送 %.0f msg/s, 送达 %.0f msg/s, 群聊扇出 %.0f msg/s%n",
+                sent / seconds, received / seconds, groupFanOut.get() / seconds);
+        System.out.printf("调度器最大滞后: %.2fms (延迟已从计划发送时间计算)%n", maxScheduleLagNanos.get() / 1e6);
+        System.out.println("==================================================");
+    }
+
+    private static String randomBase64(int rawBytes) {
+        byte[] bytes = new byte[rawBytes];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static long parseIntended(String content) {
+        if (content == null || !content.startsWith(MARKER)) return -1;
+        int end = content.indexOf('|', MARKER.length());
+        if (end < 0) return -1;
+        return Long.parseLong(content, MARKER.length(), end, 10);
+    }
+
+    // ================= 机器人 =================
+
+    private static final class Bot {
+        final int index;
+        final String userId;
+        final Queue<Long> pendingKeyExchanges = new ConcurrentLinkedQueue<>();
+        volatile Channel channel;
+        Consumer<Boolean> onLogin;
+        boolean loginReported;
+
+        Bot(int index, String userId) {
+            this.index = index;
+            this.userId = userId;
+        }
+    }
+
+    private final class BotHandler extends SimpleChannelInboundHandler<Message> {
+
+        private final Bot bot;
+
+        BotHandler(Bot bot) { this.bot = bot; }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
+            long now = System.nanoTime();
+            switch (msg.getType()) {
+                case LOGIN_RESPONSE:
+                    if (!bot.loginReported) {
+                        bot.loginReported = true;
+                        bot.onLogin.accept(((LoginResponse) msg).isSuccess());
+                    }
+                    break;
+                case TEXT_MESSAGE_ENCRYPTED: {
+                    TextMessage text = (TextMessage) msg;
+                    if ("ALL".equals(text.getTargetUserId())) {
+                        if (parseIntended(text.getContent()) >= measureFromNanos) groupFanOut.incrementAndGet();
+                        // 群聊只在发送者收到自己的回显时记一次延迟
+                        if (bot.userId.equals(text.getSenderId())) record(Workload.GROUP, text.getContent(), now);
+                    } else {
+                        record(Workload.PRIVATE, text.getContent(), now);
+                    }
+                    break;
+                }
+                case BURN_AFTER_READ:
+                    record(Workload.BURN_AFTER_READ, ((BurnAfterReadMessage) msg).getEncryptedContent(), now);
+                    break;
+                case IMAGE_MESSAGE:
+                    record(Workload.IMAGE, ((ImageMessage) msg).getBase64Content(), now);
+                    break;
+                case KEY_EXCHANGE_RESPONSE: {
+                    // 同一连接上的请求按顺序应答，队首即对应的计划发送时间
+                    Long intended = bot.pendingKeyExchanges.poll();
+                    if (intended != null && intended >= measureFromNanos) {
+                        Workload.KEY_EXCHANGE.received.incrementAndGet();
+                        Workload.KEY_EXCHANGE.latency.recordNanos(now - intended);
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private void record(Workload workload, String content, long now) {
+            long intended = parseIntended(content);
+            if (intended < measureFromNanos) return;
+            workload.received.incrementAndGet();
+            workload.latency.recordNanos(now - intended);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!bot.loginReported) {
+                bot.loginReported = true;
+                bot.onLogin.accept(false);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("💥 [" + bot.userId + "] 连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package com.my.chatroom;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * 日志结构存储引擎 (LogStructuredStore)
+ * 作用：所有写入 (消息、删除、用户、会话密钥) 都只追加到内存映射的段文件 (segment-NNNNNN.log) 末尾，
+ * 不做原地修改，也没有 B 树维护和事务日志的开销。
+ *
+ * - 段文件按固定大小 (-Dchat.store.segmentMB，默认 64) 预分配并整体 mmap，写满后滚动到下一个段
+ * - 每条消息记录带有同一会话上一条消息的位置，形成向前的链表；内存中每个会话只保存最新位置，
+ *   外加每 SPARSE_INTERVAL 条一个 (id, 位置) 检查点组成的稀疏索引，翻页时先二分检查点再沿链表向前走
+ * - 删除追加一条墓碑记录；用户和会话密钥数量很少，全部常驻内存，日志只负责持久化
+ * - 启动时顺序重放所有段文件重建内存索引；长度字段最后写入，写到一半的记录在重放时被忽略
+ * - 墓碑超过消息总数的 1/COMPACT_RATIO 时，reclaimSpace() 把存活记录重写到新一代目录 gen-NNNNNN/ 下的段文件 (压缩)，
+ *   重写期间阻塞读写；新段写完并落盘后，用一次原子重命名把 CURRENT 指向新一代，之后才删除旧段。
+ *   中途崩溃时，CURRENT 仍指向旧一代 (新一代在下次启动时丢弃) 或已指向新一代 (旧段在下次启动时删除，重复删除无害)
+ *
+ * 记录格式：[int 长度][byte 类型][内容]，长度为 0 表示段内已无数据。
+ * flush() / close() 把活动段强制刷盘；两次 flush 之间进程崩溃不丢数据 (页缓存由操作系统负责写回)，掉电可能丢失最近的写入。
+ */
+public class LogStructuredStore implements MessageStore, UserStore {
+
+    private static final byte TYPE_MESSAGE = 1;
+    private static final byte TYPE_CONVERSATION = 2;
+    private static final byte TYPE_DELETE = 3;
+    private static final byte TYPE_USER = 4;
+    private static final byte TYPE_SESSION_KEY = 5;
+    private static final byte TYPE_SEQUENCE = 6;        // 压缩后的日志开头记下下一个 id，避免删掉的最新消息 id 被复用
+
+    private static final int HEADER_BYTES = 5;          // 长度 + 类型
+    private static final int MESSAGE_FIXED_BYTES = 34;  // id + 会话 + 前一条位置 + 发送方 + 编码 + 时间 + 内容长度
+    private static final int SPARSE_INTERVAL = 16;
+    private static final int COMPACT_RATIO = 4;
+    private static final long NO_POSITION = -1;
+    private static final String CURRENT_FILE = "CURRENT";          // 内容为当前一代的目录名；不存在时段文件直接在 dir 下 (第 0 代)
+    private static final String GENERATION_PATTERN = "gen-\\d{6}";
+
+    private final Path dir;
+    private Path segmentDir;                             // 当前一代段文件所在目录
+    private int generation;
+    private final int segmentBytes;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    // 读取方沿链表遍历时持有读锁；压缩替换段文件时持有写锁
+    private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+
+    // 以下状态的修改都在 this 锁内；读取方在锁内取得会话的最新位置后，沿链表读取段文件不需要加锁
+    private MappedByteBuffer active;
+    private int writeOffset;
+    private long sealedBytes;                            // 已写满 (非活动) 段中实际写入的字节数
+    private long nextId = 1;
+    private long messageCount;
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private final List<Conversation> conversationsById = new ArrayList<>();
+    private final Set<Long> deleted = ConcurrentHashMap.newKeySet();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> sessionKeys = new ConcurrentHashMap<>();
+    private long ageScanStart = 0; // 按时间清理时的扫描起点，之前的消息都已删除 (只在清理线程中使用)
+
+    public LogStructuredStore(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        openGeneration();
+        long start = System.currentTimeMillis();
+        int records = recover();
+        if (records > 0) {
+            System.out.println("日志存储已加载: " + segments.size() + " 个段, " + records + " 条记录, 用时 "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    // --- 段文件 ---
+
+    private synchronized int recover() throws IOException {
+        int records = 0;
+        for (Path file : segmentFiles(segmentDir)) {
+            MappedByteBuffer segment = map(file, Files.size(file));
+            segments.add(segment);
+            int offset = 0;
+            int length;
+            while (offset + HEADER_BYTES <= segment.limit()
+                    && (length = segment.getInt(offset)) > 0
+                    && offset + 4 + length <= segment.limit()) {
+                replay(position(segments.size() - 1, offset), segment, offset);
+                offset += 4 + length;
+                records++;
+            }
+            if (active != null) sealedBytes += writeOffset;
+            active = segment;
+            writeOffset = offset;
+        }
+        if (active == null) roll(segmentBytes);
+        return records;
+    }
+
+    private static List<Path> segmentFiles(Path dir) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(p -> p.getFileName().toString().matches("segment-\\d{6}\\.log")).sorted().toList();
+        }
+    }
+
+    private MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭后依然有效
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void roll(int size) throws IOException {
+        if (active != null) {
+            active.force();
+            sealedBytes += writeOffset;
+        }
+        Path file = segmentDir.resolve(String.format("segment-%06d.log", segments.size()));
+        active = map(file, size);
+        segments.add(active);
+        writeOffset = 0;
+    }
+
+    /**
+     * 在活动段末尾预留一条记录的空间 (必须持有 this 锁)，返回写入内容用的切片；
+     * 调用方写完内容后调用 commit 写入长度，记录才对重放可见
+     */
+    private ByteBuffer reserve(byte type, int bodyBytes) throws IOException {
+        int size = HEADER_BYTES + bodyBytes;
+        if (writeOffset + size + 4 > active.limit()) {
+            roll(Math.max(segmentBytes, size + 4));
+        }
+        active.put(writeOffset + 4, type);
+        return active.slice(writeOffset + HEADER_BYTES, bodyBytes);
+    }
+
+    private long commit(int bodyBytes) {
+        long position = position(segments.size() - 1, writeOffset);
+        int next = writeOffset + HEADER_BYTES + bodyBytes;
+        // 先清零下一条的长度 (reserve 保证留有 4 字节)：崩溃前未提交的预留内容可能还在这里，重放必须在此停下
+        active.putInt(next, 0);
+        active.putInt(writeOffset, 1 + bodyBytes);
+        writeOffset = next;
+        return position;
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private MappedByteBuffer segmentOf(long position) {
+        return segments.get((int) (position >>> 32));
+    }
+
+    // --- 重放 ---
+
+    private void replay(long position, MappedByteBuffer segment, int offset) {
+        ByteBuffer body = segment.slice(offset + HEADER_BYTES, segment.getInt(offset) - 1);
+        switch (segment.get(offset + 4)) {
+            case TYPE_MESSAGE -> {
+                long id = body.getLong(0);
+                indexMessage(conversationsById.get(body.getInt(8)), id, position);
+                nextId = Math.max(nextId, id + 1);
+            }
+            case TYPE_CONVERSATION -> {
+                int id = body.getInt();
+                Conversation conversation = new Conversation(id, readString(body), readString(body));
+                conversations.put(conversation.key(), conversation);
+                conversationsById.add(conversation);
+            }
+            case TYPE_DELETE -> deleted.add(body.getLong(0));
+            case TYPE_USER -> {
+                User user = new User(readString(body), readString(body));
+                user.setPublicKey(readString(body));
+                users.put(user.getUserId(), user);
+            }
+            case TYPE_SESSION_KEY -> {
+                String ownerId = readString(body);
+                String targetId = readString(body);
+                sessionKeys.computeIfAbsent(ownerId, k -> new ConcurrentHashMap<>()).put(targetId, readString(body));
+            }
+            case TYPE_SEQUENCE -> nextId = Math.max(nextId, body.getLong(0));
+            default -> throw new IllegalStateException("未知的日志记录类型 " + segment.get(offset + 4) + " @" + position);
+        }
+    }
+
+    private void indexMessage(Conversation conversation, long id, long position) {
+        if (conversation.count++ % SPARSE_INTERVAL == 0) conversation.addCheckpoint(id, position);
+        conversation.head = position;
+        messageCount++;
+    }
+
+    // --- 聊天记录 ---
+
+    @Override
+    public CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, String encryptedContent) {
+        HistoryContent content = HistoryContent.encode(encryptedContent);
+        try {
+            synchronized (this) {
+                long id = nextId;
+                appendMessage(conversation(userId, targetId), id, isSender, content.encoding,
+                        System.currentTimeMillis(), content.bytes);
+                return CompletableFuture.completedFuture(id);
+            }
+        } catch (IOException | RuntimeException e) {
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 日志追加失败 {} {}", userId, e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 追加一条消息记录并更新索引 (必须持有 this 锁)
+     */
+    private void appendMessage(Conversation conversation, long id, boolean isSender, int encoding,
+                               long createdAt, byte[] bytes) throws IOException {
+        int bodyBytes = MESSAGE_FIXED_BYTES + bytes.length;
+        reserve(TYPE_MESSAGE, bodyBytes)
+                .putLong(id)
+                .putInt(conversation.id)
+                .putLong(conversation.head)
+                .put((byte) (isSender ? 1 : 0))
+                .put((byte) encoding)
+                .putLong(createdAt)
+                .putInt(bytes.length)
+                .put(bytes);
+        indexMessage(conversation, id, commit(bodyBytes));
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    private Conversation conversation(String userId, String targetId) throws IOException {
+        Conversation conversation = conversations.get(userId + '\u0000' + targetId);
+        if (conversation == null) {
+            conversation = new Conversation(conversationsById.size(), userId, targetId);
+            byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+            byte[] target = targetId.getBytes(StandardCharsets.UTF_8);
+            int bodyBytes = 4 + 4 + user.length + 4 + target.length;
+            ByteBuffer body = reserve(TYPE_CONVERSATION, bodyBytes).putInt(conversation.id);
+            writeString(body, user);
+            writeString(body, target);
+            commit(bodyBytes);
+            conversations.put(conversation.key(), conversation);
+            conversationsById.add(conversation);
+        }
+        return conversation;
+    }
+
+    @Override
+    public void flush() {
+        // 持有读锁：压缩在写锁下解除旧段的映射，对已解除映射的缓冲区 force 会让 JVM 崩溃
+        layoutLock.readLock().lock();
+        try {
+            MappedByteBuffer segment;
+            synchronized (this) {
+                segment = active;
+            }
+            segment.force();
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<HistoryRecord> getHistoryPage(String userId, String targetId, long beforeId, int limit) {
+        List<HistoryRecord> page = new ArrayList<>(Math.min(limit, 1024));
+        layoutLock.readLock().lock();
+        try {
+            long position;
+            synchronized (this) {
+                Conversation conversation = conversations.get(userId + '\u0000' + targetId);
+                if (conversation == null) return page;
+                position = conversation.startFor(beforeId);
+            }
+            while (position != NO_POSITION && page.size() < limit) {
+                MappedByteBuffer segment = segmentOf(position);
+                int offset = (int) position + HEADER_BYTES;
+                long id = segment.getLong(offset);
+                if (id < beforeId && !deleted.contains(id)) {
+                    byte[] bytes = new byte[segment.getInt(offset + 30)];
+                    segment.get(offset + MESSAGE_FIXED_BYTES, bytes);
+                    int encoding = segment.get(offset + 21);
+                    page.add(new HistoryRecord(id, segment.get(offset + 20) == 1, HistoryContent.decode(encoding, bytes),
+                            segment.getLong(offset + 22), HistoryContent.isLegacy(encoding)));
+                }
+                position = segment.getLong(offset + 12);
+            }
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    @Override
+    public synchronized boolean deleteMessage(long messageId) {
+        if (messageId <= 0 || messageId >= nextId || deleted.contains(messageId)) return false;
+        try {
+            reserve(TYPE_DELETE, 8).putLong(messageId);
+            commit(8);
+            deleted.add(messageId);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // --- 保留策略与压缩 ---
+
+    /**
+     * 找出过期消息并追加墓碑；空间在下一次 reclaimSpace() 压缩时回收
+     */
+    @Override
+    public int purgeExpired(RetentionPolicy policy, int maxRows) {
+        if (!policy.isEnabled()) return 0;
+        List<Long> expired = new ArrayList<>();
+        layoutLock.readLock().lock();
+        try {
+            if (policy.hasMaxAge()) collectByAge(policy.cutoffMillis(), maxRows, expired);
+            if (expired.size() < maxRows && policy.hasMaxPerConversation()) {
+                collectByCount(policy.getMaxPerConversation(), maxRows, expired);
+            }
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+        int count = 0;
+        for (long id : expired) {
+            if (deleteMessage(id)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * id 与写入时间同序：从最旧的记录顺序扫描，遇到第一条未过期的消息即停止
+     */
+    private void collectByAge(long cutoffMillis, int maxRows, List<Long> out) {
+        int lastSegment;
+        int end;
+        synchronized (this) {
+            lastSegment = segments.size() - 1;
+            end = writeOffset;
+        }
+        for (int s = (int) (ageScanStart >>> 32); s <= lastSegment; s++) {
+            MappedByteBuffer segment = segments.get(s);
+            int limit = s == lastSegment ? end : segment.limit();
+            int offset = s == (int) (ageScanStart >>> 32) ? (int) ageScanStart : 0;
+            int length;
+            while (offset + HEADER_BYTES <= limit && (length = segment.getInt(offset)) > 0) {
+                if (segment.get(offset + 4) == TYPE_MESSAGE) {
+                    if (segment.getLong(offset + HEADER_BYTES + 22) >= cutoffMillis || out.size() >= maxRows) {
+                        ageScanStart = position(s, offset);
+                        return;
+                    }
+                    long id = segment.getLong(offset + HEADER_BYTES);
+                    if (!deleted.contains(id)) out.add(id);
+                }
+                offset += 4 + length;
+            }
+        }
+        ageScanStart = position(lastSegment, end);
+    }
+
+    /**
+     * 沿每个超出上限的会话链表向前走，跳过最新的 maxPerConversation 条存活消息，之后的都过期
+     */
+    private void collectByCount(int maxPerConversation, int maxRows, List<Long> out) {
+        List<Long> heads = new ArrayList<>();
+        synchronized (this) {
+            for (Conversation conversation : conversationsById) {
+                if (conversation.count > maxPerConversation) heads.add(conversation.head);
+            }
+        }
+        for (long position : heads) {
+            int live = 0;
+            while (position != NO_POSITION) {
+                MappedByteBuffer segment = segmentOf(position);
+                int offset = (int) position + HEADER_BYTES;
+                long id = segment.getLong(offset);
+                if (!deleted.contains(id) && live++ >= maxPerConversation && !out.contains(id)) {
+                    out.add(id);
+                    if (out.size() >= maxRows) return;
+                }
+                position = segment.getLong(offset + 12);
+            }
+        }
+    }
+
+    @Override
+    public long reclaimSpace() {
+        synchronized (this) {
+            if (deleted.isEmpty() || deleted.size() * (long) COMPACT_RATIO < messageCount) return 0;
+        }
+        layoutLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                return compact();
+            }
+        } catch (IOException e) {
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 日志压缩失败 {} {}", dir, e);
+            return 0;
+        } finally {
+            layoutLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把存活记录按原顺序 (保留原 id 和时间) 写入下一代目录的新段文件，落盘后切换 CURRENT，再删除旧段
+     */
+    private long compact() throws IOException {
+        long start = System.currentTimeMillis();
+        long before = writtenBytes();
+        String nextName = String.format("gen-%06d", generation + 1);
+        Path next = dir.resolve(nextName);
+        deleteRecursively(next);
+        LogStructuredStore target = new LogStructuredStore(next, segmentBytes);
+        synchronized (target) {
+            target.reserve(TYPE_SEQUENCE, 8).putLong(nextId);
+            target.commit(8);
+            for (User user : users.values()) target.writeUser(user);
+            for (Map.Entry<String, Map<String, String>> owner : sessionKeys.entrySet()) {
+                for (Map.Entry<String, String> key : owner.getValue().entrySet()) {
+                    target.writeSessionKey(owner.getKey(), key.getKey(), key.getValue());
+                }
+            }
+            for (MappedByteBuffer segment : segments) {
+                int offset = 0;
+                int length;
+                while (offset + HEADER_BYTES <= segment.limit() && (length = segment.getInt(offset)) > 0) {
+                    int body = offset + HEADER_BYTES;
+                    if (segment.get(offset + 4) == TYPE_MESSAGE && !deleted.contains(segment.getLong(body))) {
+                        Conversation source = conversationsById.get(segment.getInt(body + 8));
+                        byte[] bytes = new byte[segment.getInt(body + 30)];
+                        segment.get(body + MESSAGE_FIXED_BYTES, bytes);
+                        target.appendMessage(target.conversation(source.userId, source.targetId), segment.getLong(body),
+                                segment.get(body + 20) == 1, segment.get(body + 21), segment.getLong(body + 22), bytes);
+                    }
+                    offset += 4 + length;
+                }
+            }
+            for (MappedByteBuffer segment : target.segments) segment.force();
+        }
+        for (MappedByteBuffer segment : target.segments) unmap(segment);
+        switchGeneration(nextName);
+
+        for (MappedByteBuffer segment : segments) unmap(segment);
+        segments.clear();
+        active = null;
+        sealedBytes = 0;
+        conversations.clear();
+        conversationsById.clear();
+        deleted.clear();
+        messageCount = 0;
+        ageScanStart = 0;
+        segmentDir = next;
+        generation++;
+        deleteStaleGenerations();
+        // 用户和会话密钥不清空 (其它线程可能正在读取)，重放只会写入相同的值
+        recover();
+
+        // 段文件按固定大小预分配，文件大小之差只能反映整段的增减；这里按实际写入的字节数计算
+        long reclaimed = before - writtenBytes();
+        System.out.println("日志压缩完成: 回收 " + reclaimed / 1024 + "KB, 用时 " + (System.currentTimeMillis() - start) + "ms");
+        return reclaimed;
+    }
+
+    /**
+     * 启动时按 CURRENT 确定当前一代，并清理上次压缩留下的另一代 (未完成的新一代或已被替换的旧一代)
+     */
+    private void openGeneration() throws IOException {
+        Path current = dir.resolve(CURRENT_FILE);
+        if (Files.exists(current)) {
+            String name = Files.readString(current, StandardCharsets.UTF_8).trim();
+            if (!name.matches(GENERATION_PATTERN)) throw new IOException("无效的 CURRENT 文件: " + name);
+            segmentDir = dir.resolve(name);
+            generation = Integer.parseInt(name.substring(4));
+        } else {
+            segmentDir = dir;
+            generation = 0;
+        }
+        Files.createDirectories(segmentDir);
+        deleteStaleGenerations();
+    }
+
+    /**
+     * 先写临时文件并落盘，再原子重命名为 CURRENT：切换要么完全生效，要么完全没有发生
+     */
+    private void switchGeneration(String name) throws IOException {
+        Path tmp = dir.resolve(CURRENT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(CURRENT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除不属于当前一代的段文件和目录；只删除已不被 CURRENT 引用的文件，可以重复执行
+     */
+    private void deleteStaleGenerations() throws IOException {
+        if (!segmentDir.equals(dir)) {
+            for (Path old : segmentFiles(dir)) Files.delete(old);
+        }
+        Files.deleteIfExists(dir.resolve(CURRENT_FILE + ".tmp"));
+        try (Stream<Path> list = Files.list(dir)) {
+            for (Path p : list.filter(Files::isDirectory).toList()) {
+                if (p.getFileName().toString().matches(GENERATION_PATTERN) && !p.equals(segmentDir)) deleteRecursively(p);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+
+    /**
+     * 立即解除映射 (否则要等 GC；Windows 上映射中的文件无法删除)。调用方保证之后没有线程再访问这块内存
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 不支持时交给 GC 回收
+        }
+    }
+
+    /**
+     * 所有段中实际写入的字节数 (活动段只算到 writeOffset)，必须持有 this 锁
+     */
+    private long writtenBytes() {
+        return sealedBytes + writeOffset;
+    }
+
+    @Override
+    public long sizeBytes() {
+        long bytes = 0;
+        for (MappedByteBuffer segment : segments) bytes += segment.limit();
+        return bytes;
+    }
+
+    // --- 用户 ---
+
+    @Override
+    public synchronized boolean insertUser(User user) {
+        if (users.containsKey(user.getUserId())) return false;
+        return writeUser(user);
+    }
+
+    @Override
+    public User loadUser(String userId) {
+        User user = users.get(userId);
+        if (user == null) return null;
+        User copy = new User(user.getUserId(), user.getPasswordHash());
+        copy.setPublicKey(user.getPublicKey());
+        return copy;
+    }
+
+    @Override
+    public synchronized boolean updatePublicKey(String userId, String publicKey) {
+        User existing = users.get(userId);
+        if (existing == null) return true;
+        User updated = new User(userId, existing.getPasswordHash());
+        updated.setPublicKey(publicKey);
+        return writeUser(updated);
+    }
+
+    private boolean writeUser(User user) {
+        byte[] id = user.getUserId().getBytes(StandardCharsets.UTF_8);
+        byte[] hash = user.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        byte[] key = user.getPublicKey() == null ? null : user.getPublicKey().getBytes(StandardCharsets.UTF_8);
+        int bodyBytes = 12 + id.length + hash.length + (key == null ? 0 : key.length);
+        try {
+            ByteBuffer body = reserve(TYPE_USER, bodyBytes);
+            writeString(body, id);
+            writeString(body, hash);
+            writeString(body, key);
+            commit(bodyBytes);
+        } catch (IOException e) {
+            return false;
+        }
+        User stored = new User(user.getUserId(), user.getPasswordHash());
+        stored.setPublicKey(user.getPublicKey());
+        users.put(stored.getUserId(), stored);
+        return true;
+    }
+
+    // --- 会话密钥 ---
+
+    @Override
+    public synchronized boolean saveSessionKey(String ownerId, String targetId, String encryptedKeyBlob) {
+        return writeSessionKey(ownerId, targetId, encryptedKeyBlob);
+    }
+
+    private boolean writeSessionKey(String ownerId, String targetId, String encryptedKeyBlob) {
+        byte[] owner = ownerId.getBytes(StandardCharsets.UTF_8);
+        byte[] target = targetId.getBytes(StandardCharsets.UTF_8);
+        byte[] blob = encryptedKeyBlob.getBytes(StandardCharsets.UTF_8);
+        int bodyBytes = 12 + owner.length + target.length + blob.length;
+        try {
+            ByteBuffer body = reserve(TYPE_SESSION_KEY, bodyBytes);
+            writeString(body, owner);
+            writeString(body, target);
+            writeString(body, blob);
+            commit(bodyBytes);
+        } catch (IOException e) {
+            return false;
+        }
+        sessionKeys.computeIfAbsent(ownerId, k -> new ConcurrentHashMap<>()).put(targetId, encryptedKeyBlob);
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getAllSessionKeys(String ownerId) {
+        Map<String, String> keys = sessionKeys.get(ownerId);
+        return keys == null ? new HashMap<>() : new HashMap<>(keys);
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    // --- 编码 ---
+
+    private static void writeString(ByteBuffer buffer, byte[] utf8) {
+        if (utf8 == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(utf8.length).put(utf8);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一个会话的内存索引：最新一条的位置 + 稀疏检查点 (id 升序)
+     */
+    private static final class Conversation {
+        final int id;
+        final String userId;
+        final String targetId;
+        long head = NO_POSITION;
+        int count;
+        long[] checkpointIds = new long[4];
+        long[] checkpointPositions = new long[4];
+        int checkpoints;
+
+        Conversation(int id, String userId, String targetId) {
+            this.id = id;
+            this.userId = userId;
+            this.targetId = targetId;
+        }
+
+        String key() {
+            return userId + '\u0000' + targetId;
+        }
+
+        void addCheckpoint(long messageId, long position) {
+            if (checkpoints == checkpointIds.length) {
+                checkpointIds = Arrays.copyOf(checkpointIds, checkpoints * 2);
+                checkpointPositions = Arrays.copyOf(checkpointPositions, checkpoints * 2);
+            }
+            checkpointIds[checkpoints] = messageId;
+            checkpointPositions[checkpoints++] = position;
+        }
+
+        /**
+         * 向前遍历的起点：第一个 id >= beforeId 的检查点 (之后最多再跳过 SPARSE_INTERVAL 条)，没有则从最新一条开始
+         */
+        long startFor(long beforeId) {
+            int index = Arrays.binarySearch(checkpointIds, 0, checkpoints, beforeId);
+            if (index < 0) index = -index - 1;
+            return index < checkpoints ? checkpointPositions[index] : head;
+        }
+    }
+}
@@ -64,6 +64,8 @@ public class LoginController {
         Task<Void> loginTask = new Task<>() {
             @Override
             protected Void call() throws Exception {
+                // 【新增】身份密钥从本地密钥库读出 (密码不对时直接失败，不必连接)，公钥与上次相同时服务端不必改写
+                nettyClient.loadIdentity(userId, password);
                 // 1. 在后台线程连接
                 nettyClient.connect(serverIp, serverPort,
                         // 2. 提供一个“登录回调”
@@ -84,10 +86,11 @@ public class LoginController {
                 );
 
                 // 3. (连接后) 在后台线程发送登录请求
-                String publicKeyBase64 = Base64.getEncoder().encodeToString(
-                        nettyClient.getPublicKey().getEncoded() // 【修复】必须传公钥！
-                );
+                // 【修改】X25519 公钥总是上传；RSA 公钥只在保留回退且已就绪时上传。第一次登录时 RSA 还在后台生成，
+                // 不在这里等待，登录成功后再补发 (见 Client.loginRsaPublicKey)
+                String publicKeyBase64 = nettyClient.loginRsaPublicKey();
                 LoginRequest request = new LoginRequest(userId, password, publicKeyBase64);
+                request.setAgreementKey(Base64.getEncoder().encodeToString(nettyClient.getAgreementKeyPair().getPublic().getEncoded()));
                 nettyClient.sendMessage(request);
 
                 return null;
@@ -190,7 +193,8 @@ public class LoginController {
     }
 
     /**
-     * 处理注册按钮点击事件 (无变化)
+     * 处理注册按钮点击事件
+     * 【修改】账号只保存在服务端 (首次登录时自动注册)，客户端不再写服务端的用户表
      */
     @FXML
     private void handleRegisterButtonAction() {
@@ -202,11 +206,6 @@ public class LoginController {
             return;
         }
 
-        boolean success = DatabaseManager.registerUser(userId, password);
-        if (success) {
-            statusText.setText("本地注册成功！请点击 [登录]。");
-        } else {
-            statusText.setText("本地注册失败：用户已存在。");
-        }
+        handleLoginButtonAction();
     }
 }
\ No newline at end of file
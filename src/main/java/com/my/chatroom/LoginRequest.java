@@ -7,7 +7,8 @@ package com.my.chatroom;
 public class LoginRequest extends Message {
 
     private String password; // 客户端发送的明文密码 (暂时，后续会考虑更安全的方式)
-    private String publicKey; // 客户端上传的 RSA 公钥 Base64 字符串
+    private String publicKey; // 客户端上传的 RSA 公钥 Base64 字符串 (【修改】不保留 RSA 回退时为 null)
+    private String agreementKey; // 【新增】X25519 公钥 Base64，旧客户端没有
 
     public LoginRequest() {
         super();
@@ -26,4 +27,7 @@ public class LoginRequest extends Message {
     // 【新增 Getter and Setter for publicKey】
     public String getPublicKey() { return publicKey; }
     public void setPublicKey(String publicKey) { this.publicKey = publicKey; }
+
+    public String getAgreementKey() { return agreementKey; }
+    public void setAgreementKey(String agreementKey) { this.agreementKey = agreementKey; }
 }
\ No newline at end of file
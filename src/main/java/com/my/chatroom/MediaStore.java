@@ -0,0 +1,116 @@
+package com.my.chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * 本地媒体存储 (MediaStore)
+ * 作用：图片不再以 Base64 文本塞进聊天记录，而是以 ChunkedCipher 的密文流 (与线路上收发的字节相同) 存成单独的文件，
+ * 聊天记录里只保存引用 (见 ChatController 的 MEDIA_PREFIX)。
+ *
+ * - 每个本地用户一个目录 (DatabaseManager.localMediaDir)
+ * - 写入先落到 <id>.part，完整收到后改名为 <id>.bin；中途断开的传输不会留下可读的半个文件
+ */
+public class MediaStore {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    private final Path dir;
+
+    public MediaStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    public static MediaStore forUser(String userId) throws IOException {
+        return new MediaStore(DatabaseManager.localMediaDir(userId));
+    }
+
+    /**
+     * 新的媒体 id (128 位随机数)，同时用作线路上的传输 id
+     */
+    public static String newId() {
+        byte[] bytes = new byte[16];
+        CryptoContext.random().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    /**
+     * 开始写入一个媒体文件
+     */
+    public Pending create(String id) throws IOException {
+        return new Pending(id);
+    }
+
+    public InputStream open(String id) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file(id)));
+    }
+
+    public boolean exists(String id) {
+        return Files.exists(file(id));
+    }
+
+    public boolean delete(String id) {
+        try {
+            return Files.deleteIfExists(file(id));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Path file(String id) {
+        // id 来自网络，只接受 newId 的格式，防止路径穿越
+        if (!ID_PATTERN.matcher(id).matches()) throw new IllegalArgumentException("媒体 id 不合法: " + id);
+        return dir.resolve(id + ".bin");
+    }
+
+    /**
+     * 写入中的媒体文件：append 追加密文片段，commit 后才可读
+     */
+    public final class Pending implements AutoCloseable {
+        private final String id;
+        private final Path part;
+        private final OutputStream out;
+        private boolean committed = false;
+
+        private Pending(String id) throws IOException {
+            this.id = id;
+            this.part = file(id).resolveSibling(id + ".part");
+            this.out = new BufferedOutputStream(Files.newOutputStream(part));
+        }
+
+        public String getId() { return id; }
+
+        public void append(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        public void commit() throws IOException {
+            out.close();
+            Files.move(part, file(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * 未 commit 时删除临时文件
+         */
+        @Override
+        public void close() {
+            if (committed) return;
+            try {
+                out.close();
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                // 临时文件删不掉时留给下次覆盖
+            }
+        }
+    }
+}
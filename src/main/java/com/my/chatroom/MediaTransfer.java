@@ -0,0 +1,195 @@
+package com.my.chatroom;
+
+import io.netty.channel.ChannelFuture;
+
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 图片分块收发 (MediaTransfer)
+ * 作用：发图时不再 readAllBytes + Base64 + 整块加密，而是边读文件边按块加密 (ChunkedCipher)，
+ * 每块密文同时写到网络 (ImageChunkMessage) 和本地 MediaStore；接收方把收到的片段按顺序追加到自己的 MediaStore。
+ * 两端保存的是同一份密文 (会话密钥加密)，显示时再用 ChunkedCipher.decryptingStream 边解密边解码。
+ *
+ * - 内存只与块大小有关：发送端同时持有不超过 WINDOW 帧在途，接收端每次只处理一帧
+ * - 文件读写都在 "media-transfer" 线程上，不占用 Netty I/O 线程和 JavaFX 线程；单线程也保证了片段按到达顺序落盘
+ */
+public class MediaTransfer {
+
+    // 发送端最多允许多少帧已交给 Netty 但尚未写出，超过时等待最早的一帧
+    private static final int WINDOW = 4;
+    // 接收端单张图片的上限 (发送端只允许 5MB 的文件，这里留出头部和标签的余量)
+    private static final long MAX_MEDIA_BYTES = 16L * 1024 * 1024;
+
+    private final Client client;
+    private final MediaStore store;
+    private final int chunkSize;
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "media-transfer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MediaTransfer(Client client, MediaStore store) {
+        this(client, store, ChunkedCipher.DEFAULT_CHUNK_SIZE);
+    }
+
+    public MediaTransfer(Client client, MediaStore store, int chunkSize) {
+        this.client = client;
+        this.store = store;
+        this.chunkSize = chunkSize;
+    }
+
+    public MediaStore getStore() { return store; }
+
+    /**
+     * 分块加密并发送 file；发给自己时本地不保存 (依靠服务器回显，由 receive 保存)
+     * @return 本地媒体 id (发给自己时为 null)，全部片段写出后完成
+     */
+    public CompletableFuture<String> send(File file, String senderId, String targetId, SecretKey key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return doSend(file, senderId, targetId, key);
+            } catch (Exception e) {
+                throw new IllegalStateException("发送图片失败: " + file.getName(), e);
+            }
+        }, worker);
+    }
+
+    private String doSend(File file, String senderId, String targetId, SecretKey key) throws Exception {
+        String mediaId = MediaStore.newId();
+        boolean keepLocal = !targetId.equals(senderId);
+        Deque<ChannelFuture> inFlight = new ArrayDeque<>();
+        try (InputStream in = Files.newInputStream(file.toPath());
+             MediaStore.Pending local = keepLocal ? store.create(mediaId) : null) {
+            // 要看到下一段才知道当前段是不是最后一段：始终扣住一段，头部与第一块合并成一帧
+            byte[][] held = new byte[1][];
+            int[] sequence = {0};
+            int[] records = {0};
+            ChunkedCipher.encrypt(in, key, chunkSize, record -> {
+                if (local != null) local.append(record);
+                int n = records[0]++;
+                if (n == 0) {
+                    held[0] = record; // 头部
+                } else if (n == 1) {
+                    held[0] = concat(held[0], record);
+                } else {
+                    write(inFlight, new ImageChunkMessage(senderId, targetId, mediaId, sequence[0]++, false, held[0]));
+                    held[0] = record;
+                }
+            });
+            write(inFlight, new ImageChunkMessage(senderId, targetId, mediaId, sequence[0], true, held[0]));
+            while (!inFlight.isEmpty()) await(inFlight.poll());
+            if (local != null) local.commit();
+        }
+        return keepLocal ? mediaId : null;
+    }
+
+    private void write(Deque<ChannelFuture> inFlight, ImageChunkMessage chunk) throws IOException {
+        if (inFlight.size() >= WINDOW) await(inFlight.poll());
+        ChannelFuture future = client.sendMessageAwaitable(chunk);
+        if (future == null) throw new IOException("连接已断开");
+        inFlight.add(future);
+    }
+
+    private static void await(ChannelFuture future) throws IOException {
+        future.awaitUninterruptibly();
+        if (!future.isSuccess()) throw new IOException("图片片段发送失败", future.cause());
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = new byte[a.length + b.length];
+        System.arraycopy(a, 0, joined, 0, a.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    /**
+     * 收到一个片段：追加到本地存储
+     * @return 最后一个片段返回一个 future，整张图片落盘后以本地媒体 id 完成；其余片段返回 null
+     */
+    public CompletableFuture<String> receive(ImageChunkMessage chunk) {
+        CompletableFuture<String> done = chunk.isLast() ? new CompletableFuture<>() : null;
+        worker.execute(() -> {
+            try {
+                String mediaId = append(chunk);
+                if (done != null) done.complete(mediaId);
+            } catch (Exception e) {
+                if (done != null) done.completeExceptionally(e);
+                else System.err.println("接收图片片段失败: " + e.getMessage());
+            }
+        });
+        return done;
+    }
+
+    private String append(ImageChunkMessage chunk) throws IOException {
+        // 传输 id 由对方生成，只用于区分同时进行的传输；本地文件另起 id，对方无法借此覆盖已有图片
+        String transferKey = chunk.getSenderId() + "/" + chunk.getTransferId();
+        Incoming transfer = incoming.get(transferKey);
+        if (chunk.getSequence() == 0) {
+            if (transfer != null) transfer.pending.close();
+            transfer = new Incoming(store.create(MediaStore.newId()));
+            incoming.put(transferKey, transfer);
+        }
+        if (transfer == null) {
+            // 这次传输已经中止过 (已报告)，后续片段直接丢弃
+            if (chunk.isLast()) throw new IOException("图片不完整: " + transferKey);
+            return null;
+        }
+        if (transfer.nextSequence != chunk.getSequence()) {
+            abort(transferKey, transfer);
+            throw new IOException("图片片段顺序不对: " + transferKey + " #" + chunk.getSequence());
+        }
+        byte[] data = chunk.getData();
+        if (data == null) data = new byte[0];
+        transfer.received += data.length;
+        if (transfer.received > MAX_MEDIA_BYTES) {
+            abort(transferKey, transfer);
+            throw new IOException("图片超过 " + MAX_MEDIA_BYTES + " 字节: " + transferKey);
+        }
+        try {
+            transfer.pending.append(data);
+            transfer.nextSequence++;
+            if (!chunk.isLast()) return null;
+            incoming.remove(transferKey);
+            transfer.pending.commit();
+            return transfer.pending.getId();
+        } catch (IOException e) {
+            abort(transferKey, transfer);
+            throw e;
+        }
+    }
+
+    private void abort(String transferKey, Incoming transfer) {
+        incoming.remove(transferKey);
+        if (transfer != null) transfer.pending.close();
+    }
+
+    private static final class Incoming {
+        final MediaStore.Pending pending;
+        int nextSequence = 0;
+        long received = 0;
+
+        Incoming(MediaStore.Pending pending) {
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * 解密并读出整张图片的明文流 (边读边解密，调用方负责关闭)
+     */
+    public InputStream open(String mediaId, SecretKey key) throws IOException {
+        return ChunkedCipher.decryptingStream(store.open(mediaId), key);
+    }
+}
@@ -0,0 +1,181 @@
+package com.my.chatroom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存存储引擎 (MemoryStore)
+ * 作用：所有数据只放在进程内存中，进程退出即丢失。用于压测 / 回归工具和基准测试，
+ * 排除磁盘对测量结果的影响，也可作为其它引擎吞吐量的上限参照。
+ */
+public class MemoryStore implements MessageStore, UserStore {
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> sessionKeys = new ConcurrentHashMap<>();
+    // 每个会话按 id 升序保存，保护在会话列表自身的锁下
+    private final Map<String, List<HistoryRecord>> conversations = new ConcurrentHashMap<>();
+    private final Map<Long, List<HistoryRecord>> owners = new ConcurrentHashMap<>();
+    private long nextId = 1;
+
+    // --- 用户 ---
+
+    @Override
+    public boolean insertUser(User user) {
+        return users.putIfAbsent(user.getUserId(), copy(user)) == null;
+    }
+
+    @Override
+    public User loadUser(String userId) {
+        User user = users.get(userId);
+        return user == null ? null : copy(user);
+    }
+
+    @Override
+    public boolean updatePublicKey(String userId, String publicKey) {
+        users.computeIfPresent(userId, (id, old) -> {
+            User updated = copy(old);
+            updated.setPublicKey(publicKey);
+            return updated;
+        });
+        return true;
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getUserId(), user.getPasswordHash());
+        copy.setPublicKey(user.getPublicKey());
+        return copy;
+    }
+
+    // --- 聊天记录 ---
+
+    @Override
+    public CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, String encryptedContent) {
+        List<HistoryRecord> list = conversations.computeIfAbsent(userId + '\u0000' + targetId, k -> new ArrayList<>());
+        long id;
+        synchronized (list) {
+            // 在会话锁内分配 id，保证同一会话内的记录按 id 升序追加
+            synchronized (this) {
+                id = nextId++;
+            }
+            list.add(new HistoryRecord(id, isSender, encryptedContent, System.currentTimeMillis()));
+        }
+        owners.put(id, list);
+        return CompletableFuture.completedFuture(id);
+    }
+
+    @Override
+    public void flush() {
+        // 写入即可见
+    }
+
+    @Override
+    public List<HistoryRecord> getHistoryPage(String userId, String targetId, long beforeId, int limit) {
+        List<HistoryRecord> list = conversations.get(userId + '\u0000' + targetId);
+        if (list == null) return new ArrayList<>();
+        synchronized (list) {
+            int end = insertionPoint(list, beforeId);
+            return new ArrayList<>(list.subList(Math.max(0, end - limit), end));
+        }
+    }
+
+    /**
+     * 第一条 id >= beforeId 的位置
+     */
+    private static int insertionPoint(List<HistoryRecord> list, long beforeId) {
+        int low = 0, high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getId() < beforeId) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    @Override
+    public boolean deleteMessage(long messageId) {
+        List<HistoryRecord> list = owners.remove(messageId);
+        if (list == null) return false;
+        synchronized (list) {
+            int index = insertionPoint(list, messageId);
+            if (index < list.size() && list.get(index).getId() == messageId) {
+                list.remove(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- 保留策略 ---
+
+    @Override
+    public int purgeExpired(RetentionPolicy policy, int maxRows) {
+        if (!policy.isEnabled()) return 0;
+        long cutoff = policy.hasMaxAge() ? policy.cutoffMillis() : Long.MIN_VALUE;
+        int limit = policy.hasMaxPerConversation() ? policy.getMaxPerConversation() : Integer.MAX_VALUE;
+        int deleted = 0;
+        for (List<HistoryRecord> list : conversations.values()) {
+            synchronized (list) {
+                int expired = 0;
+                while (expired < list.size() && list.get(expired).getTimestamp() < cutoff) expired++;
+                expired = Math.max(expired, list.size() - limit);
+                expired = Math.min(expired, maxRows - deleted);
+                if (expired <= 0) continue;
+                List<HistoryRecord> head = list.subList(0, expired);
+                for (HistoryRecord record : head) owners.remove(record.getId());
+                head.clear();
+                deleted += expired;
+            }
+            if (deleted >= maxRows) break;
+        }
+        return deleted;
+    }
+
+    @Override
+    public long reclaimSpace() {
+        return 0; // 删除后内存由 GC 回收
+    }
+
+    /**
+     * 估算值：内容字符数 + 每条约 48 字节对象开销
+     */
+    @Override
+    public long sizeBytes() {
+        long bytes = 0;
+        for (List<HistoryRecord> list : conversations.values()) {
+            synchronized (list) {
+                for (HistoryRecord record : list) bytes += record.getEncryptedContent().length() + 48;
+            }
+        }
+        return bytes;
+    }
+
+    // --- 会话密钥 ---
+
+    @Override
+    public boolean saveSessionKey(String ownerId, String targetId, String encryptedKeyBlob) {
+        sessionKeys.computeIfAbsent(ownerId, k -> new ConcurrentHashMap<>()).put(targetId, encryptedKeyBlob);
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getAllSessionKeys(String ownerId) {
+        Map<String, String> keys = sessionKeys.get(ownerId);
+        return keys == null ? new HashMap<>() : new HashMap<>(keys);
+    }
+
+    @Override
+    public void close() {
+        conversations.clear();
+        owners.clear();
+    }
+
+    /**
+     * 当前保存的消息条数
+     */
+    public int messageCount() {
+        return owners.size();
+    }
+}
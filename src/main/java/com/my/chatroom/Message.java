@@ -16,13 +16,25 @@ public class Message implements Serializable {
         KEY_EXCHANGE_RESPONSE,
         AES_KEY_EXCHANGE,
         IMAGE_MESSAGE,
-        HEARTBEAT
+        HEARTBEAT,
+        HEARTBEAT_ACK,  // 【新增】心跳应答，带回服务端时间用于估算时钟偏差 (追加在末尾，保持已有序号不变)
+        IMAGE_CHUNK,    // 【新增】分块加密的图片片段 (见 ImageChunkMessage)
+        SENDER_KEY,     // 【新增】群聊发送者密钥分发 (见 SenderKeyMessage)
+        PUBLIC_KEY_UPDATE // 【新增】登录后补发公钥 (见 PublicKeyUpdate)
     }
 
     private MessageType type;
     private String senderId;
     private long timestamp;
 
+    // 【新增】延迟追踪：服务端收到 / 转发该消息的时间 (epoch 毫秒)，只有经服务端转发的消息才带有，为 null 时不序列化
+    private Long serverReceivedAt;
+    private Long serverForwardedAt;
+
+    // 【新增】服务端进程内的阶段计时 (System.nanoTime)，transient 不上线路
+    private transient long traceEnqueuedNanos;
+    private transient long traceEncodedNanos;
+
     public Message() {
         this.timestamp = System.currentTimeMillis();
     }
@@ -47,4 +59,16 @@ public class Message implements Serializable {
 
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public Long getServerReceivedAt() { return serverReceivedAt; }
+    public void setServerReceivedAt(Long serverReceivedAt) { this.serverReceivedAt = serverReceivedAt; }
+
+    public Long getServerForwardedAt() { return serverForwardedAt; }
+    public void setServerForwardedAt(Long serverForwardedAt) { this.serverForwardedAt = serverForwardedAt; }
+
+    public long getTraceEnqueuedNanos() { return traceEnqueuedNanos; }
+    public void setTraceEnqueuedNanos(long traceEnqueuedNanos) { this.traceEnqueuedNanos = traceEnqueuedNanos; }
+
+    public long getTraceEncodedNanos() { return traceEncodedNanos; }
+    public void setTraceEncodedNanos(long traceEncodedNanos) { this.traceEncodedNanos = traceEncodedNanos; }
 }
\ No newline at end of file
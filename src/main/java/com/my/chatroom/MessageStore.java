@@ -0,0 +1,110 @@
+package com.my.chatroom;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 聊天记录存储接口 (MessageStore)
+ * 作用：把"聊天记录存在哪、怎么存"从 DatabaseManager 中分离出来，可按部署选择不同的存储引擎 (-Dchat.store.engine)：
+ * sqlite (默认，见 SqliteStore)、memory (MemoryStore)、log (LogStructuredStore)。
+ *
+ * 消息 id 由存储分配，在同一个存储内单调递增，同时作为分页游标。
+ */
+public interface MessageStore extends AutoCloseable {
+
+    /**
+     * 追加一条聊天记录
+     * @return 写入后得到消息 id 的 Future；写入失败时以异常完成
+     */
+    CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, String encryptedContent);
+
+    /**
+     * 【新增】追加一条二进制密文 (EncryptionUtils.seal 的信封)。默认编码成 Base64 后追加，sqlite 引擎直接按字节写入
+     */
+    default CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, byte[] sealedContent) {
+        return saveMessageAsync(userId, targetId, isSender, Base64.getEncoder().encodeToString(sealedContent));
+    }
+
+    /**
+     * 追加一批聊天记录 (可以属于不同会话)。默认逐条追加，sqlite 引擎在同一个事务中写入
+     * @return 与 messages 顺序一致的消息 id
+     */
+    default CompletableFuture<List<Long>> saveMessagesAsync(String userId, boolean isSender, List<NewMessage> messages) {
+        List<CompletableFuture<Long>> futures = new ArrayList<>(messages.size());
+        for (NewMessage message : messages) {
+            futures.add(saveMessageAsync(userId, message.targetId, isSender, message.encryptedContent));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Long> ids = new ArrayList<>(futures.size());
+            for (CompletableFuture<Long> future : futures) ids.add(future.join());
+            return ids;
+        });
+    }
+
+    /**
+     * 等待此刻之前提交的记录全部写入 (之后的读取一定能看到它们)
+     */
+    void flush();
+
+    /**
+     * 键集分页：返回 id 小于 beforeId 的最新 limit 条，按时间正序排列
+     */
+    List<HistoryRecord> getHistoryPage(String userId, String targetId, long beforeId, int limit);
+
+    /**
+     * 彻底删除一条消息
+     * @return 消息存在且已删除时返回 true
+     */
+    boolean deleteMessage(long messageId);
+
+    /**
+     * 彻底删除一批消息。默认逐条删除，sqlite 引擎在同一个事务中删除
+     * @return 实际删除的条数
+     */
+    default int deleteMessages(Collection<Long> messageIds) {
+        int deleted = 0;
+        for (long id : messageIds) {
+            if (deleteMessage(id)) deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * 按保留策略删除过期记录，一次最多 maxRows 条 (调用方分批调用，批与批之间让出写入)
+     * @return 本次删除的条数，0 表示已没有过期记录
+     */
+    int purgeExpired(RetentionPolicy policy, int maxRows);
+
+    /**
+     * 回收已删除记录占用的空间；一次调用可以只回收一部分，调用方反复调用直到返回 0
+     * @return 本次回收的字节数
+     */
+    long reclaimSpace();
+
+    /**
+     * 存储当前占用的字节数
+     */
+    long sizeBytes();
+
+    /**
+     * 写完缓冲中的数据并释放资源
+     */
+    @Override
+    void close();
+
+    /**
+     * 批量写入中的一条记录
+     */
+    final class NewMessage {
+        final String targetId;
+        final String encryptedContent;
+
+        public NewMessage(String targetId, String encryptedContent) {
+            this.targetId = targetId;
+            this.encryptedContent = encryptedContent;
+        }
+    }
+}
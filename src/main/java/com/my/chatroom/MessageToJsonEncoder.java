@@ -6,14 +6,44 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * 【修改】帧格式：JSON，或 JSON + 0x00 + 二进制尾部 (TextMessage 的 sealedContent、ImageChunkMessage 的密文片段、SenderKeyMessage 的群密钥)。
+ * JSON 中不会出现原始的 0x00 字节 (Gson 会转义控制字符)，解码器以第一个 0x00 为界；没有尾部的帧与原来完全相同。
+ */
 public class MessageToJsonEncoder extends MessageToByteEncoder<Message> {
 
+    // 【新增】JSON 与二进制尾部之间的分隔字节
+    static final byte BINARY_SEPARATOR = 0;
+
     // 使用我们配置了 TypeAdapter 的 Gson 实例
     private static final Gson GSON = MessageTypeAdapter.createGson();
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, ByteBuf out) throws Exception {
+        long start = System.nanoTime();
+        // 【新增】排队耗时：从业务线程调用 writeAndFlush 到目标连接的 I/O 线程开始编码
+        if (msg.getTraceEnqueuedNanos() != 0) {
+            MetricsRegistry.histogram("stage.queue").recordNanos(start - msg.getTraceEnqueuedNanos());
+        }
         String json = GSON.toJson(msg);
         out.writeBytes(json.getBytes(StandardCharsets.UTF_8));
+        byte[] trailer = binaryTrailer(msg);
+        if (trailer != null) {
+            out.writeByte(BINARY_SEPARATOR);
+            out.writeBytes(trailer);
+        }
+        long end = System.nanoTime();
+        MetricsRegistry.histogram("stage.encode").recordNanos(end - start);
+        msg.setTraceEncodedNanos(end);
+    }
+
+    /**
+     * 【新增】消息的二进制尾部，没有时为 null (抓包时也用它还原完整的帧)
+     */
+    static byte[] binaryTrailer(Message msg) {
+        if (msg instanceof TextMessage) return ((TextMessage) msg).getSealedContent();
+        if (msg instanceof ImageChunkMessage) return ((ImageChunkMessage) msg).getData();
+        if (msg instanceof SenderKeyMessage) return ((SenderKeyMessage) msg).getDistribution();
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -41,6 +41,10 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
                     // 阅后即焚消息
                     .registerTypeAdapter(BurnAfterReadMessage.class, adapter)
                     .registerTypeAdapter(ImageMessage.class, adapter)
+                    .registerTypeAdapter(HeartbeatAck.class, adapter)
+                    .registerTypeAdapter(ImageChunkMessage.class, adapter)
+                    .registerTypeAdapter(SenderKeyMessage.class, adapter)
+                    .registerTypeAdapter(PublicKeyUpdate.class, adapter)
                     .create();
         }
         return registrationGson;
@@ -101,6 +105,18 @@ public class MessageTypeAdapter extends TypeAdapter<Message> {
         else if (type == Message.MessageType.IMAGE_MESSAGE) {
             targetClass = ImageMessage.class;
         }
+        else if (type == Message.MessageType.HEARTBEAT_ACK) {
+            targetClass = HeartbeatAck.class;
+        }
+        else if (type == Message.MessageType.IMAGE_CHUNK) {
+            targetClass = ImageChunkMessage.class;
+        }
+        else if (type == Message.MessageType.SENDER_KEY) {
+            targetClass = SenderKeyMessage.class;
+        }
+        else if (type == Message.MessageType.PUBLIC_KEY_UPDATE) {
+            targetClass = PublicKeyUpdate.class;
+        }
         else {
             // 如果不是已知的子类，就反序列化为 Message 基类
             targetClass = Message.class;
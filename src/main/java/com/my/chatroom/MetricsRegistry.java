@@ -0,0 +1,54 @@
+package com.my.chatroom;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表 (MetricsRegistry)
+ * 作用：进程内统一的指标出口，按名称登记延迟直方图、计数器和瞬时值。
+ * 服务端定期调用 report() 经 AsyncLogger 输出；客户端 (Client) 同样定期输出到控制台，断开连接时再输出一次。
+ * 直方图在每次报告后清零，反映最近一个周期的分布。
+ */
+public final class MetricsRegistry {
+
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {}
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * 生成多行文本报告，并清零所有直方图
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            LatencyHistogram h = e.getValue();
+            if (h.count() == 0) continue;
+            sb.append(String.format("  %-24s %s%n", e.getKey(), h.summary()));
+            h.reset();
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(COUNTERS).entrySet()) {
+            sb.append(String.format("  %-24s %d%n", e.getKey(), e.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(GAUGES).entrySet()) {
+            sb.append(String.format("  %-24s %d%n", e.getKey(), e.getValue().getAsLong()));
+        }
+        return sb.toString();
+    }
+}
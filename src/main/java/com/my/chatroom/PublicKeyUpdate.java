@@ -0,0 +1,29 @@
+package com.my.chatroom;
+
+/**
+ * 公钥更新协议 (PublicKeyUpdate)
+ * 第一次登录时 RSA 密钥还在后台生成，登录请求只带 X25519 公钥；RSA 生成完后客户端用这条消息补发两把公钥，
+ * 服务端按登录时的方式 (PublishedKeys) 改写用户表。只接受已登录连接发来的更新。
+ */
+public class PublicKeyUpdate extends Message {
+
+    private String publicKey;    // RSA 公钥 Base64
+    private String agreementKey; // X25519 公钥 Base64
+
+    public PublicKeyUpdate() {
+        super();
+        super.setType(MessageType.PUBLIC_KEY_UPDATE);
+    }
+
+    public PublicKeyUpdate(String senderId, String publicKey, String agreementKey) {
+        super(MessageType.PUBLIC_KEY_UPDATE, senderId);
+        this.publicKey = publicKey;
+        this.agreementKey = agreementKey;
+    }
+
+    public String getPublicKey() { return publicKey; }
+    public void setPublicKey(String publicKey) { this.publicKey = publicKey; }
+
+    public String getAgreementKey() { return agreementKey; }
+    public void setAgreementKey(String agreementKey) { this.agreementKey = agreementKey; }
+}
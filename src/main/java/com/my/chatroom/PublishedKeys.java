@@ -0,0 +1,39 @@
+package com.my.chatroom;
+
+/**
+ * 用户公布的公钥 (PublishedKeys)
+ * 服务端 users.public_key 一列同时存放 X25519 与 RSA 公钥，不改表结构：
+ * - 旧客户端只上传 RSA 公钥，存的就是 RSA 公钥的 Base64 (原格式)
+ * - 新客户端存 "x25519:<Base64>"，同时保留 RSA 时再接 ";rsa:<Base64>"
+ * Base64 中不会出现 ':' 和 ';'，拆分没有歧义。密钥交换时服务端把两部分分别填进 KeyExchangeResponse，旧客户端只认 RSA 字段。
+ */
+final class PublishedKeys {
+
+    private static final String AGREEMENT_TAG = "x25519:";
+    private static final String RSA_TAG = "rsa:";
+    private static final String SEPARATOR = ";";
+
+    private PublishedKeys() {}
+
+    /**
+     * 拼成存储格式，两者都为空时返回 null
+     */
+    static String join(String rsaPublicKey, String agreementPublicKey) {
+        if (agreementPublicKey == null) return rsaPublicKey;
+        String joined = AGREEMENT_TAG + agreementPublicKey;
+        return rsaPublicKey == null ? joined : joined + SEPARATOR + RSA_TAG + rsaPublicKey;
+    }
+
+    static String rsa(String stored) {
+        if (stored == null) return null;
+        if (!stored.startsWith(AGREEMENT_TAG)) return stored;
+        int separator = stored.indexOf(SEPARATOR + RSA_TAG);
+        return separator < 0 ? null : stored.substring(separator + SEPARATOR.length() + RSA_TAG.length());
+    }
+
+    static String agreement(String stored) {
+        if (stored == null || !stored.startsWith(AGREEMENT_TAG)) return null;
+        int separator = stored.indexOf(SEPARATOR);
+        return stored.substring(AGREEMENT_TAG.length(), separator < 0 ? stored.length() : separator);
+    }
+}
@@ -0,0 +1,52 @@
+package com.my.chatroom;
+
+/**
+ * 聊天记录保留策略 (RetentionPolicy)
+ * 作用：按时间 (-Dchat.retention.days) 和 / 或按每个会话的条数 (-Dchat.retention.perConversation) 限制聊天记录，
+ * 超出的部分由 HistoryMaintenance 在后台分批删除。两项都为 0 (默认) 时不删除任何记录。
+ */
+public final class RetentionPolicy {
+
+    private final long maxAgeMillis;      // 0 表示不按时间清理
+    private final int maxPerConversation; // 0 表示不按条数清理
+
+    public RetentionPolicy(long maxAgeMillis, int maxPerConversation) {
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        this.maxPerConversation = Math.max(0, maxPerConversation);
+    }
+
+    public static RetentionPolicy fromSystemProperties() {
+        long days = Long.getLong("chat.retention.days", 0);
+        int perConversation = Integer.getInteger("chat.retention.perConversation", 0);
+        return new RetentionPolicy(days * 24 * 60 * 60 * 1000, perConversation);
+    }
+
+    public boolean isEnabled() {
+        return maxAgeMillis > 0 || maxPerConversation > 0;
+    }
+
+    public boolean hasMaxAge() { return maxAgeMillis > 0; }
+    public boolean hasMaxPerConversation() { return maxPerConversation > 0; }
+
+    public long getMaxAgeMillis() { return maxAgeMillis; }
+    public int getMaxPerConversation() { return maxPerConversation; }
+
+    /**
+     * 早于这个时间 (epoch 毫秒) 的记录已过期
+     */
+    public long cutoffMillis() {
+        return System.currentTimeMillis() - maxAgeMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (!isEnabled()) return "不清理";
+        StringBuilder sb = new StringBuilder();
+        if (hasMaxAge()) sb.append("保留 ").append(maxAgeMillis / (24 * 60 * 60 * 1000)).append(" 天");
+        if (hasMaxPerConversation()) {
+            if (sb.length() > 0) sb.append("，");
+            sb.append("每个会话最多 ").append(maxPerConversation).append(" 条");
+        }
+        return sb.toString();
+    }
+}
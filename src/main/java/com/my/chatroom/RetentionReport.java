@@ -0,0 +1,104 @@
+package com.my.chatroom;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * 保留策略效果对比工具 (RetentionReport)
+ * 作用：生成一个跨越数月的 SQLite 聊天记录库，其中一部分消息已被用户删除 (留下空闲页)，
+ * 然后执行一轮 HistoryMaintenance (按时间清理 + 增量 VACUUM)，对比前后的文件大小和历史记录加载耗时。
+ *
+ * 用法：RetentionReport [消息总数] [会话数] [保留天数]
+ */
+public class RetentionReport {
+
+    private static final int PAGE = 50;
+    private static final int PAGE_ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int conversations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int days = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        Path db = Files.createTempFile("retention-report-", ".db");
+        db.toFile().deleteOnExit();
+        String url = "jdbc:sqlite:" + db.toAbsolutePath();
+
+        System.out.printf("▶ 生成 %d 条消息 (%d 个会话，每分钟一条)...%n", total, conversations);
+        Random random = new Random(42);
+        try (SqliteStore store = new SqliteStore(url, 2)) {
+            for (int i = 0; i < total; i++) {
+                byte[] payload = new byte[16 + 16 * (1 + random.nextInt(12))];
+                random.nextBytes(payload);
+                store.saveMessageAsync("me", "peer" + (i % conversations), i % 2 == 0,
+                        Base64.getEncoder().encodeToString(payload));
+            }
+            store.flush();
+        }
+        // 把写入时间改写成过去的时间：最新一条为现在，往前每条早一分钟
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE chat_messages SET created_at = " + System.currentTimeMillis()
+                    + " - ((SELECT MAX(id) FROM chat_messages) - id) * 60000");
+        }
+
+        try (SqliteStore store = new SqliteStore(url, 2)) {
+            // 用户手动删除了 10% 的消息
+            for (long id = 1; id <= total; id += 10) store.deleteMessage(id);
+
+            long sizeBefore = fileSize(url, db);
+            double pageBefore = timePages(store, conversations);
+            double fullBefore = timeFullLoad(store, total);
+
+            System.out.println("▶ 执行后台维护...");
+            HistoryMaintenance maintenance = new HistoryMaintenance(store,
+                    new RetentionPolicy(days * 24L * 60 * 60 * 1000, 0), 0);
+            HistoryMaintenance.Summary summary = maintenance.runOnce(true);
+
+            long sizeAfter = fileSize(url, db);
+            double pageAfter = timePages(store, conversations);
+            double fullAfter = timeFullLoad(store, total);
+
+            System.out.println();
+            System.out.println("================ 保留策略 (" + days + " 天) ================");
+            System.out.printf("删除: %d 条  回收: %.1fMB  用时: %dms%n", summary.getDeleted(),
+                    summary.getBytesReclaimed() / 1048576.0, summary.getElapsedNanos() / 1_000_000);
+            System.out.printf("%-20s %14s %14s%n", "", "维护前", "维护后");
+            System.out.printf("%-20s %13.1fMB %13.1fMB%n", "文件大小", sizeBefore / 1048576.0, sizeAfter / 1048576.0);
+            System.out.printf("%-20s %13.3fms %13.3fms%n", "最新一页 (" + PAGE + " 条)", pageBefore, pageAfter);
+            System.out.printf("%-20s %13.1fms %13.1fms%n", "整个会话", fullBefore, fullAfter);
+            System.out.println("=================================================");
+        }
+        System.exit(0);
+    }
+
+    private static double timePages(SqliteStore store, int conversations) {
+        for (int round = 0; round < PAGE_ROUNDS; round++) { // 预热
+            store.getHistoryPage("me", "peer" + (round % conversations), Long.MAX_VALUE, PAGE);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < PAGE_ROUNDS; round++) {
+            store.getHistoryPage("me", "peer" + (round % conversations), Long.MAX_VALUE, PAGE);
+        }
+        return (System.nanoTime() - start) / 1e6 / PAGE_ROUNDS;
+    }
+
+    private static double timeFullLoad(SqliteStore store, int total) {
+        store.getHistoryPage("me", "peer1", Long.MAX_VALUE, total); // 预热
+        long start = System.nanoTime();
+        store.getHistoryPage("me", "peer0", Long.MAX_VALUE, total);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static long fileSize(String url, Path db) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url); PreparedStatement ps = conn.prepareStatement("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            ps.execute();
+        }
+        return Files.size(db);
+    }
+}
@@ -0,0 +1,573 @@
+package com.my.chatroom;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 本地聊天记录全文索引 (SearchIndex)
+ * 作用：数据库里只有 AES 密文，无法直接搜索。客户端在发送、接收、解密历史记录时把明文切词后写入内存中的倒排索引
+ * (词 -> 消息 id 有序数组)，查询时对各个词的 id 数组求交集，跨所有会话返回匹配的消息 id。
+ *
+ * - 切词：英文 / 数字按连续字母切分并转小写；中日韩文字按相邻两字 (bigram) 切分，另外每个字单独收录一次，
+ *   单字查询直接命中；查询的最后一个英文词按前缀匹配 (边输入边搜索)
+ * - 建索引在独立的 search-index 线程上进行，发送 / 接收路径只提交任务，不做切词
+ * - 登录后在后台逐页解密已有的历史记录补建索引 (每个会话记录进度，下次启动接着做)
+ * - 索引文件用登录密码派生的本地主密钥 (Client.initSecureStorage) 整体 AES 加密，定期和退出时写盘
+ *
+ * 查询结果是候选集合：bigram 全部命中不代表原文连续出现，调用方解密后可再做精确匹配。
+ */
+public class SearchIndex implements AutoCloseable {
+
+    private static final int FILE_VERSION = 1;
+    private static final String IMG_PREFIX = "::IMG::"; // 图片消息 (见 ChatController) 不建索引
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int BACKFILL_PAGE = 200;
+    private static final long BACKFILL_PAUSE_MILLIS = 10;
+    private static final long SAVE_INTERVAL_SECONDS = 30;
+
+    private final Path file;
+    private final SecretKey masterKey;
+    private final String ownerId;
+    private final ScheduledExecutorService worker;
+
+    // 以下结构只在 this 锁内访问
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final NavigableSet<String> words = new TreeSet<>(); // 非中文词的有序集合，只用于前缀展开
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final Map<String, Long> backfillCursors = new HashMap<>(); // 会话 -> 已补建到的最旧 id，0 表示已完成
+    private boolean dirty = false;
+    private volatile boolean closed = false;
+
+    public SearchIndex(Path file, SecretKey masterKey, String ownerId) {
+        this.file = file;
+        this.masterKey = masterKey;
+        this.ownerId = ownerId;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "search-index");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * 打开用户的索引：在后台线程加载已有文件，之后每 30 秒把变更写盘
+     * @param file 索引文件 (【修改】与该用户的本地数据库放在一起，见 DatabaseManager.localSearchIndexPath)
+     */
+    public static SearchIndex open(Path file, SecretKey masterKey, String ownerId) {
+        SearchIndex index = new SearchIndex(file, masterKey, ownerId);
+        index.worker.execute(index::load);
+        index.worker.scheduleWithFixedDelay(index::saveIfDirty, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        return index;
+    }
+
+    // --- 建索引 ---
+
+    /**
+     * 已知 id 的明文 (例如刚解密的历史记录)
+     */
+    public void add(long messageId, String conversation, String plainText, long timestamp) {
+        if (closed || plainText == null || plainText.startsWith(IMG_PREFIX)) return;
+        worker.execute(() -> addNow(messageId, conversation, plainText, timestamp));
+    }
+
+    /**
+     * 刚保存的消息：id 在写入提交后才知道
+     */
+    public void add(CompletableFuture<Long> messageId, String conversation, String plainText) {
+        if (closed || messageId == null || plainText == null || plainText.startsWith(IMG_PREFIX)) return;
+        long timestamp = System.currentTimeMillis();
+        messageId.thenAcceptAsync(id -> {
+            if (id != null && id > 0) addNow(id, conversation, plainText, timestamp);
+        }, worker);
+    }
+
+    /**
+     * 收到的密文：解密也放在索引线程上，不占用网络 / 界面线程
+     */
+    public void addEncrypted(CompletableFuture<Long> messageId, String conversation, String encrypted, SecretKey key) {
+        if (closed || messageId == null || key == null) return;
+        long timestamp = System.currentTimeMillis();
+        messageId.thenAcceptAsync(id -> {
+            if (id == null || id <= 0) return;
+            try {
+                String plainText = EncryptionUtils.aesDecrypt(encrypted, key);
+                if (!plainText.startsWith(IMG_PREFIX)) addNow(id, conversation, plainText, timestamp);
+            } catch (Exception e) {
+                // 密钥不匹配的消息无法建索引
+            }
+        }, worker);
+    }
+
+    /**
+     * 【新增】收到的二进制密文 (EncryptionUtils.seal 的信封)
+     */
+    public void addSealed(CompletableFuture<Long> messageId, String conversation, byte[] sealed, SecretKey key) {
+        if (closed || messageId == null || key == null) return;
+        long timestamp = System.currentTimeMillis();
+        messageId.thenAcceptAsync(id -> {
+            if (id == null || id <= 0) return;
+            try {
+                String plainText = EncryptionUtils.openToString(sealed, key);
+                if (!plainText.startsWith(IMG_PREFIX)) addNow(id, conversation, plainText, timestamp);
+            } catch (Exception e) {
+                // 密钥不匹配或内容被篡改的消息无法建索引
+            }
+        }, worker);
+    }
+
+    public void remove(long messageId) {
+        if (closed) return;
+        worker.execute(() -> {
+            synchronized (this) {
+                // 倒排表中的 id 在查询时过滤，下次写盘时丢弃
+                if (docs.remove(messageId) != null) dirty = true;
+            }
+        });
+    }
+
+    void addNow(long messageId, String conversation, String plainText, long timestamp) {
+        Set<String> tokens = tokenize(plainText, false);
+        synchronized (this) {
+            if (docs.containsKey(messageId)) return;
+            docs.put(messageId, new Doc(conversation, timestamp));
+            for (String token : tokens) {
+                postingsFor(token).add(messageId);
+            }
+            dirty = true;
+        }
+        MetricsRegistry.counter("search.indexed").increment();
+    }
+
+    private Postings postingsFor(String term) {
+        Postings postings = terms.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            terms.put(term, postings);
+            if (!isCjk(term.codePointAt(0))) words.add(term);
+        }
+        return postings;
+    }
+
+    /**
+     * 登录后补建已有历史记录的索引：每个会话从上次的进度开始往前逐页解密，每页单独提交，与实时消息交替执行
+     */
+    public void startBackfill(Collection<String> conversations, Function<String, SecretKey> keys) {
+        for (String conversation : conversations) {
+            worker.execute(() -> {
+                synchronized (this) {
+                    if (backfillCursors.getOrDefault(conversation, Long.MAX_VALUE) == 0) return;
+                }
+                // 密钥在索引线程上取，已补建完的会话不解密
+                SecretKey key = keys.apply(conversation);
+                if (key != null) backfillPage(conversation, key);
+            });
+        }
+    }
+
+    private void backfillPage(String conversation, SecretKey key) {
+        if (closed) return;
+        long cursor;
+        synchronized (this) {
+            cursor = backfillCursors.getOrDefault(conversation, Long.MAX_VALUE);
+        }
+        if (cursor == 0) return;
+        List<HistoryRecord> page = DatabaseManager.getHistoryPage(ownerId, conversation, cursor, BACKFILL_PAGE);
+        List<HistoryRecord> pending = new ArrayList<>(page.size());
+        synchronized (this) {
+            for (HistoryRecord record : page) {
+                if (!docs.containsKey(record.getId())) pending.add(record);
+            }
+        }
+        // 【修改】一页记录并行解密 (BatchDecryptor)，切词和写入倒排表仍在索引线程上按顺序进行；旧密钥加密的记录跳过
+        try (BatchDecryptor.Batch<Map.Entry<HistoryRecord, String>> batch = BatchDecryptor.submit(pending, key,
+                (record, plainText) -> plainText.startsWith(IMG_PREFIX) ? null : Map.entry(record, plainText))) {
+            batch.stream().forEach(e -> addNow(e.getKey().getId(), conversation, e.getValue(), e.getKey().getTimestamp()));
+        }
+        boolean done = page.size() < BACKFILL_PAGE;
+        synchronized (this) {
+            backfillCursors.put(conversation, done ? 0L : page.get(0).getId());
+            dirty = true;
+        }
+        if (!done) worker.schedule(() -> backfillPage(conversation, key), BACKFILL_PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // --- 查询 ---
+
+    /**
+     * 跨所有会话查询，结果按 id 从新到旧排列
+     * @return 候选消息 id，最多 limit 个
+     */
+    public List<Long> search(String query, int limit) {
+        List<List<String>> clauses = queryClauses(query);
+        List<Long> result = new ArrayList<>();
+        if (clauses.isEmpty()) return result;
+        long start = System.nanoTime();
+        synchronized (this) {
+            List<Clause> lists = new ArrayList<>(clauses.size());
+            for (List<String> terms : clauses) {
+                Clause clause = clause(terms);
+                if (clause.size == 0) return result;
+                lists.add(clause);
+            }
+            // 从最短的子句出发 (从新到旧)，其余子句用二分查找确认
+            lists.sort(Comparator.comparingInt(c -> c.size));
+            Clause driver = lists.get(0);
+            int[] cursors = new int[driver.parts.size()];
+            for (int i = 0; i < cursors.length; i++) cursors[i] = driver.parts.get(i).size - 1;
+            for (long id = driver.next(cursors); id >= 0 && result.size() < limit; id = driver.next(cursors)) {
+                if (containedInAll(lists, id) && docs.containsKey(id)) result.add(id);
+            }
+        }
+        MetricsRegistry.histogram("search.query").recordNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * 查询结果对应的会话，已删除时返回 null
+     */
+    public synchronized String conversationOf(long messageId) {
+        Doc doc = docs.get(messageId);
+        return doc == null ? null : doc.conversation;
+    }
+
+    public synchronized long timestampOf(long messageId) {
+        Doc doc = docs.get(messageId);
+        return doc == null ? 0 : doc.timestamp;
+    }
+
+    public synchronized int size() {
+        return docs.size();
+    }
+
+    /**
+     * 每个查询子句是一组可互相替代的词 (最后一个英文词按前缀展开)，子句之间取交集
+     */
+    private synchronized List<List<String>> queryClauses(String query) {
+        List<String> tokens = new ArrayList<>(tokenize(query, true));
+        List<List<String>> clauses = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (i == tokens.size() - 1 && !isCjk(token.codePointAt(0))) {
+                clauses.add(new ArrayList<>(words.subSet(token, true, token + Character.MAX_VALUE, false)));
+            } else {
+                clauses.add(List.of(token));
+            }
+        }
+        return clauses;
+    }
+
+    private Clause clause(List<String> alternatives) {
+        List<Postings> parts = new ArrayList<>(alternatives.size());
+        for (String term : alternatives) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.size > 0) parts.add(postings);
+        }
+        return new Clause(parts);
+    }
+
+    private static boolean containedInAll(List<Clause> lists, long id) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) return false;
+        }
+        return true;
+    }
+
+    // --- 切词 ---
+
+    /**
+     * @param query 查询时多字的中文段只用 bigram (单字已被 bigram 覆盖)，单字段仍用单字
+     */
+    static Set<String> tokenize(String text, boolean query) {
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        StringBuilder cjk = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjk.appendCodePoint(cp);
+            } else if (Character.isLetterOrDigit(cp)) {
+                flushCjk(cjk, tokens, query);
+                if (word.length() < MAX_TERM_LENGTH) word.appendCodePoint(Character.toLowerCase(cp));
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjk, tokens, query);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, tokens, query);
+        return tokens;
+    }
+
+    private static void flushWord(StringBuilder word, Set<String> tokens) {
+        if (word.length() > 0) tokens.add(word.toString());
+        word.setLength(0);
+    }
+
+    private static void flushCjk(StringBuilder run, Set<String> tokens, boolean query) {
+        int[] cps = run.codePoints().toArray();
+        for (int i = 0; i + 1 < cps.length; i++) {
+            tokens.add(new String(cps, i, 2));
+        }
+        if (!query || cps.length == 1) {
+            for (int i = 0; i < cps.length; i++) tokens.add(new String(cps, i, 1));
+        }
+        run.setLength(0);
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+
+    // --- 持久化 ---
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        long start = System.currentTimeMillis();
+        try {
+            // 升级前保存的索引文件是 CBC 格式，下次保存时改写为 GCM
+            byte[] plain = EncryptionUtils.open(Files.readAllBytes(file), masterKey, true);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+                if (in.readInt() != FILE_VERSION) return;
+                synchronized (this) {
+                    int docCount = in.readInt();
+                    String[] conversations = new String[in.readInt()];
+                    for (int i = 0; i < conversations.length; i++) conversations[i] = in.readUTF();
+                    for (int i = 0; i < docCount; i++) {
+                        docs.put(in.readLong(), new Doc(conversations[in.readInt()], in.readLong()));
+                    }
+                    int cursorCount = in.readInt();
+                    for (int i = 0; i < cursorCount; i++) backfillCursors.put(in.readUTF(), in.readLong());
+                    int termCount = in.readInt();
+                    for (int i = 0; i < termCount; i++) {
+                        String term = in.readUTF();
+                        Postings postings = new Postings();
+                        int n = in.readInt();
+                        long id = 0;
+                        for (int j = 0; j < n; j++) postings.add(id += readVarLong(in));
+                        terms.put(term, postings);
+                        if (!isCjk(term.codePointAt(0))) words.add(term);
+                    }
+                }
+            }
+            System.out.println("🔎 搜索索引已加载: " + size() + " 条消息, 用时 " + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            // 密码已修改或文件损坏：丢弃旧索引，补建任务会重新生成
+            System.err.println("⚠️ 搜索索引无法读取，将重新建立: " + e.getMessage());
+            synchronized (this) {
+                terms.clear();
+                words.clear();
+                docs.clear();
+                backfillCursors.clear();
+            }
+        }
+    }
+
+    private void saveIfDirty() {
+        try {
+            byte[] plain;
+            synchronized (this) {
+                if (!dirty) return;
+                plain = serialize();
+                dirty = false;
+            }
+            byte[] encrypted = EncryptionUtils.aesEncryptBytes(plain, masterKey);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, encrypted);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.err.println("❌ 搜索索引保存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 写盘格式 (加密前)：版本、文档 (id, 会话序号, 时间)、会话表、补建进度、倒排表 (id 差值变长编码)；
+     * 已删除消息的 id 在这里从倒排表中剔除
+     */
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(docs.size() * 16 + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(docs.size());
+        Map<String, Integer> conversationIndex = new HashMap<>();
+        for (Doc doc : docs.values()) conversationIndex.putIfAbsent(doc.conversation, conversationIndex.size());
+        String[] conversations = new String[conversationIndex.size()];
+        conversationIndex.forEach((name, i) -> conversations[i] = name);
+        out.writeInt(conversations.length);
+        for (String name : conversations) out.writeUTF(name);
+        for (Map.Entry<Long, Doc> entry : docs.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeInt(conversationIndex.get(entry.getValue().conversation));
+            out.writeLong(entry.getValue().timestamp);
+        }
+        out.writeInt(backfillCursors.size());
+        for (Map.Entry<String, Long> entry : backfillCursors.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        List<String> emptyTerms = new ArrayList<>();
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            if (entry.getValue().retainAll(docs) == 0) emptyTerms.add(entry.getKey());
+        }
+        emptyTerms.forEach(terms::remove);
+        emptyTerms.forEach(words::remove);
+        out.writeInt(terms.size());
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            Postings postings = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeInt(postings.size);
+            long previous = 0;
+            for (int i = 0; i < postings.size; i++) {
+                writeVarLong(out, postings.ids[i] - previous);
+                previous = postings.ids[i];
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * 停止后台任务并写盘 (退出时调用)
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveIfDirty();
+    }
+
+    private static final class Doc {
+        final String conversation;
+        final long timestamp;
+
+        Doc(String conversation, long timestamp) {
+            this.conversation = conversation;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * 查询子句：一个或几个 (前缀展开) 词的倒排表之并，不合并复制，按需从新到旧取
+     */
+    private static final class Clause {
+        final List<Postings> parts;
+        final int size;
+
+        Clause(List<Postings> parts) {
+            this.parts = parts;
+            int total = 0;
+            for (Postings postings : parts) total += postings.size;
+            this.size = total;
+        }
+
+        boolean contains(long id) {
+            for (Postings postings : parts) {
+                if (Arrays.binarySearch(postings.ids, 0, postings.size, id) >= 0) return true;
+            }
+            return false;
+        }
+
+        /**
+         * 取下一个 (更旧的) id，并跳过各表中相同的 id；取完返回 -1
+         */
+        long next(int[] cursors) {
+            long max = -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i] >= 0) max = Math.max(max, parts.get(i).ids[cursors[i]]);
+            }
+            if (max < 0) return -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i] >= 0 && parts.get(i).ids[cursors[i]] == max) cursors[i]--;
+            }
+            return max;
+        }
+    }
+
+    /**
+     * 一个词的倒排表：升序的消息 id 数组
+     */
+    private static final class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void add(long id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                // 补建历史记录时 id 可能比已有的小，插入到有序位置
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) return;
+                insertAt(-index - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        private void insertAt(int index, long id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        /**
+         * 剔除已不存在的文档，返回剩余个数
+         */
+        int retainAll(Map<Long, Doc> docs) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (docs.containsKey(ids[i])) ids[kept++] = ids[i];
+            }
+            size = kept;
+            return kept;
+        }
+    }
+}
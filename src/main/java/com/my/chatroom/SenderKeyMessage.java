@@ -0,0 +1,30 @@
+package com.my.chatroom;
+
+/**
+ * 群聊发送者密钥分发协议 (SenderKeyMessage)
+ * 发送者把自己的群聊链密钥 (GroupSession) 用与 targetUserId 之间的私聊会话密钥加密后，经服务端点对点转发给对方。
+ * 每个成员只需收到一次 (发送者换密钥时再发)，之后的群消息只加密一次、由服务端原样广播。
+ * 密文 distribution 不进 JSON，作为帧的二进制尾部传输 (见 MessageToJsonEncoder)。
+ */
+public class SenderKeyMessage extends Message {
+
+    private String targetUserId;
+    private transient byte[] distribution;
+
+    public SenderKeyMessage() {
+        super();
+        super.setType(MessageType.SENDER_KEY);
+    }
+
+    public SenderKeyMessage(String senderId, String targetUserId, byte[] distribution) {
+        super(MessageType.SENDER_KEY, senderId);
+        this.targetUserId = targetUserId;
+        this.distribution = distribution;
+    }
+
+    public String getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(String targetUserId) { this.targetUserId = targetUserId; }
+
+    public byte[] getDistribution() { return distribution; }
+    public void setDistribution(byte[] distribution) { this.distribution = distribution; }
+}
@@ -14,6 +14,10 @@ import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
 public class Server {
 
     private final int port;
@@ -31,6 +35,9 @@ public class Server {
                 .protocols("TLSv1.2")
                 .build();
 
+        // 3. 可选：流量抓包 (-Dchat.capture.dir=<目录>)
+        TrafficCapture capture = openCapture();
+
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
 
@@ -50,7 +57,11 @@ public class Server {
                             pipeline.addLast(new LengthFieldBasedFrameDecoder(1024 * 1024 * 10, 0, 4, 0, 4));
                             pipeline.addLast(new LengthFieldPrepender(4));
                             pipeline.addLast(new MessageToJsonEncoder());
+                            // 【修改】抓包直接记录解码前的原始帧，不再把解码后的消息重新序列化
+                            CaptureHandler captureHandler = capture != null ? new CaptureHandler(capture) : null;
+                            if (captureHandler != null) pipeline.addLast(captureHandler.frameTap());
                             pipeline.addLast(new JsonToMessageDecoder());
+                            if (captureHandler != null) pipeline.addLast(captureHandler);
 
                             // C. 业务逻辑
                             pipeline.addLast(new ChatServerHandler());
@@ -59,16 +70,47 @@ public class Server {
 
             ChannelFuture f = b.bind(port).sync();
             System.out.println("服务端启动成功 (SSL/TLSv1.2 开启)，监听端口: " + port);
+            scheduleMetricsReport(workerGroup);
             f.channel().closeFuture().sync();
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            if (capture != null) capture.close();
         }
     }
 
+    /**
+     * 【新增】定期输出延迟与计数指标 (-Dchat.metrics.interval=<秒>，默认 60，0 表示关闭)
+     */
+    private static void scheduleMetricsReport(EventLoopGroup group) {
+        long interval = Long.getLong("chat.metrics.interval", 60);
+        if (interval <= 0) return;
+        MetricsRegistry.gauge("users.online", ChatServerHandler::onlineCount);
+        MetricsRegistry.gauge("log.dropped", AsyncLogger::droppedCount);
+        MetricsRegistry.gauge("log.suppressed", AsyncLogger::suppressedCount);
+        group.scheduleAtFixedRate(
+                () -> AsyncLogger.info(AsyncLogger.Category.METRICS, "[指标] 最近 {} 秒:\n{}", interval, MetricsRegistry.report()),
+                interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static TrafficCapture openCapture() throws Exception {
+        String dir = System.getProperty("chat.capture.dir");
+        if (dir == null || dir.isEmpty()) return null;
+        Path file = Paths.get(dir, "capture-" + System.currentTimeMillis() + ".crcap");
+        System.out.println("流量抓包已开启: " + file.toAbsolutePath());
+        TrafficCapture capture = new TrafficCapture(file);
+        MetricsRegistry.gauge("capture.written", capture::writtenCount);
+        MetricsRegistry.gauge("capture.dropped", capture::droppedCount);
+        // Ctrl+C 退出时也要写完 GZIP 尾部
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { capture.close(); } catch (Exception e) { e.printStackTrace(); }
+        }));
+        return capture;
+    }
+
     public static void main(String[] args) throws Exception {
-        // 确保数据库加载
-        try { Class.forName(DatabaseManager.class.getName()); } catch (ClassNotFoundException e) {}
+        // 确保数据库加载 (【修改】只打开服务端存储：用户与公钥)
+        DatabaseManager.initServerStorage();
         new Server(8888).run();
     }
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+package com.my.chatroom;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 服务端吞吐量回归工具 (ServerThroughputHarness)
+ * 作用：不经过网络和 TLS，把服务端管道 (JSON 编解码 + ChatServerHandler) 装进成千上万个 EmbeddedChannel，
+ * 登录虚拟用户后驱动私聊、群聊、图片流量，输出 消息/秒 与 每条消息分配的字节数。
+ *
+ * 每个连接实际收到的消息数会与预期逐一核对，并抽样解码检查目标用户；任何路由错误都会以非 0 退出码结束，
+ * 因此可以直接挂在构建里 (mvn -Pharness verify) 作为回归检查；ServerThroughputHarnessTest 用几十个用户随 mvn test 跑一遍小规模的路由检查。
+ *
+ * 用法：ServerThroughputHarness [用户数] [消息数] [群聊百分比] [图片百分比]
+ */
+public class ServerThroughputHarness {
+
+    private static final Gson GSON = MessageTypeAdapter.createGson();
+    private static final int DRAIN_EVERY = 1000;
+    private static final int IMAGE_BYTES = 16 * 1024;
+    private static final int IMAGE_TARGETS = 64;
+
+    private final int userCount;
+    private final int messageCount;
+    private final int groupPercent;
+    private final int imagePercent;
+
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+    private final List<String> userIds = new ArrayList<>();
+    private long[] expected;
+    private long[] received;
+    private final List<String> errors = new ArrayList<>();
+
+    private long outboundBytes;
+    private long privateSent, groupSent, imageSent;
+
+    public ServerThroughputHarness(int userCount, int messageCount, int groupPercent, int imagePercent) {
+        this.userCount = userCount;
+        this.messageCount = messageCount;
+        this.groupPercent = groupPercent;
+        this.imagePercent = imagePercent;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int group = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int image = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        // 使用临时数据库，避免污染工作目录下的 chatroom.db (必须在 DatabaseManager 加载前设置)
+        Path db = Files.createTempFile("harness-", ".db");
+        db.toFile().deleteOnExit();
+        System.setProperty("chat.db.url", "jdbc:sqlite:" + db.toAbsolutePath());
+
+        boolean ok = new ServerThroughputHarness(users, messages, group, image).run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    public boolean run() {
+        System.out.println("▶ 登录 " + userCount + " 个虚拟用户...");
+        login();
+
+        byte[][] privateFrames = new byte[userCount][];
+        for (int i = 0; i < userCount; i++) {
+            TextMessage msg = new TextMessage("harness", randomBase64(new Random(i), 64));
+            msg.setTargetUserId(userIds.get(i));
+            privateFrames[i] = encode(msg);
+        }
+        byte[][] imageFrames = new byte[IMAGE_TARGETS][];
+        String imageContent = randomBase64(new Random(7), IMAGE_BYTES);
+        for (int i = 0; i < IMAGE_TARGETS; i++) {
+            imageFrames[i] = encode(new ImageMessage("harness", imageContent, userIds.get(i % userCount)));
+        }
+        TextMessage groupMsg = new TextMessage("harness", randomBase64(new Random(11), 64));
+        groupMsg.setTargetUserId("ALL");
+        byte[] groupFrame = encode(groupMsg);
+
+        // 预热一轮，让 JIT 和 Gson 缓存就绪
+        drive(Math.min(messageCount / 10, 20_000), privateFrames, imageFrames, groupFrame, new Random(1));
+        resetCounters();
+
+        System.out.printf("▶ 发送 %d 条消息 (群聊 %d%%, 图片 %d%%)...%n", messageCount, groupPercent, imagePercent);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        drive(messageCount, privateFrames, imageFrames, groupFrame, new Random(2));
+
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocBefore;
+
+        verify();
+        report(elapsedNanos, allocated);
+        return errors.isEmpty();
+    }
+
+    private void login() {
+        for (int i = 0; i < userCount; i++) {
+            String userId = "H_" + i;
+            EmbeddedChannel ch = new EmbeddedChannel(
+                    new MessageToJsonEncoder(), new JsonToMessageDecoder(), new ChatServerHandler());
+            // 冻结时钟：登录后 300ms 的在线列表广播永远不会触发，否则会产生 N² 条消息
+            ch.freezeTime();
+            ch.writeInbound(Unpooled.wrappedBuffer(encode(new LoginRequest(userId, "harness", "harness-key"))));
+            ByteBuf out = ch.readOutbound();
+            Message response = decode(out);
+            if (!(response instanceof LoginResponse) || !((LoginResponse) response).isSuccess()) {
+                throw new IllegalStateException("虚拟用户登录失败: " + userId);
+            }
+            channels.add(ch);
+            userIds.add(userId);
+        }
+        expected = new long[userCount];
+        received = new long[userCount];
+    }
+
+    private void drive(int count, byte[][] privateFrames, byte[][] imageFrames, byte[] groupFrame, Random random) {
+        for (int n = 0; n < count; n++) {
+            int sender = random.nextInt(userCount);
+            int roll = random.nextInt(100);
+            byte[] frame;
+            if (roll < groupPercent) {
+                frame = groupFrame;
+                for (int i = 0; i < userCount; i++) expected[i]++;
+                groupSent++;
+            } else if (roll < groupPercent + imagePercent) {
+                int slot = random.nextInt(IMAGE_TARGETS);
+                frame = imageFrames[slot];
+                expected[slot % userCount]++;
+                imageSent++;
+            } else {
+                int target = random.nextInt(userCount);
+                frame = privateFrames[target];
+                expected[target]++;
+                privateSent++;
+            }
+            channels.get(sender).writeInbound(Unpooled.wrappedBuffer(frame));
+
+            if ((n + 1) % DRAIN_EVERY == 0) drainAll();
+        }
+        drainAll();
+    }
+
+    /**
+     * 取走所有连接上待发的消息并计数；每个连接抽样解码第一条，核对目标用户
+     */
+    private void drainAll() {
+        for (int i = 0; i < userCount; i++) {
+            EmbeddedChannel ch = channels.get(i);
+            ByteBuf buf;
+            boolean sampled = false;
+            while ((buf = ch.readOutbound()) != null) {
+                received[i]++;
+                outboundBytes += buf.readableBytes();
+                if (!sampled && errors.size() < 20) {
+                    sampled = true;
+                    String target = targetOf(decode(buf.retainedDuplicate()));
+                    if (!userIds.get(i).equals(target) && !"ALL".equals(target)) {
+                        errors.add(userIds.get(i) + " 收到了发给 " + target + " 的消息");
+                    }
+                }
+                buf.release();
+            }
+        }
+    }
+
+    private void verify() {
+        for (int i = 0; i < userCount; i++) {
+            if (expected[i] != received[i] && errors.size() < 20) {
+                errors.add(userIds.get(i) + " 预期收到 " + expected[i] + " 条，实际 " + received[i] + " 条");
+            }
+        }
+    }
+
+    private void resetCounters() {
+        java.util.Arrays.fill(expected, 0);
+        java.util.Arrays.fill(received, 0);
+        outboundBytes = 0;
+        privateSent = groupSent = imageSent = 0;
+    }
+
+    private void report(long elapsedNanos, long allocated) {
+        double seconds = elapsedNanos / 1e9;
+        long delivered = 0;
+        for (long r : received) delivered += r;
+
+        System.out.println();
+        System.out.println("=============== 服务端吞吐量 (EmbeddedChannel) ===============");
+        System.out.printf("用户: %d  私聊: %d  群聊: %d  图片: %d%n", userCount, privateSent, groupSent, imageSent);
+        System.out.printf("入站: %.0f 消息/s  出站: %.0f 消息/s  出站数据: %.1f MB/s%n",
+                messageCount / seconds, delivered / seconds, outboundBytes / seconds / 1024 / 1024);
+        System.out.printf("用时: %.2fs  分配: %.1f MB  每条入站消息分配: %.0f 字节%n",
+                seconds, allocated / 1024.0 / 1024.0, (double) allocated / messageCount);
+        if (errors.isEmpty()) {
+            System.out.println("路由校验: 通过");
+        } else {
+            System.out.println("路由校验: 失败");
+            errors.forEach(e -> System.out.println("  ❌ " + e));
+        }
+        System.out.println("==============================================================");
+    }
+
+    /** 路由错误 (最多 20 条)，run 之后有效 */
+    public List<String> getErrors() { return errors; }
+
+    /** 计时阶段预期投递 / 实际投递的消息总数 */
+    public long getExpectedDeliveries() { return java.util.Arrays.stream(expected).sum(); }
+    public long getDeliveries() { return java.util.Arrays.stream(received).sum(); }
+    public long getGroupSent() { return groupSent; }
+    public long getImageSent() { return imageSent; }
+
+    private static String targetOf(Message msg) {
+        if (msg instanceof TextMessage) return ((TextMessage) msg).getTargetUserId();
+        if (msg instanceof ImageMessage) return ((ImageMessage) msg).getTargetUserId();
+        return msg == null ? null : String.valueOf(msg.getType());
+    }
+
+    private static byte[] encode(Message msg) {
+        return GSON.toJson(msg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Message decode(ByteBuf buf) {
+        try {
+            return GSON.fromJson(buf.toString(StandardCharsets.UTF_8), Message.class);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static String randomBase64(Random random, int bytes) {
+        byte[] data = new byte[bytes];
+        random.nextBytes(data);
+        return Base64.getEncoder().encodeToString(data);
+    }
+}
@@ -0,0 +1,79 @@
+package com.my.chatroom;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * 共享客户端传输层 (SharedClientTransport)
+ * 作用：让成百上千个虚拟连接共用同一个 NioEventLoopGroup 和 SslContext，供压测、流量回放等工具使用。
+ * 管道结构与 Client 保持一致 (SSL -> 长度帧 -> JSON 编解码 -> 业务处理器)，但不带心跳和重连。
+ */
+public class SharedClientTransport implements AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final EventLoopGroup group;
+    private final SslContext sslCtx;
+    private final Bootstrap bootstrap;
+
+    /**
+     * @param ioThreads I/O 线程数，0 表示使用 Netty 默认值 (CPU 核数 * 2)
+     */
+    public SharedClientTransport(String host, int port, int ioThreads) throws SSLException {
+        this.host = host;
+        this.port = port;
+        this.group = new NioEventLoopGroup(ioThreads);
+        this.sslCtx = SslContextBuilder.forClient()
+                .protocols("TLSv1.2")
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .build();
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true);
+    }
+
+    /**
+     * 建立一个新连接
+     * @param handler 该连接独享的业务处理器 (每次调用都必须是新实例)
+     */
+    public ChannelFuture connect(ChannelHandler handler) {
+        return bootstrap.clone()
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(sslCtx.newHandler(ch.alloc(), host, port));
+                        pipeline.addLast(new LengthFieldBasedFrameDecoder(1024 * 1024 * 10, 0, 4, 0, 4));
+                        pipeline.addLast(new LengthFieldPrepender(4));
+                        pipeline.addLast(new MessageToJsonEncoder());
+                        pipeline.addLast(new JsonToMessageDecoder());
+                        pipeline.addLast(handler);
+                    }
+                })
+                .connect(host, port);
+    }
+
+    public EventLoopGroup group() { return group; }
+
+    @Override
+    public void close() {
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+}
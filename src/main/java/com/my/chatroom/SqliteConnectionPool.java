@@ -0,0 +1,137 @@
+package com.my.chatroom;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQLite 连接池 (SqliteConnectionPool)
+ * 作用：替代"每次查询都 DriverManager.getConnection"的做法，连接在进程内常驻。
+ *
+ * - 启用 WAL 日志模式：读不阻塞写，写不阻塞读；synchronous=NORMAL 下每次提交不再强制 fsync
+ * - 一个写连接 (SQLite 同一时刻本来就只允许一个写者，用锁串行化，避免 SQLITE_BUSY 重试)
+ * - 若干只读连接，借出 / 归还
+ * - 每个连接各自缓存 PreparedStatement，SQL 只编译一次
+ *
+ * 用法：pool.write(conn -> ...) / pool.read(conn -> ...)，回调中通过 conn.prepare(sql) 取得缓存的语句。
+ * 回调里打开的 ResultSet 必须在回调结束前关闭，语句本身不要关闭。
+ */
+public class SqliteConnectionPool implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T apply(PooledConnection conn) throws SQLException;
+    }
+
+    private final String url;
+    private final PooledConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> all = new ArrayList<>();
+
+    public SqliteConnectionPool(String url, int readerCount) throws SQLException {
+        this.url = url;
+        this.writer = open(false);
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+        for (int i = 0; i < Math.max(1, readerCount); i++) {
+            readers.add(open(true));
+        }
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA cache_size=-8000"); // 约 8MB 页缓存
+            if (readOnly) stmt.execute("PRAGMA query_only=ON");
+        }
+        PooledConnection pooled = new PooledConnection(conn);
+        all.add(pooled);
+        return pooled;
+    }
+
+    /**
+     * 在写连接上执行 (自动提交；需要事务时在回调中自行 setAutoCommit(false) / commit)
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            return work.apply(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 借一个只读连接执行
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection conn;
+        try {
+            conn = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待只读连接时被中断", e);
+        }
+        try {
+            return work.apply(conn);
+        } finally {
+            readers.offer(conn);
+        }
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            for (PooledConnection conn : all) {
+                conn.closeQuietly();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 池中的一个连接，附带 PreparedStatement 缓存 (只会被持有它的线程使用)
+     */
+    public static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        public Connection raw() { return connection; }
+
+        void closeQuietly() {
+            for (PreparedStatement stmt : statements.values()) {
+                try { stmt.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+            try { connection.close(); } catch (SQLException ignored) {}
+        }
+    }
+}
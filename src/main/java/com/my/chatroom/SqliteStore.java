@@ -0,0 +1,658 @@
+package com.my.chatroom;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite 存储引擎 (SqliteStore)
+ * 作用：默认引擎，原 DatabaseManager 中的 SQL 全部移到这里。
+ *
+ * - 连接常驻：WAL 模式 + 单写连接 + 只读连接池 + 语句缓存 (见 SqliteConnectionPool)
+ * - 聊天记录经 HistoryWriter 合并事务写入 chat_messages (BLOB + epoch 毫秒 + 会话编号)
+ * - 数据库结构按 PRAGMA user_version 逐级升级，旧表 chat_history 由 LegacyHistoryMigrator 在后台迁移
+ * - auto_vacuum = INCREMENTAL：删除留下的空闲页由 reclaimSpace() 分段归还给文件系统
+ */
+public class SqliteStore implements MessageStore, UserStore {
+
+    // 存储结构版本：3 = chat_messages (BLOB + epoch 毫秒 + 会话编号)，2 = 新表已建好但旧表仍在迁移中
+    private static final int SCHEMA_VERSION = 3;
+    // 每次增量 VACUUM 归还的页数 (默认页大小 4KB，约 4MB)，两段之间让出写锁
+    private static final int VACUUM_PAGES_PER_STEP = 1024;
+    // 【修改】每次 reclaimSpace 最多执行的时间和段数，剩下的留给下一次调用 (HistoryMaintenance 在两次调用之间检查是否空闲)
+    private static final long VACUUM_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int VACUUM_MAX_STEPS = 16;
+
+    private final String url;
+    private final SqliteConnectionPool pool;
+    private final HistoryWriter historyWriter;
+    private volatile boolean legacyHistoryPending = false;
+    // (user_id, target_id) -> conversations.id，只在写连接上访问
+    private final Map<String, Long> conversationIds = new ConcurrentHashMap<>();
+
+    public SqliteStore(String url, int readerCount) throws SQLException {
+        this.url = url;
+        this.pool = new SqliteConnectionPool(url, readerCount);
+        initializeDatabase();
+        this.historyWriter = new HistoryWriter(pool, this);
+        if (legacyHistoryPending) {
+            new LegacyHistoryMigrator(pool, this, () -> legacyHistoryPending = false).start();
+        }
+    }
+
+    private void initializeDatabase() throws SQLException {
+        String createUsersTableSQL = "CREATE TABLE IF NOT EXISTS users ("
+                + "user_id TEXT PRIMARY KEY NOT NULL,"
+                + "password_hash TEXT NOT NULL,"
+                + "public_key TEXT"
+                + ");";
+
+        String createKeysTableSQL = "CREATE TABLE IF NOT EXISTS session_keys ("
+                + "owner_id TEXT NOT NULL,"
+                + "target_id TEXT NOT NULL,"
+                + "key_blob TEXT NOT NULL,"
+                + "PRIMARY KEY (owner_id, target_id)"
+                + ");";
+
+        pool.write(conn -> {
+            enableIncrementalVacuum(conn.raw());
+            try (Statement stmt = conn.raw().createStatement()) {
+                stmt.execute(createUsersTableSQL);
+                stmt.execute(createKeysTableSQL);
+            }
+            migrate(conn.raw());
+            return null;
+        });
+    }
+
+    /**
+     * 切换到增量 VACUUM 模式。已有数据的库需要一次完整 VACUUM 才能生效 (只在第一次升级时发生)
+     */
+    private static void enableIncrementalVacuum(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int mode;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                mode = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (mode == 2) return;
+            boolean empty;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                empty = rs.next() && rs.getInt(1) == 0;
+            }
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            if (empty) return; // 新建的库在建表前设置即可生效
+            long start = System.currentTimeMillis();
+            stmt.execute("VACUUM");
+            System.out.println("数据库已切换到增量 VACUUM 模式，用时 " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 按 PRAGMA user_version 逐级升级数据库结构，每一级在独立事务中完成
+     */
+    private void migrate(Connection conn) throws SQLException {
+        int version;
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        boolean hasLegacyTable;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'chat_history'")) {
+            hasLegacyTable = rs.next();
+        }
+
+        if (version == 0 && !hasLegacyTable) {
+            // 全新数据库：直接建最新结构
+            runMigration(conn, SCHEMA_VERSION, messageTablesSql());
+            return;
+        }
+        if (version < 1) {
+            // v1：会话索引，按 (用户, 对象) 定位后直接按 id 倒序取最新一页，不再全表扫描 + 排序
+            runMigration(conn, 1, "CREATE INDEX IF NOT EXISTS idx_history_conversation ON chat_history (user_id, target_id, id)");
+        }
+        if (version < 2) {
+            // v2：建新表，id 序列接在旧表之后；旧数据由 LegacyHistoryMigrator 在后台分批搬迁
+            String[] ddl = messageTablesSql();
+            String[] statements = Arrays.copyOf(ddl, ddl.length + 1);
+            statements[ddl.length] = "INSERT INTO sqlite_sequence (name, seq) SELECT 'chat_messages',"
+                    + " COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'chat_history'), 0)";
+            runMigration(conn, 2, statements);
+        }
+        legacyHistoryPending = version < SCHEMA_VERSION;
+    }
+
+    private static String[] messageTablesSql() {
+        return new String[]{
+                "CREATE TABLE IF NOT EXISTS conversations ("
+                        + "id INTEGER PRIMARY KEY,"
+                        + "user_id TEXT NOT NULL,"
+                        + "target_id TEXT NOT NULL,"
+                        + "UNIQUE (user_id, target_id))",
+                "CREATE TABLE IF NOT EXISTS chat_messages ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "conversation_id INTEGER NOT NULL,"
+                        + "is_sender INTEGER NOT NULL,"
+                        + "encoding INTEGER NOT NULL DEFAULT 0,"  // 见 HistoryContent
+                        + "content BLOB NOT NULL,"
+                        + "created_at INTEGER NOT NULL)",         // epoch 毫秒
+                "CREATE INDEX IF NOT EXISTS idx_messages_conversation ON chat_messages (conversation_id, id)"
+        };
+    }
+
+    private static void runMigration(Connection conn, int toVersion, String... statements) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : statements) stmt.execute(sql);
+            stmt.execute("PRAGMA user_version = " + toVersion);
+            conn.commit();
+            System.out.println("数据库已升级到版本 " + toVersion);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * 查找或创建会话编号 (必须在写连接上调用)
+     */
+    long conversationId(SqliteConnectionPool.PooledConnection conn, String userId, String targetId) throws SQLException {
+        String key = userId + '\u0000' + targetId;
+        Long cached = conversationIds.get(key);
+        if (cached != null) return cached;
+
+        PreparedStatement insert = conn.prepare("INSERT OR IGNORE INTO conversations (user_id, target_id) VALUES (?, ?)");
+        insert.setString(1, userId);
+        insert.setString(2, targetId);
+        insert.executeUpdate();
+        PreparedStatement select = conn.prepare("SELECT id FROM conversations WHERE user_id = ? AND target_id = ?");
+        select.setString(1, userId);
+        select.setString(2, targetId);
+        try (ResultSet rs = select.executeQuery()) {
+            rs.next();
+            long id = rs.getLong(1);
+            conversationIds.put(key, id);
+            return id;
+        }
+    }
+
+    /**
+     * 写事务回滚后调用：回滚可能撤销了刚创建的会话，缓存的编号不再可信
+     */
+    void clearConversationCache() {
+        conversationIds.clear();
+    }
+
+    /**
+     * 旧表是否仍在迁移中
+     */
+    public boolean isLegacyHistoryPending() {
+        return legacyHistoryPending;
+    }
+
+    /**
+     * 【新增】从拆分前的共享数据库复制 userId 的会话密钥和聊天记录 (一个事务，消息 id 保持不变，搜索索引仍然有效)
+     * 只应在新建的空库上调用；共享库中尚未迁移的 chat_history 行在复制时直接转换为新结构
+     * @return 复制的行数
+     */
+    public int importLocalUser(java.nio.file.Path legacyFile, String userId) throws SQLException {
+        historyWriter.flush();
+        return pool.write(conn -> {
+            Connection raw = conn.raw();
+            try (Statement stmt = raw.createStatement()) {
+                stmt.execute("ATTACH DATABASE '" + legacyFile.toAbsolutePath().toString().replace("'", "''") + "' AS legacy");
+            }
+            raw.setAutoCommit(false);
+            try {
+                int imported = 0;
+                if (hasLegacyTable(raw, "session_keys")) {
+                    imported += copy(raw, "INSERT OR IGNORE INTO session_keys (owner_id, target_id, key_blob)"
+                            + " SELECT owner_id, target_id, key_blob FROM legacy.session_keys WHERE owner_id = ?", userId);
+                }
+                if (hasLegacyTable(raw, "chat_messages") && hasLegacyTable(raw, "conversations")) {
+                    copy(raw, "INSERT OR IGNORE INTO conversations (id, user_id, target_id)"
+                            + " SELECT id, user_id, target_id FROM legacy.conversations WHERE user_id = ?", userId);
+                    imported += copy(raw, "INSERT INTO chat_messages (id, conversation_id, is_sender, encoding, content, created_at)"
+                            + " SELECT m.id, m.conversation_id, m.is_sender, m.encoding, m.content, m.created_at"
+                            + " FROM legacy.chat_messages m JOIN legacy.conversations c ON c.id = m.conversation_id"
+                            + " WHERE c.user_id = ?", userId);
+                }
+                if (hasLegacyTable(raw, "chat_history")) {
+                    imported += importLegacyHistory(conn, userId);
+                }
+                raw.commit();
+                return imported;
+            } catch (SQLException e) {
+                raw.rollback();
+                throw e;
+            } finally {
+                raw.setAutoCommit(true);
+                clearConversationCache();
+                try (Statement stmt = raw.createStatement()) {
+                    stmt.execute("DETACH DATABASE legacy");
+                }
+            }
+        });
+    }
+
+    private static boolean hasLegacyTable(Connection conn, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT 1 FROM legacy.sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static int copy(Connection conn, String sql, String userId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, userId);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private int importLegacyHistory(SqliteConnectionPool.PooledConnection conn, String userId) throws SQLException {
+        int imported = 0;
+        try (PreparedStatement select = conn.raw().prepareStatement(
+                "SELECT id, target_id, is_sender, encrypted_content,"
+                + " COALESCE(CAST(strftime('%s', timestamp) AS INTEGER) * 1000, 0)"
+                + " FROM legacy.chat_history WHERE user_id = ? ORDER BY id");
+             PreparedStatement insert = conn.raw().prepareStatement(
+                "INSERT OR IGNORE INTO chat_messages (id, conversation_id, is_sender, encoding, content, created_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            select.setString(1, userId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    HistoryContent content = HistoryContent.encodeLegacy(rs.getString(4));
+                    insert.setLong(1, rs.getLong(1));
+                    insert.setLong(2, conversationId(conn, userId, rs.getString(2)));
+                    insert.setInt(3, rs.getInt(3));
+                    insert.setInt(4, content.encoding);
+                    insert.setBytes(5, content.bytes);
+                    insert.setLong(6, rs.getLong(5));
+                    insert.addBatch();
+                    if (++imported % 1000 == 0) insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        return imported;
+    }
+
+    // --- 用户 ---
+
+    @Override
+    public boolean insertUser(User user) {
+        String sql = "INSERT INTO users (user_id, password_hash, public_key) VALUES (?, ?, ?)";
+        try {
+            return pool.write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, user.getUserId());
+                pstmt.setString(2, user.getPasswordHash());
+                pstmt.setString(3, user.getPublicKey());
+                pstmt.executeUpdate();
+                return true;
+            });
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public User loadUser(String userId) {
+        String sql = "SELECT user_id, password_hash, public_key FROM users WHERE user_id = ?";
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, userId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        User user = new User(rs.getString("user_id"), rs.getString("password_hash"));
+                        user.setPublicKey(rs.getString("public_key"));
+                        return user;
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {}
+        return null;
+    }
+
+    @Override
+    public boolean updatePublicKey(String userId, String publicKey) {
+        String sql = "UPDATE users SET public_key = ? WHERE user_id = ?";
+        try {
+            return pool.write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, publicKey);
+                pstmt.setString(2, userId);
+                pstmt.executeUpdate();
+                return true;
+            });
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // --- 聊天记录 ---
+
+    @Override
+    public CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, String encryptedContent) {
+        return historyWriter.enqueue(userId, targetId, isSender, encryptedContent);
+    }
+
+    @Override
+    public CompletableFuture<Long> saveMessageAsync(String userId, String targetId, boolean isSender, byte[] sealedContent) {
+        return historyWriter.enqueue(userId, targetId, isSender, HistoryContent.ofBytes(sealedContent));
+    }
+
+    @Override
+    public CompletableFuture<List<Long>> saveMessagesAsync(String userId, boolean isSender, List<NewMessage> messages) {
+        return historyWriter.writeAll(userId, isSender, messages);
+    }
+
+    @Override
+    public void flush() {
+        historyWriter.flush();
+    }
+
+    @Override
+    public List<HistoryRecord> getHistoryPage(String userId, String targetId, long beforeId, int limit) {
+        List<HistoryRecord> page = new ArrayList<>(Math.min(limit, 1024));
+        historyWriter.flush();
+        String sql = "SELECT m.id, m.is_sender, m.encoding, m.content, m.created_at"
+                + " FROM conversations c JOIN chat_messages m ON m.conversation_id = c.id"
+                + " WHERE c.user_id = ? AND c.target_id = ? AND m.id < ? ORDER BY m.id DESC LIMIT ?";
+        try {
+            pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, userId);
+                pstmt.setString(2, targetId);
+                pstmt.setLong(3, beforeId);
+                pstmt.setInt(4, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        // 【修改】字节内容原样交给调用方，需要文本时才编码
+                        int encoding = rs.getInt(3);
+                        boolean legacy = HistoryContent.isLegacy(encoding);
+                        page.add(HistoryContent.isBinary(encoding)
+                                ? new HistoryRecord(rs.getLong(1), rs.getInt(2) == 1, rs.getBytes(4), rs.getLong(5), legacy)
+                                : new HistoryRecord(rs.getLong(1), rs.getInt(2) == 1, HistoryContent.decode(encoding, rs.getBytes(4)), rs.getLong(5), legacy));
+                    }
+                }
+                if (legacyHistoryPending) mergeLegacyPage(conn, page, userId, targetId, beforeId, limit);
+                return null;
+            });
+        } catch (SQLException e) { e.printStackTrace(); }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * 迁移期间补上仍在旧表中的记录 (旧记录的 id 一定小于新表中的 id)
+     */
+    private void mergeLegacyPage(SqliteConnectionPool.PooledConnection conn, List<HistoryRecord> page,
+                                 String userId, String targetId, long beforeId, int limit) throws SQLException {
+        if (page.size() >= limit) return;
+        String sql = "SELECT id, is_sender, encrypted_content, CAST(strftime('%s', timestamp) AS INTEGER) * 1000"
+                + " FROM chat_history WHERE user_id = ? AND target_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
+        try {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, userId);
+            pstmt.setString(2, targetId);
+            pstmt.setLong(3, page.isEmpty() ? beforeId : Math.min(beforeId, page.get(page.size() - 1).getId()));
+            pstmt.setInt(4, limit - page.size());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    page.add(new HistoryRecord(rs.getLong(1), rs.getInt(2) == 1, rs.getString(3), rs.getLong(4), true));
+                }
+            }
+        } catch (SQLException e) {
+            // 迁移恰好在这次查询前完成，旧表已删除
+            if (legacyHistoryPending) throw e;
+        }
+    }
+
+    @Override
+    public boolean deleteMessage(long messageId) {
+        try {
+            return pool.write(conn -> {
+                PreparedStatement pstmt = conn.prepare("DELETE FROM chat_messages WHERE id = ?");
+                pstmt.setLong(1, messageId);
+                if (pstmt.executeUpdate() > 0) return true;
+                if (!legacyHistoryPending) return false;
+                PreparedStatement legacy = conn.prepare("DELETE FROM chat_history WHERE id = ?");
+                legacy.setLong(1, messageId);
+                return legacy.executeUpdate() > 0;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 一个事务内批量删除
+     */
+    @Override
+    public int deleteMessages(Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) return 0;
+        try {
+            return pool.write(conn -> {
+                Connection raw = conn.raw();
+                raw.setAutoCommit(false);
+                try {
+                    int deleted = deleteBatch(conn.prepare("DELETE FROM chat_messages WHERE id = ?"), messageIds);
+                    if (legacyHistoryPending) deleted += deleteBatch(conn.prepare("DELETE FROM chat_history WHERE id = ?"), messageIds);
+                    raw.commit();
+                    return deleted;
+                } catch (SQLException e) {
+                    raw.rollback();
+                    throw e;
+                } finally {
+                    raw.setAutoCommit(true);
+                }
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private static int deleteBatch(PreparedStatement pstmt, Collection<Long> messageIds) throws SQLException {
+        for (long id : messageIds) {
+            pstmt.setLong(1, id);
+            pstmt.addBatch();
+        }
+        int deleted = 0;
+        for (int count : pstmt.executeBatch()) {
+            if (count > 0) deleted += count;
+        }
+        return deleted;
+    }
+
+    // --- 保留策略与空间回收 ---
+
+    /**
+     * 旧表迁移期间不清理，避免与 LegacyHistoryMigrator 搬迁中的记录交错
+     */
+    @Override
+    public int purgeExpired(RetentionPolicy policy, int maxRows) {
+        if (!policy.isEnabled() || legacyHistoryPending) return 0;
+        historyWriter.flush();
+        try {
+            int deleted = 0;
+            if (policy.hasMaxAge()) {
+                deleted = purgeByAge(policy.cutoffMillis(), maxRows);
+            }
+            if (deleted < maxRows && policy.hasMaxPerConversation()) {
+                deleted += purgeByCount(policy.getMaxPerConversation(), maxRows - deleted);
+            }
+            return deleted;
+        } catch (SQLException e) {
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 清理过期记录失败 {} {}", policy, e);
+            return 0;
+        }
+    }
+
+    /**
+     * id 与写入时间同序，只检查最旧的 maxRows 行，不需要 created_at 上的索引
+     */
+    private int purgeByAge(long cutoffMillis, int maxRows) throws SQLException {
+        String sql = "DELETE FROM chat_messages WHERE id IN (SELECT id FROM chat_messages ORDER BY id LIMIT ?) AND created_at < ?";
+        return pool.write(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, maxRows);
+            pstmt.setLong(2, cutoffMillis);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    /**
+     * 找一个超出条数上限的会话，删掉它最旧的一批 (会话索引覆盖了计数和定位，不回表)
+     */
+    private int purgeByCount(int maxPerConversation, int maxRows) throws SQLException {
+        long[] target = pool.read(conn -> {
+            PreparedStatement find = conn.prepare("SELECT conversation_id FROM chat_messages"
+                    + " GROUP BY conversation_id HAVING COUNT(*) > ? LIMIT 1");
+            find.setInt(1, maxPerConversation);
+            long conversation;
+            try (ResultSet rs = find.executeQuery()) {
+                if (!rs.next()) return null;
+                conversation = rs.getLong(1);
+            }
+            // 第 maxPerConversation+1 新的一条及更早的都要删除
+            PreparedStatement boundary = conn.prepare("SELECT id FROM chat_messages WHERE conversation_id = ?"
+                    + " ORDER BY id DESC LIMIT 1 OFFSET ?");
+            boundary.setLong(1, conversation);
+            boundary.setInt(2, maxPerConversation);
+            try (ResultSet rs = boundary.executeQuery()) {
+                return rs.next() ? new long[]{conversation, rs.getLong(1)} : null;
+            }
+        });
+        if (target == null) return 0;
+        String sql = "DELETE FROM chat_messages WHERE id IN (SELECT id FROM chat_messages"
+                + " WHERE conversation_id = ? AND id <= ? ORDER BY id LIMIT ?)";
+        return pool.write(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, target[0]);
+            pstmt.setLong(2, target[1]);
+            pstmt.setInt(3, maxRows);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    /**
+     * 增量 VACUUM：每次归还一段空闲页后释放写锁，全部归还后截断 WAL 让文件真正变小
+     * 【修改】一次调用最多执行 VACUUM_MAX_STEPS 段 / VACUUM_MAX_NANOS；空闲页数不再减少时 (例如有读事务持有旧快照) 立即停止，
+     * 不再一直占着写连接空转
+     * @return 本次归还的字节数；为 0 表示没有空闲页或没有进展
+     */
+    @Override
+    public long reclaimSpace() {
+        try {
+            long pageSize = pragma("page_size");
+            long before = pragma("freelist_count");
+            long free = before;
+            long deadline = System.nanoTime() + VACUUM_MAX_NANOS;
+            for (int step = 0; free > 0 && step < VACUUM_MAX_STEPS && System.nanoTime() < deadline; step++) {
+                long remaining = pool.write(conn -> {
+                    try (Statement stmt = conn.raw().createStatement()) {
+                        stmt.execute("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+                        try (ResultSet rs = stmt.executeQuery("PRAGMA freelist_count")) {
+                            return rs.next() ? rs.getLong(1) : 0L;
+                        }
+                    }
+                });
+                if (remaining >= free) {
+                    MetricsRegistry.counter("maintenance.vacuumStalled").increment();
+                    break;
+                }
+                free = remaining;
+            }
+            if (before > 0 && free == 0) {
+                pool.write(conn -> {
+                    try (Statement stmt = conn.raw().createStatement()) {
+                        stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+                    }
+                    return null;
+                });
+            }
+            return (before - free) * pageSize;
+        } catch (SQLException e) {
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[聊天记录] 增量 VACUUM 失败 {} {}", url, e);
+            return 0;
+        }
+    }
+
+    @Override
+    public long sizeBytes() {
+        try {
+            return pragma("page_count") * pragma("page_size");
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    private long pragma(String name) throws SQLException {
+        return pool.read(conn -> {
+            try (Statement stmt = conn.raw().createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+
+    // --- 会话密钥 ---
+
+    @Override
+    public boolean saveSessionKey(String ownerId, String targetId, String encryptedKeyBlob) {
+        String sql = "INSERT OR REPLACE INTO session_keys (owner_id, target_id, key_blob) VALUES (?, ?, ?)";
+        try {
+            return pool.write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, ownerId);
+                pstmt.setString(2, targetId);
+                pstmt.setString(3, encryptedKeyBlob);
+                pstmt.executeUpdate();
+                return true;
+            });
+        } catch (SQLException e) { return false; }
+    }
+
+    @Override
+    public Map<String, String> getAllSessionKeys(String ownerId) {
+        Map<String, String> keys = new HashMap<>();
+        String sql = "SELECT target_id, key_blob FROM session_keys WHERE owner_id = ?";
+        try {
+            pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, ownerId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        keys.put(rs.getString("target_id"), rs.getString("key_blob"));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {}
+        return keys;
+    }
+
+    /**
+     * 先写完排队中的聊天记录，再关闭连接
+     */
+    @Override
+    public void close() {
+        historyWriter.close();
+        pool.close();
+    }
+}
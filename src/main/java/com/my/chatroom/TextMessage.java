@@ -4,6 +4,8 @@ public class TextMessage extends Message {
 
     private String content;
     private String targetUserId; // 指定目标接收方
+    // 【新增】私聊密文的二进制形式 (EncryptionUtils.seal 的信封)：不进 JSON，由编解码器作为帧尾部的原始字节传输
+    private transient byte[] sealedContent;
 
     public TextMessage() {
         super();
@@ -20,4 +22,6 @@ public class TextMessage extends Message {
     public void setContent(String content) { this.content = content; }
     public String getTargetUserId() { return targetUserId; }
     public void setTargetUserId(String targetUserId) { this.targetUserId = targetUserId; }
+    public byte[] getSealedContent() { return sealedContent; }
+    public void setSealedContent(byte[] sealedContent) { this.sealedContent = sealedContent; }
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+package com.my.chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 流量抓包文件 (TrafficCapture)
+ * 作用：把服务端解码后的消息帧连同时间、连接编号、消息类型写入紧凑的抓包文件，供 TrafficReplay 回放。
+ *
+ * 文件格式 (整体 GZIP 压缩)：
+ *   头部：  "CRCAP" | 版本(1 字节) | 抓包开始时间 epoch 毫秒(8 字节)
+ *   每条记录：相对开始时间的微秒数(varlong) | 连接编号(varint) | 类型(1 字节) | 长度(varint) | JSON 帧
+ * 类型字节为 MessageType 的序号，CLOSE_EVENT 表示连接断开 (长度为 0)，UNKNOWN_TYPE 表示缺少 type 字段。
+ *
+ * 写入在独立线程完成，I/O 线程只做一次非阻塞入队；队列满时丢弃并计数。
+ * 【修改】写入线程出错退出后，之后的帧直接计入丢弃，close() 不再等待它；丢弃数导出为 capture.dropped 指标，关闭时打印，
+ * 回放前据此判断抓包是否完整。
+ */
+public class TrafficCapture implements Closeable {
+
+    public static final int CLOSE_EVENT = 0xFF;
+    public static final int UNKNOWN_TYPE = 0xFE;
+
+    private static final byte[] MAGIC = {'C', 'R', 'C', 'A', 'P'};
+    private static final int VERSION = 1;
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final Frame POISON = new Frame(0, 0, 0, new byte[0]);
+
+    private final long startNanos = System.nanoTime();
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean failed = false;
+    private final DataOutputStream out;
+    private final Thread writerThread;
+    private final Path file;
+
+    public TrafficCapture(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024)));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        this.writerThread = new Thread(this::writeLoop, "traffic-capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public Path getFile() { return file; }
+    public long writtenCount() { return written.get(); }
+    public long droppedCount() { return dropped.get(); }
+
+    /**
+     * 记录一帧 (可在任意线程调用，永不阻塞)
+     */
+    public void record(int connectionId, int type, byte[] payload) {
+        if (failed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long offsetMicros = (System.nanoTime() - startNanos) / 1000;
+        if (!queue.offer(new Frame(offsetMicros, connectionId, type, payload))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Frame frame = queue.take();
+                if (frame == POISON) break;
+                writeVarLong(out, frame.offsetMicros);
+                writeVarLong(out, frame.connectionId);
+                out.writeByte(frame.type);
+                writeVarLong(out, frame.payload.length);
+                out.write(frame.payload);
+                written.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failed = true;
+            AsyncLogger.error(AsyncLogger.Category.ERROR, "[抓包] 写入失败，之后的帧全部丢弃 {} {}", file, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            // 写入线程已退出时队列不会再被取走，不能无限等待
+            if (failed || !queue.offer(POISON, 10, TimeUnit.SECONDS)) {
+                writerThread.interrupt();
+            }
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 没能写出的帧也算丢弃
+        queue.remove(POISON);
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        System.out.println("流量抓包已关闭: 写入 " + written.get() + " 帧, 丢弃 " + dropped.get() + " 帧"
+                + (failed ? " (写入出错，抓包不完整)" : "") + " " + file);
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (!failed) throw e;
+        }
+    }
+
+    // ================= 读取 =================
+
+    /**
+     * 顺序读取抓包文件
+     */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final long startEpochMillis;
+
+        public Reader(Path file) throws IOException {
+            InputStream raw = new GZIPInputStream(Files.newInputStream(file), 64 * 1024);
+            this.in = new DataInputStream(new BufferedInputStream(raw));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("不是有效的抓包文件: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("不支持的抓包文件版本: " + version);
+            }
+            this.startEpochMillis = in.readLong();
+        }
+
+        public long getStartEpochMillis() { return startEpochMillis; }
+
+        /**
+         * @return 下一帧，文件结束时返回 null
+         */
+        public Frame next() throws IOException {
+            try {
+                long offsetMicros = readVarLong(in);
+                int connectionId = (int) readVarLong(in);
+                int type = in.readUnsignedByte();
+                byte[] payload = new byte[(int) readVarLong(in)];
+                in.readFully(payload);
+                return new Frame(offsetMicros, connectionId, type, payload);
+            } catch (EOFException e) {
+                // 文件结束，或服务端被强制终止导致末尾不完整
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * 抓包中的一帧
+     */
+    public static final class Frame {
+        private final long offsetMicros;
+        private final int connectionId;
+        private final int type;
+        private final byte[] payload;
+
+        Frame(long offsetMicros, int connectionId, int type, byte[] payload) {
+            this.offsetMicros = offsetMicros;
+            this.connectionId = connectionId;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getOffsetMicros() { return offsetMicros; }
+        public int getConnectionId() { return connectionId; }
+        public int getType() { return type; }
+        public byte[] getPayload() { return payload; }
+        public boolean isClose() { return type == CLOSE_EVENT; }
+    }
+
+    // --- varint 编码 (7 位一组，高位为续位标志) ---
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("varint 格式错误");
+    }
+}
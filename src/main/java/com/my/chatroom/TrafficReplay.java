@@ -0,0 +1,193 @@
+package com.my.chatroom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流量回放工具 (TrafficReplay)
+ * 作用：读取服务端 CaptureHandler 录制的抓包文件，按原始节奏 (或 N 倍速 / 最快速度) 重新驱动一个 Server。
+ * 每个抓包连接编号对应一条真实的 TLS 连接，帧以原始 JSON 字节直接写出，不再经过 Gson 编码。
+ * 抓包中的登录密码已被替换成占位符，因此应当回放到使用全新数据库的服务端 (会自动注册)。
+ *
+ * 用法：TrafficReplay <抓包文件> [host] [port] [速度: 1 | N | max]
+ */
+public class TrafficReplay {
+
+    private static final int TYPE_SLOTS = 256;
+    private static final long QUIET_PERIOD_NANOS = 2_000_000_000L;
+
+    private final Path captureFile;
+    private final String host;
+    private final int port;
+    private final double speed; // <= 0 表示最快速度
+
+    private final AtomicLongArray sentByType = new AtomicLongArray(TYPE_SLOTS);
+    private final AtomicLongArray receivedByType = new AtomicLongArray(TYPE_SLOTS);
+    private final AtomicLong failedConnections = new AtomicLong();
+    private volatile long lastReceiveNanos;
+
+    public TrafficReplay(Path captureFile, String host, int port, double speed) {
+        this.captureFile = captureFile;
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: TrafficReplay <抓包文件> [host] [port] [速度: 1 | N | max]");
+            return;
+        }
+        String host = args.length > 1 ? args[1] : "127.0.0.1";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8888;
+        double speed = 1;
+        if (args.length > 3) {
+            speed = "max".equalsIgnoreCase(args[3]) ? 0 : Double.parseDouble(args[3].replace("x", ""));
+        }
+        new TrafficReplay(Paths.get(args[0]), host, port, speed).run();
+    }
+
+    public void run() throws Exception {
+        Map<Integer, ReplayConnection> connections = new HashMap<>();
+        List<ReplayConnection> deferredCloses = new ArrayList<>();
+        long frames = 0;
+        long bytes = 0;
+        long maxLagNanos = 0;
+        long elapsedNanos;
+
+        try (SharedClientTransport transport = new SharedClientTransport(host, port, 0);
+             TrafficCapture.Reader reader = new TrafficCapture.Reader(captureFile)) {
+
+            System.out.println("▶ 回放 " + captureFile + " -> " + host + ":" + port
+                    + " (速度: " + (speed <= 0 ? "最快" : speed + "x") + ")");
+            long start = System.nanoTime();
+
+            TrafficCapture.Frame frame;
+            while ((frame = reader.next()) != null) {
+                if (speed > 0) {
+                    long due = start + (long) (frame.getOffsetMicros() * 1000 / speed);
+                    long now;
+                    while ((now = System.nanoTime()) < due) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                    maxLagNanos = Math.max(maxLagNanos, now - due);
+                }
+
+                int connectionId = frame.getConnectionId();
+                if (frame.isClose()) {
+                    ReplayConnection conn = connections.remove(connectionId);
+                    if (conn == null) continue;
+                    // 最快速度下断开事件推迟到最后，否则连接会在服务端应答之前就被关闭
+                    if (speed > 0) conn.closeAfterPendingWrites();
+                    else deferredCloses.add(conn);
+                    continue;
+                }
+
+                ReplayConnection conn = connections.computeIfAbsent(connectionId,
+                        id -> new ReplayConnection(transport.connect(new ReplayHandler())));
+                conn.write(Unpooled.wrappedBuffer(frame.getPayload()));
+                sentByType.incrementAndGet(frame.getType());
+                frames++;
+                bytes += frame.getPayload().length;
+            }
+            elapsedNanos = System.nanoTime() - start;
+
+            // 等待服务端把最后的响应发完 (连续 2 秒没有收到任何消息即视为结束)
+            lastReceiveNanos = System.nanoTime();
+            while (System.nanoTime() - lastReceiveNanos < QUIET_PERIOD_NANOS) {
+                Thread.sleep(200);
+            }
+            deferredCloses.addAll(connections.values());
+            for (ReplayConnection conn : deferredCloses) {
+                conn.closeAfterPendingWrites();
+            }
+        }
+
+        report(frames, bytes, elapsedNanos, maxLagNanos);
+    }
+
+    private void report(long frames, long bytes, long elapsedNanos, long maxLagNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println("==================== 回放结果 ====================");
+        System.out.printf("帧数: %d  数据量: %.1f MB  用时: %.2fs  速率: %.0f 帧/s%n",
+                frames, bytes / 1024.0 / 1024.0, seconds, frames / seconds);
+        if (speed > 0) {
+            System.out.printf("调度最大滞后: %.2fms%n", maxLagNanos / 1e6);
+        }
+        if (failedConnections.get() > 0) {
+            System.out.println("连接失败导致未发送的帧: " + failedConnections.get());
+        }
+        Message.MessageType[] types = Message.MessageType.values();
+        for (int i = 0; i < types.length; i++) {
+            if (sentByType.get(i) > 0 || receivedByType.get(i) > 0) {
+                System.out.printf("%-24s 发送 %8d  收到 %8d%n", types[i], sentByType.get(i), receivedByType.get(i));
+            }
+        }
+        System.out.println("==================================================");
+    }
+
+    /**
+     * 一条回放连接：连接建立前的帧挂在 connectFuture 的监听器上，按添加顺序依次写出；
+     * 断开事件要等最后一次写完成后才关闭，否则 TLS 握手未完成时的待发数据会被丢弃。
+     */
+    private final class ReplayConnection {
+        private final ChannelFuture connectFuture;
+        private volatile ChannelFuture lastWrite;
+
+        ReplayConnection(ChannelFuture connectFuture) {
+            this.connectFuture = connectFuture;
+        }
+
+        void write(ByteBuf payload) {
+            connectFuture.addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    lastWrite = f.channel().writeAndFlush(payload);
+                } else {
+                    payload.release();
+                    failedConnections.incrementAndGet();
+                }
+            });
+        }
+
+        void closeAfterPendingWrites() {
+            connectFuture.addListener((ChannelFutureListener) f -> {
+                if (!f.isSuccess()) return;
+                ChannelFuture pending = lastWrite;
+                if (pending == null) {
+                    f.channel().close();
+                } else {
+                    pending.addListener(ChannelFutureListener.CLOSE);
+                }
+            });
+        }
+    }
+
+    private final class ReplayHandler extends SimpleChannelInboundHandler<Message> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
+            lastReceiveNanos = System.nanoTime();
+            if (msg.getType() != null) receivedByType.incrementAndGet(msg.getType().ordinal());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("💥 回放连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.my.chatroom;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户缓存 (UserCache)
+ * 作用：在 DatabaseManager.getUser 前面挡一层内存缓存，登录和密钥交换请求 (取对方公钥) 大多直接命中内存。
+ * 按最近最少使用 (LRU) 淘汰；"用户不存在"也会被缓存，避免对不存在用户的反复查询打到数据库。
+ * 写入方 (registerUser / updatePublicKey) 在数据库写成功后同步更新缓存 (write-through)。
+ */
+public class UserCache {
+
+    private static final User MISSING = new User("", "");
+
+    private final int capacity;
+    private final LinkedHashMap<String, User> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long writeEpoch = 0; // 每次写入方更新 +1，用来丢弃加载期间已过期的数据库结果
+
+    public UserCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, User>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                return size() > UserCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存
+     * @param loader 未命中时从数据库加载 (可返回 null 表示用户不存在)
+     */
+    public User get(String userId, java.util.function.Function<String, User> loader) {
+        User cached;
+        long epoch;
+        synchronized (this) {
+            cached = entries.get(userId);
+            epoch = writeEpoch;
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached == MISSING ? null : cached;
+        }
+        misses.increment();
+        User loaded = loader.apply(userId);
+        synchronized (this) {
+            // 加载期间有写入方更新过，读到的可能是旧值，不放入缓存
+            if (epoch == writeEpoch) entries.putIfAbsent(userId, loaded == null ? MISSING : loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * 写入方更新 (数据库已写成功)
+     */
+    public synchronized void put(User user) {
+        writeEpoch++;
+        entries.put(user.getUserId(), user);
+    }
+
+    /**
+     * 更新缓存中用户的公钥；缓存里的对象可能正被其他线程读取，因此替换为新对象而不是原地修改
+     */
+    public synchronized void updatePublicKey(String userId, String publicKey) {
+        writeEpoch++;
+        User cached = entries.get(userId);
+        if (cached == null || cached == MISSING) {
+            entries.remove(userId);
+            return;
+        }
+        User updated = new User(cached.getUserId(), cached.getPasswordHash());
+        updated.setPublicKey(publicKey);
+        entries.put(userId, updated);
+    }
+
+    public synchronized void invalidate(String userId) {
+        writeEpoch++;
+        entries.remove(userId);
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public long hitCount() { return hits.sum(); }
+    public long missCount() { return misses.sum(); }
+
+    /**
+     * 命中率 (百分比，0-100)
+     */
+    public long hitRatePercent() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : h * 100 / total;
+    }
+}
@@ -0,0 +1,28 @@
+package com.my.chatroom;
+
+import java.util.Map;
+
+/**
+ * 用户与密钥存储接口 (UserStore)
+ * 作用：用户账号、公钥以及本地加密保存的会话密钥的持久化，与 MessageStore 一起由同一个存储引擎实现。
+ * 缓存 (UserCache) 和密码哈希留在 DatabaseManager 中，与具体引擎无关。
+ */
+public interface UserStore {
+
+    /**
+     * 新增用户
+     * @return 用户已存在或写入失败时返回 false
+     */
+    boolean insertUser(User user);
+
+    /**
+     * 按 ID 读取用户，不存在时返回 null
+     */
+    User loadUser(String userId);
+
+    boolean updatePublicKey(String userId, String publicKey);
+
+    boolean saveSessionKey(String ownerId, String targetId, String encryptedKeyBlob);
+
+    Map<String, String> getAllSessionKeys(String ownerId);
+}
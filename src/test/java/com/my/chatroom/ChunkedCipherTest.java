@@ -0,0 +1,107 @@
+package com.my.chatroom;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分块加密 (ChunkedCipher)：往返一致，块被调换顺序或丢掉最后一块时解密失败
+ */
+class ChunkedCipherTest {
+
+    private static final int CHUNK = 64;
+
+    @Test
+    void roundTrip() throws Exception {
+        SecretKey key = EncryptionUtils.generateAesKey();
+        byte[] plain = plain(CHUNK * 3 + 17);
+
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        ChunkedCipher.encrypt(new ByteArrayInputStream(plain), sealed, key);
+
+        assertArrayEquals(plain, decrypt(sealed.toByteArray(), key));
+        assertArrayEquals(plain, decrypt(join(chunks(key, plain)), key));
+    }
+
+    @Test
+    void emptyInputRoundTrip() throws Exception {
+        SecretKey key = EncryptionUtils.generateAesKey();
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        ChunkedCipher.encrypt(new ByteArrayInputStream(new byte[0]), sealed, key);
+
+        assertArrayEquals(new byte[0], decrypt(sealed.toByteArray(), key));
+    }
+
+    @Test
+    void reorderedChunksAreRejected() throws Exception {
+        SecretKey key = EncryptionUtils.generateAesKey();
+        List<byte[]> parts = chunks(key, plain(CHUNK * 3));
+        Collections.swap(parts, 1, 2); // parts[0] 是头部
+
+        IOException e = assertThrows(IOException.class, () -> decrypt(join(parts), key));
+        assertTrue(e.getMessage().contains("认证失败"), e.getMessage());
+    }
+
+    @Test
+    void truncatedStreamIsRejected() throws Exception {
+        SecretKey key = EncryptionUtils.generateAesKey();
+        List<byte[]> parts = chunks(key, plain(CHUNK * 3));
+        parts.remove(parts.size() - 1);
+
+        IOException e = assertThrows(IOException.class, () -> decrypt(join(parts), key));
+        assertTrue(e.getMessage().contains("截断"), e.getMessage());
+    }
+
+    @Test
+    void chunkFromAnotherStreamIsRejected() throws Exception {
+        SecretKey key = EncryptionUtils.generateAesKey();
+        byte[] plain = plain(CHUNK * 2);
+        List<byte[]> first = chunks(key, plain);
+        List<byte[]> second = chunks(key, plain);
+        first.set(1, second.get(1));
+
+        assertThrows(IOException.class, () -> decrypt(join(first), key));
+    }
+
+    /** 头部 + 每块一条记录，和 ChunkSink 收到的顺序一致 */
+    private static List<byte[]> chunks(SecretKey key, byte[] plain) throws Exception {
+        ChunkedCipher.Encryptor encryptor = new ChunkedCipher.Encryptor(key, CHUNK);
+        List<byte[]> parts = new ArrayList<>();
+        parts.add(encryptor.header());
+        for (int off = 0; off < plain.length; off += CHUNK) {
+            int len = Math.min(CHUNK, plain.length - off);
+            parts.add(encryptor.encryptChunk(Arrays.copyOfRange(plain, off, off + len), len, off + len >= plain.length));
+        }
+        return parts;
+    }
+
+    private static byte[] join(List<byte[]> parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parts.forEach(out::writeBytes);
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] sealed, SecretKey key) throws IOException {
+        try (InputStream in = ChunkedCipher.decryptingStream(new ByteArrayInputStream(sealed), key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] plain(int size) {
+        byte[] plain = new byte[size];
+        for (int i = 0; i < size; i++) plain[i] = (byte) (i * 31 + 7);
+        return plain;
+    }
+}
@@ -0,0 +1,108 @@
+package com.my.chatroom;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * AES-GCM 信封 (EncryptionUtils.seal / open)：往返、旧 CBC 密文只在 allowLegacy 时解密、篡改后解密失败
+ */
+class EncryptionUtilsTest {
+
+    private final SecretKey key = newKey();
+
+    private static SecretKey newKey() {
+        try {
+            return EncryptionUtils.generateAesKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void sealOpenRoundTrip() throws Exception {
+        byte[] plain = "你好，GCM".getBytes(StandardCharsets.UTF_8);
+        byte[] envelope = EncryptionUtils.seal(plain, key);
+
+        assertEquals(1 + 12 + plain.length + 16, envelope.length);
+        assertArrayEquals(plain, EncryptionUtils.open(envelope, key));
+        assertEquals("你好，GCM", EncryptionUtils.openToString(envelope, key));
+        assertEquals("hello", EncryptionUtils.aesDecrypt(EncryptionUtils.aesEncrypt("hello", key), key));
+
+        ByteBuffer sealed = EncryptionUtils.seal(ByteBuffer.wrap(plain), key);
+        ByteBuffer opened = EncryptionUtils.open(sealed, key);
+        assertEquals(sealed.limit(), sealed.position());
+        assertEquals(ByteBuffer.wrap(plain), opened);
+    }
+
+    @Test
+    void sealUsesFreshNonce() throws Exception {
+        byte[] plain = new byte[64];
+        assertThrows(AssertionError.class,
+                () -> assertArrayEquals(EncryptionUtils.seal(plain, key), EncryptionUtils.seal(plain, key)));
+    }
+
+    @Test
+    void legacyCbcOnlyWhenAllowed() throws Exception {
+        byte[] legacy = legacyCbc("旧的聊天记录".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("旧的聊天记录", EncryptionUtils.openToString(legacy, key, true));
+        assertThrows(GeneralSecurityException.class, () -> EncryptionUtils.openToString(legacy, key));
+        assertThrows(GeneralSecurityException.class, () -> EncryptionUtils.open(legacy, key));
+    }
+
+    @Test
+    void legacyIvStartingWithVersionByteStillDecrypts() throws Exception {
+        byte[] legacy = legacyCbc("abc".getBytes(StandardCharsets.UTF_8));
+        byte[] iv = Arrays.copyOf(legacy, 16);
+        iv[0] = 0x02;
+        Cipher cipher = Cipher.getInstance(EncryptionUtils.AES_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        byte[] body = cipher.doFinal("abc".getBytes(StandardCharsets.UTF_8));
+        byte[] withVersionByte = new byte[16 + body.length];
+        System.arraycopy(iv, 0, withVersionByte, 0, 16);
+        System.arraycopy(body, 0, withVersionByte, 16, body.length);
+
+        assertEquals("abc", EncryptionUtils.openToString(withVersionByte, key, true));
+    }
+
+    @Test
+    void tamperedEnvelopeIsRejected() throws Exception {
+        // 3 字节明文 -> 32 字节信封，长度恰好也是合法的 CBC 长度：不允许旧格式时不能退回 CBC
+        byte[] envelope = EncryptionUtils.seal(new byte[]{1, 2, 3}, key);
+        assertEquals(32, envelope.length);
+
+        for (int i = 1; i < envelope.length; i++) {
+            byte[] tampered = envelope.clone();
+            tampered[i] ^= 0x01;
+            assertThrows(AEADBadTagException.class, () -> EncryptionUtils.open(tampered, key), "篡改第 " + i + " 字节");
+        }
+        byte[] truncated = Arrays.copyOf(envelope, envelope.length - 1);
+        assertThrows(GeneralSecurityException.class, () -> EncryptionUtils.open(truncated, key));
+        assertThrows(AEADBadTagException.class, () -> EncryptionUtils.open(envelope, EncryptionUtils.generateAesKey()));
+    }
+
+    private byte[] legacyCbc(byte[] plain) throws Exception {
+        byte[] iv = new byte[16];
+        CryptoContext.random().nextBytes(iv);
+        iv[0] = 0x01; // 不以 GCM 版本字节开头
+        Cipher cipher = Cipher.getInstance(EncryptionUtils.AES_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        byte[] body = cipher.doFinal(plain);
+        byte[] out = new byte[iv.length + body.length];
+        System.arraycopy(iv, 0, out, 0, iv.length);
+        System.arraycopy(body, 0, out, iv.length, body.length);
+        return out;
+    }
+}
@@ -0,0 +1,128 @@
+package com.my.chatroom;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 群聊发送者密钥 (GroupSession)：按序解密、跳过中间的消息、拒绝重放和跳跃过大的序号，篡改的密文不破坏链状态
+ * 两个不连服务端的 Client，发出的消息 (SenderKeyMessage) 记录下来手工转交
+ */
+class GroupSessionTest {
+
+    private final List<Message> aliceOutbox = new ArrayList<>();
+    private Client alice;
+    private Client bob;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        alice = recordingClient("alice", aliceOutbox);
+        bob = recordingClient("bob", new ArrayList<>());
+        SecretKey pairwise = EncryptionUtils.generateAesKey();
+        alice.setSharedAesKey("bob", pairwise);
+        bob.setSharedAesKey("alice", pairwise);
+        alice.getGroupSession().onMembers(List.of("alice", "bob"));
+        bob.getGroupSession().onMembers(List.of("alice", "bob"));
+    }
+
+    @Test
+    void inOrderMessagesDecrypt() throws Exception {
+        byte[] first = send("第一条");
+        byte[] second = send("第二条");
+
+        assertEquals("第一条", bob.getGroupSession().decrypt("alice", first));
+        assertEquals("第二条", bob.getGroupSession().decrypt("alice", second));
+        // 服务端回显给自己的那一份
+        assertEquals("第一条", alice.getGroupSession().decrypt("alice", first));
+    }
+
+    @Test
+    void skippedMessagesDecryptButCannotGoBack() throws Exception {
+        byte[] m0 = send("m0");
+        byte[] m1 = send("m1");
+        byte[] m2 = send("m2");
+        byte[] m3 = send("m3");
+
+        assertEquals("m0", bob.getGroupSession().decrypt("alice", m0));
+        assertEquals("m3", bob.getGroupSession().decrypt("alice", m3));
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class,
+                () -> bob.getGroupSession().decrypt("alice", m1));
+        assertTrue(e.getMessage().contains("序号已使用"), e.getMessage());
+        assertThrows(GeneralSecurityException.class, () -> bob.getGroupSession().decrypt("alice", m2));
+    }
+
+    @Test
+    void replayIsRejected() throws Exception {
+        byte[] m0 = send("m0");
+        assertEquals("m0", bob.getGroupSession().decrypt("alice", m0));
+
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class,
+                () -> bob.getGroupSession().decrypt("alice", m0));
+        assertTrue(e.getMessage().contains("序号已使用"), e.getMessage());
+    }
+
+    @Test
+    void skipBeyondLimitIsRejected() throws Exception {
+        byte[] first = send("m0");
+        for (int i = 0; i < 2001; i++) send("跳过");
+        byte[] far = send("太远");
+
+        GeneralSecurityException e = assertThrows(GeneralSecurityException.class,
+                () -> bob.getGroupSession().decrypt("alice", far));
+        assertTrue(e.getMessage().contains("跳跃过大"), e.getMessage());
+        assertEquals("m0", bob.getGroupSession().decrypt("alice", first));
+    }
+
+    @Test
+    void tamperedMessageLeavesChainIntact() throws Exception {
+        byte[] m0 = send("m0");
+        byte[] m5 = null;
+        for (int i = 1; i <= 5; i++) m5 = send("m" + i);
+        byte[] tampered = m5.clone();
+        tampered[tampered.length - 1] ^= 0x01;
+
+        assertThrows(GeneralSecurityException.class, () -> bob.getGroupSession().decrypt("alice", tampered));
+        // 伪造的消息没有推进链：之前的序号仍然可以解密
+        assertEquals("m0", bob.getGroupSession().decrypt("alice", m0));
+        assertEquals("m5", bob.getGroupSession().decrypt("alice", m5));
+    }
+
+    @Test
+    void unknownSenderIsRejected() throws Exception {
+        byte[] m0 = send("m0");
+        Client carol = recordingClient("carol", new ArrayList<>());
+
+        assertThrows(GeneralSecurityException.class, () -> carol.getGroupSession().decrypt("alice", m0));
+    }
+
+    /**
+     * alice 加密一条群消息；第一次加密时把分发给 bob 的链密钥交给 bob
+     */
+    private byte[] send(String text) throws GeneralSecurityException {
+        TextMessage msg = alice.getGroupSession().encrypt("alice", text);
+        for (Message out : aliceOutbox) {
+            if (out instanceof SenderKeyMessage) bob.getGroupSession().accept((SenderKeyMessage) out);
+        }
+        aliceOutbox.clear();
+        return msg.getSealedContent();
+    }
+
+    private static Client recordingClient(String userId, List<Message> outbox) {
+        Client client = new Client() {
+            @Override
+            public void sendMessage(Message message) {
+                outbox.add(message);
+            }
+        };
+        client.setCurrentUserId(userId);
+        return client;
+    }
+}
@@ -0,0 +1,171 @@
+package com.my.chatroom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 日志存储 (LogStructuredStore)：崩溃留下的半条记录在重放时被忽略且不会污染之后的写入；
+ * 压缩后重新打开只看到存活记录，id 不复用，中断的压缩留下的文件被清理
+ */
+class LogStructuredStoreTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayIgnoresUncommittedRecord() throws IOException {
+        LogStructuredStore store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        for (int i = 1; i <= 10; i++) save(store, "m" + i);
+        store.close();
+
+        // 预留后崩溃：类型和内容已写入，长度还是 0。内容里恰好在下一条短记录结束处有一段像删除记录的字节
+        Path segment = dir.resolve("segment-000000.log");
+        int end = endOfLog(segment);
+        int nextRecord = 5 + 34 + 3; // 头部 + 消息固定部分 + "m11"
+        ByteBuffer junk = ByteBuffer.allocate(300);
+        while (junk.hasRemaining()) junk.put((byte) 0x7f);
+        junk.putInt(0, 0).put(4, (byte) 1);
+        junk.putInt(nextRecord, 9).put(nextRecord + 4, (byte) 3).putLong(nextRecord + 5, 1);
+        write(segment, end, junk.array());
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(1, 10), contents(store));
+        assertEquals(11, save(store, "m11"));
+        store.close();
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(1, 11), contents(store));
+        assertEquals(12, save(store, "m12"));
+        store.close();
+    }
+
+    @Test
+    void replayIgnoresTornLength() throws IOException {
+        LogStructuredStore store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        for (int i = 1; i <= 5; i++) save(store, "m" + i);
+        store.close();
+
+        // 长度超出段文件末尾
+        Path segment = dir.resolve("segment-000000.log");
+        write(segment, endOfLog(segment), ByteBuffer.allocate(5).putInt(SEGMENT_BYTES).put((byte) 1).array());
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(1, 5), contents(store));
+        assertEquals(6, save(store, "m6"));
+        store.close();
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(1, 6), contents(store));
+        store.close();
+    }
+
+    @Test
+    void reopenAfterCompaction() throws IOException {
+        LogStructuredStore store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        for (int i = 1; i <= 100; i++) save(store, "m" + i);
+        store.insertUser(new User("alice", "hash"));
+        store.saveSessionKey("alice", "bob", "blob");
+        for (long id = 1; id <= 100; id++) {
+            if (id % 10 != 0) assertTrue(store.deleteMessage(id));
+        }
+        assertTrue(store.deleteMessage(100));
+
+        assertTrue(store.reclaimSpace() > 0);
+        List<String> survivors = List.of("m10", "m20", "m30", "m40", "m50", "m60", "m70", "m80", "m90");
+        assertEquals(survivors, contents(store));
+        assertEquals(101, save(store, "m101"));
+        store.close();
+
+        assertTrue(Files.exists(dir.resolve("CURRENT")));
+        assertFalse(Files.exists(dir.resolve("segment-000000.log")));
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(concat(survivors, List.of("m101")), contents(store));
+        assertEquals(List.of(10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 101L),
+                store.getHistoryPage("alice", "bob", Long.MAX_VALUE, 100).stream().map(HistoryRecord::getId).toList());
+        assertEquals(102, save(store, "m102"));
+        assertEquals("hash", store.loadUser("alice").getPasswordHash());
+        assertEquals("blob", store.getAllSessionKeys("alice").get("bob"));
+        store.close();
+    }
+
+    @Test
+    void interruptedCompactionLeftoversAreIgnored() throws IOException {
+        LogStructuredStore store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        for (int i = 1; i <= 20; i++) save(store, "m" + i);
+        store.close();
+
+        // 崩溃在写下一代的途中：CURRENT 还没切换
+        Path partial = Files.createDirectories(dir.resolve("gen-000001"));
+        Files.write(partial.resolve("segment-000000.log"), new byte[]{0, 0, 0, 9, 1, 2, 3});
+        Files.writeString(dir.resolve("CURRENT.tmp"), "gen-000001");
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(1, 20), contents(store));
+        assertFalse(Files.exists(partial));
+        assertFalse(Files.exists(dir.resolve("CURRENT.tmp")));
+
+        // 崩溃在切换 CURRENT 之后、删除旧段之前
+        for (long id = 1; id <= 15; id++) store.deleteMessage(id);
+        Path stale = Files.createTempFile(dir.getParent(), "stale", ".log");
+        Files.copy(dir.resolve("segment-000000.log"), stale, StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(store.reclaimSpace() > 0);
+        store.close();
+        Files.move(stale, dir.resolve("segment-000000.log"));
+
+        store = new LogStructuredStore(dir, SEGMENT_BYTES);
+        assertEquals(contents(16, 20), contents(store));
+        assertFalse(Files.exists(dir.resolve("segment-000000.log")));
+        store.close();
+    }
+
+    private static long save(LogStructuredStore store, String content) {
+        return store.saveMessageAsync("alice", "bob", true, content).join();
+    }
+
+    private static List<String> contents(LogStructuredStore store) {
+        return store.getHistoryPage("alice", "bob", Long.MAX_VALUE, 1000).stream().map(HistoryRecord::getEncryptedContent).toList();
+    }
+
+    private static List<String> contents(int from, int to) {
+        return IntStream.rangeClosed(from, to).mapToObj(i -> "m" + i).toList();
+    }
+
+    private static List<String> concat(List<String> a, List<String> b) {
+        return Stream.concat(a.stream(), b.stream()).toList();
+    }
+
+    /**
+     * 沿长度字段找到最后一条已提交记录之后的位置
+     */
+    private static int endOfLog(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int offset = 0;
+        int length;
+        while (offset + 4 <= buffer.limit() && (length = buffer.getInt(offset)) > 0) offset += 4 + length;
+        return offset;
+    }
+
+    private static void write(Path segment, int offset, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), offset);
+        }
+    }
+}
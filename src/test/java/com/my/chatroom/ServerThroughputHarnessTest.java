@@ -0,0 +1,42 @@
+package com.my.chatroom;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 服务端路由回归 (小规模)：几十个虚拟用户、几千条私聊 / 群聊 / 图片消息，核对每个连接的投递数与目标用户。
+ * 大规模的吞吐量测量仍用 mvn -Pharness verify。
+ */
+class ServerThroughputHarnessTest {
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    static void useTempDatabase() {
+        // 必须在 DatabaseManager 加载前设置，避免写到工作目录下的 chatroom.db
+        System.setProperty("chat.db.url", "jdbc:sqlite:" + dir.resolve("harness.db"));
+        System.setProperty("chat.client.dir", dir.toString());
+    }
+
+    @Test
+    void routesEveryMessageToItsTargets() {
+        ServerThroughputHarness harness = new ServerThroughputHarness(20, 2000, 10, 5);
+
+        boolean ok = harness.run();
+
+        assertTrue(ok, () -> "路由错误: " + harness.getErrors());
+        assertTrue(harness.getErrors().isEmpty(), () -> String.join("\n", harness.getErrors()));
+        assertTrue(harness.getGroupSent() > 0, "应当包含群聊消息");
+        assertTrue(harness.getImageSent() > 0, "应当包含图片消息");
+        // 私聊 / 图片各投递 1 次，群聊投递给全部 20 个在线用户
+        assertEquals(harness.getExpectedDeliveries(), harness.getDeliveries());
+        assertEquals(2000 - harness.getGroupSent() + 20 * harness.getGroupSent(), harness.getDeliveries());
+    }
+}